@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.plugin.adyen.core.AdyenPluginProperties;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JSON round trips of the {@code additional_data} columns: serialization on every response,
+ * notification and payment method write, parsing on every read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdditionalDataBenchmark {
+
+  private Map<String, Object> additionalData;
+  private String additionalDataString;
+
+  @Setup
+  public void setUp() throws Exception {
+    additionalData =
+        ImmutableMap.<String, Object>builder()
+            .put("sessionData", "Ab02b4c0!BQABAgCW5sxB4e/==")
+            .put("sessionId", "CS4A1B2C3D4E5F6A7B")
+            .put("recurring.recurringDetailReference", "8315850371402612")
+            .put("recurring.shopperReference", UUID.randomUUID().toString())
+            .put("paymentMethod", "visa")
+            .put("cardSummary", "1111")
+            .put("expiryDate", "03/2030")
+            .put("authCode", "046702")
+            .build();
+    additionalDataString = AdyenPluginProperties.asString(additionalData);
+  }
+
+  @Benchmark
+  public String asString() throws Exception {
+    return AdyenPluginProperties.asString(additionalData);
+  }
+
+  @Benchmark
+  public Map<String, Object> toAdditionalDataMap() {
+    return AdyenPluginProperties.toAdditionalDataMap(additionalDataString);
+  }
+
+  @Benchmark
+  public Map<?, ?> mapFromAdditionalDataString() {
+    return AdyenDao.mapFromAdditionalDataString(additionalDataString);
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.google.common.collect.ImmutableMap;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.EmbeddedDbHelper;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link AdyenDao} reads and writes of the payment and notification paths against an embedded
+ * PostgreSQL, on a table pre-populated with {@link #RESPONSES} responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.killbill.billing.dbi.test.postgresql=true")
+public class AdyenDaoBenchmark {
+
+  private static final int RESPONSES = 10000;
+  private static final int BATCH = 10;
+
+  private final UUID kbTenantId = UUID.randomUUID();
+  private final UUID kbPaymentMethodId = UUID.randomUUID();
+
+  private AdyenDao dao;
+  private AdyenDao cachingDao;
+  private AdyenResponsesRecord response;
+  private List<AdyenResponsesRecord> batch;
+  private List<String> batchReferences;
+  private List<NotificationRequestItem> batchItems;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    EmbeddedDbHelper.instance().startDb();
+    dao = EmbeddedDbHelper.instance().getAdyenDao();
+    cachingDao = new AdyenDao(EmbeddedDbHelper.instance().getDataSource(), 1000, 0);
+
+    final UUID kbAccountId = UUID.randomUUID();
+    batch = new ArrayList<>();
+    batchReferences = new ArrayList<>();
+    batchItems = new ArrayList<>();
+    for (int i = 0; i < RESPONSES; i++) {
+      final ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
+      outputDTO.setAdditionalData(ImmutableMap.of("sessionId", "CS" + i));
+      final AdyenResponsesRecord record =
+          dao.addResponse(
+              kbAccountId,
+              UUID.randomUUID(),
+              UUID.randomUUID(),
+              TransactionType.PURCHASE,
+              BigDecimal.TEN,
+              Currency.EUR,
+              PaymentPluginStatus.PENDING,
+              "CS" + i,
+              outputDTO,
+              kbTenantId);
+      if (i == RESPONSES / 2) {
+        response = record;
+      }
+      if (i % (RESPONSES / BATCH) == 0) {
+        batch.add(record);
+        batchReferences.add(record.getKbPaymentTransactionId());
+        batchItems.add(buildItem(record.getKbPaymentTransactionId(), i));
+      }
+    }
+    dao.addPaymentMethod(
+        kbAccountId,
+        kbPaymentMethodId,
+        ImmutableMap.of("recurringDetailReference", "8315850371402612"),
+        true,
+        kbTenantId,
+        true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    EmbeddedDbHelper.instance().stopDB();
+  }
+
+  @Benchmark
+  public AdyenResponsesRecord getResponseFromMerchantReference() throws Exception {
+    return dao.getResponseFromMerchantReference(response.getKbPaymentTransactionId());
+  }
+
+  @Benchmark
+  public Map<String, AdyenResponsesRecord> getResponsesFromMerchantReferences() throws Exception {
+    return dao.getResponsesFromMerchantReferences(batchReferences);
+  }
+
+  @Benchmark
+  public AdyenResponsesRecord getSuccessfulPurchaseResponse() throws Exception {
+    return dao.getSuccessfulPurchaseResponse(
+        UUID.fromString(response.getKbPaymentId()), kbTenantId);
+  }
+
+  @Benchmark
+  public AdyenPaymentMethodsRecord getPaymentMethod() throws Exception {
+    return dao.getPaymentMethod(kbPaymentMethodId, kbTenantId);
+  }
+
+  @Benchmark
+  public AdyenPaymentMethodsRecord getPaymentMethodCached() throws Exception {
+    return cachingDao.getPaymentMethod(kbPaymentMethodId, kbTenantId);
+  }
+
+  /** One webhook's worth of notifications: status updates and inserts, batched. */
+  @Benchmark
+  public void addNotifications() throws Exception {
+    dao.addNotifications(batch, batchItems);
+  }
+
+  private static NotificationRequestItem buildItem(final String merchantReference, final int i) {
+    final Amount amount = new Amount();
+    amount.setCurrency("EUR");
+    amount.setValue(1000L);
+
+    final NotificationRequestItem item = new NotificationRequestItem();
+    item.setMerchantReference(merchantReference);
+    item.setPspReference(String.valueOf(7914073381342284L + i));
+    item.setEventCode("AUTHORISATION");
+    item.setSuccess(true);
+    item.setAmount(amount);
+    return item;
+  }
+}
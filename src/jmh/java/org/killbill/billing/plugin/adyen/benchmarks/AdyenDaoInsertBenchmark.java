@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.jooq.DSLContext;
+import org.jooq.Insert;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.EmbeddedDbHelper;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Response insertion against an embedded PostgreSQL: insert then {@code lastID()} lookup in a
+ * transaction (what {@link AdyenDao#addResponse} used to do) vs {@code INSERT ... RETURNING}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.killbill.billing.dbi.test.postgresql=true")
+public class AdyenDaoInsertBenchmark {
+
+  private final UUID kbAccountId = UUID.randomUUID();
+  private final UUID kbTenantId = UUID.randomUUID();
+
+  private DataSource dataSource;
+  private AdyenDao dao;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    EmbeddedDbHelper.instance().startDb();
+    dataSource = EmbeddedDbHelper.instance().getDataSource();
+    dao = EmbeddedDbHelper.instance().getAdyenDao();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    EmbeddedDbHelper.instance().stopDB();
+  }
+
+  @Benchmark
+  public AdyenResponsesRecord insertThenSelect() throws Exception {
+    try (final Connection conn = dataSource.getConnection()) {
+      return DSL.using(conn, SQLDialect.POSTGRES)
+          .transactionResult(
+              configuration -> {
+                final DSLContext dslContext = DSL.using(configuration);
+                insertInto(dslContext).execute();
+                return dslContext.fetchOne(
+                    ADYEN_RESPONSES,
+                    ADYEN_RESPONSES.RECORD_ID.eq(
+                        ADYEN_RESPONSES.RECORD_ID.getDataType().convert(dslContext.lastID())));
+              });
+    }
+  }
+
+  @Benchmark
+  public AdyenResponsesRecord insertReturning() throws Exception {
+    return dao.addResponse(
+        kbAccountId,
+        UUID.randomUUID(),
+        UUID.randomUUID(),
+        TransactionType.PURCHASE,
+        BigDecimal.TEN,
+        Currency.EUR,
+        PaymentPluginStatus.PENDING,
+        null,
+        new ProcessorOutputDTO(),
+        kbTenantId);
+  }
+
+  private Insert<AdyenResponsesRecord> insertInto(final DSLContext dslContext) {
+    return dslContext
+        .insertInto(
+            ADYEN_RESPONSES,
+            ADYEN_RESPONSES.KB_ACCOUNT_ID,
+            ADYEN_RESPONSES.KB_PAYMENT_ID,
+            ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID,
+            ADYEN_RESPONSES.TRANSACTION_TYPE,
+            ADYEN_RESPONSES.TRANSACTION_STATUS,
+            ADYEN_RESPONSES.AMOUNT,
+            ADYEN_RESPONSES.CURRENCY,
+            ADYEN_RESPONSES.CREATED_DATE,
+            ADYEN_RESPONSES.KB_TENANT_ID)
+        .values(
+            kbAccountId.toString(),
+            UUID.randomUUID().toString(),
+            UUID.randomUUID().toString(),
+            TransactionType.PURCHASE.toString(),
+            PaymentPluginStatus.PENDING.toString(),
+            BigDecimal.TEN,
+            Currency.EUR.name(),
+            LocalDateTime.now(),
+            kbTenantId.toString());
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.plugin.adyen.AdyenSimulator;
+import org.killbill.billing.plugin.adyen.AdyenSimulator.LatencyDistribution;
+import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
+import org.killbill.billing.plugin.adyen.client.AdyenPooledHttpClient;
+import org.killbill.billing.plugin.adyen.client.AsyncGatewayProcessor;
+import org.killbill.billing.plugin.adyen.client.GatewayExecutor;
+import org.killbill.billing.plugin.adyen.client.GatewayGuard;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorFactory;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Load test of the gateway executor: a burst of {@code requests} refunds (e.g. month-start
+ * billing) sent through {@code AdyenProcessorImpl}, the Adyen SDK, the {@code GatewayGuard} and
+ * the pooled HTTP client to an {@link AdyenSimulator} answering after {@code latencyMs}.
+ *
+ * <p>The {@code platform} mode is the current blocking model, with one platform thread per
+ * in-flight call ({@code platformThreads} of them). The {@code virtual} mode lets the whole burst
+ * be in flight on virtual threads; it needs the forked JVM to be Java 21+. The GC profiler reports
+ * the heap allocated per burst; platform thread stacks come on top of it.
+ *
+ * <p>The connection pool ({@code http.maxConnectionsPerRoute}, 50 by default) and the concurrency
+ * limiter ({@code gateway.limiter.maxLimit}, 200 by default) would otherwise cap the calls in
+ * flight well below the burst, so both are raised to the executor's in-flight limit, and the
+ * limiter starts there instead of growing from {@code initialLimit}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GatewayExecutorBenchmark {
+
+  private static final UUID TENANT_ID = UUID.randomUUID();
+  private static final String PROPERTY_PREFIX = "org.killbill.billing.plugin.adyen.";
+
+  @Param({"platform", "virtual"})
+  public String mode;
+
+  @Param({"2000"})
+  public int requests;
+
+  @Param({"200"})
+  public int platformThreads;
+
+  @Param({"50"})
+  public int latencyMs;
+
+  private AdyenSimulator simulator;
+  private AdyenPooledHttpClient httpClient;
+  private GatewayExecutor executor;
+  private AsyncGatewayProcessor processor;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    final boolean virtual = "virtual".equals(mode);
+    final int maxInFlight = virtual ? requests : platformThreads;
+    executor = new GatewayExecutor(virtual, maxInFlight, requests, new LongAdder());
+    if (virtual && !executor.isVirtualThreads()) {
+      throw new IllegalStateException("The virtual mode needs Java 21+");
+    }
+
+    simulator = new AdyenSimulator(42L).withLatency(LatencyDistribution.fixed(latencyMs)).start();
+
+    final Properties properties = new Properties();
+    properties.put(PROPERTY_PREFIX + "apiKey", "test-key");
+    properties.put(PROPERTY_PREFIX + "merchantAccount", "TestMerchant");
+    properties.put(PROPERTY_PREFIX + "returnUrl", "http://localhost/return");
+    properties.put(PROPERTY_PREFIX + "checkoutEndpoint", simulator.getCheckoutEndpoint());
+    properties.put(PROPERTY_PREFIX + "http.maxConnectionsPerRoute", String.valueOf(maxInFlight));
+    properties.put(PROPERTY_PREFIX + "gateway.limiter.initialLimit", String.valueOf(maxInFlight));
+    properties.put(PROPERTY_PREFIX + "gateway.limiter.maxLimit", String.valueOf(maxInFlight));
+    final AdyenConfigProperties configuration = new AdyenConfigProperties(properties, "");
+
+    final AdyenMetrics metrics = new AdyenMetrics();
+    httpClient = new AdyenPooledHttpClient(configuration);
+    final GatewayGuard gatewayGuard =
+        new GatewayGuard(TENANT_ID.toString(), configuration, metrics);
+    processor =
+        new AsyncGatewayProcessor(
+            GatewayProcessorFactory.get(configuration, httpClient, gatewayGuard, null, metrics),
+            executor.forTenant(TENANT_ID));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    executor.shutdown();
+    httpClient.close();
+    simulator.close();
+  }
+
+  @Benchmark
+  public void refundBurst() {
+    final CompletableFuture<?>[] futures = new CompletableFuture<?>[requests];
+    for (int i = 0; i < requests; i++) {
+      final ProcessorInputDTO input = new ProcessorInputDTO();
+      input.setCurrency(Currency.EUR);
+      input.setAmount(new BigDecimal("10.00"));
+      input.setKbTransactionId(UUID.randomUUID().toString());
+      input.setPspReference("8315");
+      futures[i] = processor.refundPayment(input);
+    }
+    CompletableFuture.allOf(futures).join();
+  }
+}
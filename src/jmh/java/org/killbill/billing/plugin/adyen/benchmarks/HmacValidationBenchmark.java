@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.plugin.adyen.TestAdyenHmacValidator;
+import org.killbill.billing.plugin.adyen.core.AdyenHmacValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Notification signature validation: SDK validator vs {@link AdyenHmacValidator}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HmacValidationBenchmark {
+
+  private static final String HMAC_KEY = TestAdyenHmacValidator.HMAC_KEY;
+
+  private NotificationRequestItem item;
+  private HMACValidator sdkValidator;
+  private AdyenHmacValidator cachedValidator;
+
+  @Setup
+  public void setUp() throws Exception {
+    item = TestAdyenHmacValidator.buildSignedItem(HMAC_KEY);
+    sdkValidator = new HMACValidator();
+    cachedValidator = new AdyenHmacValidator();
+  }
+
+  /** What the plugin used to do: a new validator, and a new key and Mac, per notification. */
+  @Benchmark
+  public boolean sdkPerCall() throws Exception {
+    return new HMACValidator().validateHMAC(item, HMAC_KEY);
+  }
+
+  @Benchmark
+  public boolean sdkShared() throws Exception {
+    return sdkValidator.validateHMAC(item, HMAC_KEY);
+  }
+
+  @Benchmark
+  public boolean cached() {
+    return cachedValidator.isValid(item, HMAC_KEY);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.plugin.adyen.core.AdyenMinorUnits;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of Kill Bill amounts into the minor units sent to Adyen, once per gateway call: the
+ * former string round trip vs {@link AdyenMinorUnits}. Kill Bill amounts usually have a scale of 9.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MinorUnitBenchmark {
+
+  @Param({"10.00", "10.000000000", "1234567.89"})
+  public String amount;
+
+  private BigDecimal kbAmount;
+
+  @Setup
+  public void setUp() {
+    kbAmount = new BigDecimal(amount);
+  }
+
+  /**
+   * What {@code AdyenSDKClientImpl} used to do, only correct when the scale of the amount is the
+   * exponent of its currency. BigDecimal caches its string, so this understates the cost for the
+   * fresh amounts Kill Bill passes on each call.
+   */
+  @Benchmark
+  public Long stringReplace() {
+    return Long.valueOf(kbAmount.toString().replace(".", ""));
+  }
+
+  @Benchmark
+  public long currencyExponent() {
+    return AdyenMinorUnits.toMinorUnits(kbAmount, "EUR");
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import com.adyen.model.notification.NotificationRequest;
+import com.adyen.notification.WebhookHandler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Parsing of webhook bodies by the SDK's {@link WebhookHandler}, as done for each notification. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotificationParsingBenchmark {
+
+  /** Adyen batches up to a few items per webhook; most carry one. */
+  @Param({"1", "10"})
+  public int items;
+
+  private String notification;
+  private WebhookHandler webhookHandler;
+
+  @Setup
+  public void setUp() throws Exception {
+    final List<Map<String, Object>> notificationItems = new ArrayList<>();
+    for (int i = 0; i < items; i++) {
+      final Map<String, Object> item = new LinkedHashMap<>();
+      item.put(
+          "additionalData",
+          ImmutableMap.of(
+              "hmacSignature", "coqCmt/IZ4E3CzPvMY8zTjQVL5hYJUiBRg8UU+iCWo0=",
+              "recurring.recurringDetailReference", "8315" + i,
+              "recurring.shopperReference", "account-" + i));
+      item.put("amount", ImmutableMap.of("currency", "EUR", "value", 1130));
+      item.put("eventCode", "AUTHORISATION");
+      item.put("eventDate", "2024-01-01T01:00:00+01:00");
+      item.put("merchantAccountCode", "TestMerchant");
+      item.put("merchantReference", "a7c3b1e2-6f0d-4c55-9f0e-0b5d1c3f" + String.format("%04d", i));
+      item.put("paymentMethod", "visa");
+      item.put("pspReference", String.valueOf(7914073381342284L + i));
+      item.put("reason", "046702:1111:03/2030");
+      item.put("success", "true");
+      notificationItems.add(ImmutableMap.of("NotificationRequestItem", item));
+    }
+    notification =
+        new ObjectMapper()
+            .writeValueAsString(
+                ImmutableMap.of("live", "false", "notificationItems", notificationItems));
+    webhookHandler = new WebhookHandler();
+  }
+
+  @Benchmark
+  public NotificationRequest parse() throws Exception {
+    return webhookHandler.handleNotificationJson(notification);
+  }
+}
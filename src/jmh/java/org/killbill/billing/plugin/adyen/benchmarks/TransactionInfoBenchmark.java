@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.api.AdyenPaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.adyen.core.AdyenPluginProperties;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of a response row into what Kill Bill gets back from {@code getPaymentInfo}, once per
+ * transaction of the payment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionInfoBenchmark {
+
+  private AdyenResponsesRecord record;
+
+  @Setup
+  public void setUp() throws Exception {
+    record = new AdyenResponsesRecord();
+    record.setKbAccountId(UUID.randomUUID().toString());
+    record.setKbPaymentId(UUID.randomUUID().toString());
+    record.setKbPaymentTransactionId(UUID.randomUUID().toString());
+    record.setTransactionType(TransactionType.PURCHASE.toString());
+    record.setTransactionStatus(PaymentPluginStatus.PROCESSED.toString());
+    record.setAmount(new BigDecimal("11.30"));
+    record.setCurrency("EUR");
+    record.setPspReference("7914073381342284");
+    record.setCreatedDate(LocalDateTime.now());
+    record.setKbTenantId(UUID.randomUUID().toString());
+    record.setAdditionalData(
+        AdyenPluginProperties.asString(
+            ImmutableMap.of(
+                "sessionData", "Ab02b4c0!BQABAgCW5sxB4e/==",
+                "sessionId", "CS4A1B2C3D4E5F6A7B",
+                "paymentMethod", "visa")));
+  }
+
+  @Benchmark
+  public AdyenPaymentTransactionInfoPlugin build() {
+    return AdyenPaymentTransactionInfoPlugin.build(record);
+  }
+}
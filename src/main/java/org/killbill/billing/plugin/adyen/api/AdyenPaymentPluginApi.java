@@ -21,7 +21,6 @@ import static org.killbill.billing.plugin.adyen.core.resources.AdyenCheckoutServ
 import com.adyen.model.notification.NotificationRequest;
 import com.adyen.model.notification.NotificationRequestItem;
 import com.adyen.notification.WebhookHandler;
-import com.adyen.util.HMACValidator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 
@@ -29,17 +28,28 @@ import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 import org.killbill.billing.account.api.Account;
+import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.osgi.libs.killbill.OSGIConfigPropertiesService;
 import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
 import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentApiException;
 import org.killbill.billing.payment.api.PaymentMethodPlugin;
+import org.killbill.billing.payment.api.PaymentTransaction;
 import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.api.TransactionStatus;
 import org.killbill.billing.payment.api.TransactionType;
 import org.killbill.billing.payment.plugin.api.GatewayNotification;
 import org.killbill.billing.payment.plugin.api.HostedPaymentPageFormDescriptor;
@@ -47,11 +57,20 @@ import org.killbill.billing.payment.plugin.api.PaymentMethodInfoPlugin;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.adyen.api.exceptions.NotificationRejectedException;
 import org.killbill.billing.plugin.adyen.api.exceptions.PaymentMethodException;
+import org.killbill.billing.plugin.adyen.client.AsyncGatewayProcessor;
 import org.killbill.billing.plugin.adyen.client.GatewayProcessor;
-import org.killbill.billing.plugin.adyen.client.GatewayProcessorFactory;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
 import org.killbill.billing.plugin.adyen.core.AdyenActivator;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
+import org.killbill.billing.plugin.adyen.core.AdyenHmacValidator;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationDeduplicator;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationExecutor;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationParking;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationValidator;
 import org.killbill.billing.plugin.adyen.dao.AdyenDao;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
@@ -79,16 +98,59 @@ public class AdyenPaymentPluginApi
   protected static final ObjectMapper objectMapper = new ObjectMapper();
   private final AdyenConfigurationHandler adyenConfigurationHandler;
   private final AdyenDao adyenDao;
+  private final GatewayProcessorRegistry gatewayProcessorRegistry;
+  private final WebhookHandler webhookHandler = new WebhookHandler();
+  private final AdyenHmacValidator hmacValidator = new AdyenHmacValidator();
+  private final AdyenNotificationDeduplicator notificationDeduplicator;
+  private final AdyenNotificationValidator notificationValidator;
+  // Null to apply notifications on the calling thread
+  @Nullable private final AdyenNotificationExecutor notificationExecutor;
+  // Null to drop the items whose payment cannot be found
+  @Nullable private final AdyenNotificationParking notificationParking;
 
   public AdyenPaymentPluginApi(
       final AdyenConfigurationHandler adyenConfigPropertiesConfigurationHandler,
       final OSGIKillbillAPI killbillAPI,
       final OSGIConfigPropertiesService configProperties,
       final Clock clock,
-      final AdyenDao dao) {
+      final AdyenDao dao,
+      final GatewayProcessorRegistry gatewayProcessorRegistry) {
+    this(
+        adyenConfigPropertiesConfigurationHandler,
+        killbillAPI,
+        configProperties,
+        clock,
+        dao,
+        gatewayProcessorRegistry,
+        new AdyenNotificationDeduplicator(
+            new AdyenConfigProperties(new Properties(), ""), new AdyenMetrics()),
+        new AdyenNotificationValidator(
+            adyenConfigPropertiesConfigurationHandler,
+            new AdyenHmacValidator(),
+            new AdyenMetrics()),
+        null,
+        null);
+  }
+
+  public AdyenPaymentPluginApi(
+      final AdyenConfigurationHandler adyenConfigPropertiesConfigurationHandler,
+      final OSGIKillbillAPI killbillAPI,
+      final OSGIConfigPropertiesService configProperties,
+      final Clock clock,
+      final AdyenDao dao,
+      final GatewayProcessorRegistry gatewayProcessorRegistry,
+      final AdyenNotificationDeduplicator notificationDeduplicator,
+      final AdyenNotificationValidator notificationValidator,
+      @Nullable final AdyenNotificationExecutor notificationExecutor,
+      @Nullable final AdyenNotificationParking notificationParking) {
     super(killbillAPI, configProperties, clock, dao);
     this.adyenConfigurationHandler = adyenConfigPropertiesConfigurationHandler;
     this.adyenDao = dao;
+    this.gatewayProcessorRegistry = gatewayProcessorRegistry;
+    this.notificationDeduplicator = notificationDeduplicator;
+    this.notificationValidator = notificationValidator;
+    this.notificationExecutor = notificationExecutor;
+    this.notificationParking = notificationParking;
   }
 
   @Override
@@ -200,14 +262,12 @@ public class AdyenPaymentPluginApi
     final Map<String, String> mergedProperties =
         PluginProperties.toStringMap(paymentMethodProps.getProperties(), properties);
     boolean recurring;
-    if (this.adyenConfigurationHandler.getConfigurable(context.getTenantId()).getHMACKey() == null
-        || this.adyenConfigurationHandler.getConfigurable(context.getTenantId()).getApiKey() == null
-        || this.adyenConfigurationHandler
-                .getConfigurable(context.getTenantId())
-                .getMerchantAccount()
-            == null
-        || this.adyenConfigurationHandler.getConfigurable(context.getTenantId()).getReturnUrl()
-            == null) {
+    final AdyenConfigProperties configuration =
+        this.adyenConfigurationHandler.getConfigurable(context.getTenantId());
+    if (configuration.getHMACKey() == null
+        || configuration.getApiKey() == null
+        || configuration.getMerchantAccount() == null
+        || configuration.getReturnUrl() == null) {
       throw new PaymentMethodException(
           "Missing one or more configuration properties (HMAC KEY/ Api Key / Merchant Account / Return URL) ");
     }
@@ -307,15 +367,14 @@ public class AdyenPaymentPluginApi
     final Map<String, String> mergedProperties = PluginProperties.toStringMap(properties);
     AdyenPaymentMethodsRecord paymentMethodRecord = null;
     try {
-      paymentMethodRecord = this.adyenDao.getPaymentMethod(kbPaymentMethodId.toString());
+      paymentMethodRecord =
+          this.adyenDao.getPaymentMethod(kbPaymentMethodId, context.getTenantId());
     } catch (SQLException e1) {
       logger.error("[Adyen] [purchasePayment]  encountered a database error ", e1);
       return AdyenPaymentTransactionInfoPlugin.cancelPaymentTransactionInfoPlugin(
           TransactionType.PURCHASE, "[purchasePayment]  encountered a database error ");
     }
-    GatewayProcessor gatewayProcessor =
-        GatewayProcessorFactory.get(
-            adyenConfigurationHandler.getConfigurable(context.getTenantId()));
+    GatewayProcessor gatewayProcessor = gatewayProcessorRegistry.get(context.getTenantId());
     ProcessorInputDTO input =
         gatewayProcessor.validateData(
             adyenConfigurationHandler, mergedProperties, kbPaymentMethodId, kbAccountId);
@@ -333,13 +392,17 @@ public class AdyenPaymentPluginApi
     if (mergedProperties.get(IS_CHECKOUT) != null
         && mergedProperties.get(IS_CHECKOUT).equals("true")) {
       outputDTO = gatewayProcessor.processPayment(input);
-      formFields.add(
-          new PluginProperty(SESSION_DATA, outputDTO.getAdditionalData().get(SESSION_DATA), false));
+      if (outputDTO.getAdditionalData() != null) {
+        formFields.add(
+            new PluginProperty(
+                SESSION_DATA, outputDTO.getAdditionalData().get(SESSION_DATA), false));
+      }
     } else {
       input.setRecurringData(paymentMethodRecord.getRecurringDetailReference());
       outputDTO = gatewayProcessor.processOneTimePayment(input);
     }
 
+    final PaymentPluginStatus status = statusOf(outputDTO);
     AdyenResponsesRecord adyenRecord = null;
     try {
       adyenRecord =
@@ -347,10 +410,11 @@ public class AdyenPaymentPluginApi
               kbAccountId,
               kbPaymentId,
               kbTransactionId,
+              kbPaymentMethodId,
               TransactionType.PURCHASE,
               amount,
               currency,
-              PaymentPluginStatus.PENDING,
+              status,
               outputDTO.getFirstPaymentReferenceId(),
               outputDTO,
               context.getTenantId());
@@ -366,9 +430,9 @@ public class AdyenPaymentPluginApi
         TransactionType.PURCHASE,
         amount,
         currency,
-        PaymentPluginStatus.PENDING,
-        null,
-        null,
+        status,
+        outputDTO.getGatewayError(),
+        outputDTO.getGatewayErrorCode(),
         outputDTO.getFirstPaymentReferenceId(),
         outputDTO.getSecondPaymentReferenceId(),
         DateTime.now(),
@@ -385,6 +449,35 @@ public class AdyenPaymentPluginApi
       final Iterable<PluginProperty> properties,
       final CallContext context)
       throws PaymentPluginApiException {
+    return join(
+        voidPayment(
+            kbAccountId, kbPaymentId, kbTransactionId, kbPaymentMethodId, properties, context, false));
+  }
+
+  /**
+   * Same as {@link #voidPayment}, but the call to Adyen runs on the gateway executor, so several
+   * voids can be in flight at once.
+   */
+  public CompletableFuture<PaymentTransactionInfoPlugin> voidPaymentAsync(
+      final UUID kbAccountId,
+      final UUID kbPaymentId,
+      final UUID kbTransactionId,
+      final UUID kbPaymentMethodId,
+      final Iterable<PluginProperty> properties,
+      final CallContext context) {
+    return voidPayment(
+        kbAccountId, kbPaymentId, kbTransactionId, kbPaymentMethodId, properties, context, true);
+  }
+
+  // async: whether the call to Adyen runs on the gateway executor, as for refunds
+  private CompletableFuture<PaymentTransactionInfoPlugin> voidPayment(
+      final UUID kbAccountId,
+      final UUID kbPaymentId,
+      final UUID kbTransactionId,
+      final UUID kbPaymentMethodId,
+      final Iterable<PluginProperty> properties,
+      final CallContext context,
+      final boolean async) {
     logger.info("[Adyen] Refund Payment for account {}", kbAccountId);
     AdyenResponsesRecord adyenRecord = null;
 
@@ -392,61 +485,47 @@ public class AdyenPaymentPluginApi
       adyenRecord = this.adyenDao.getSuccessfulPurchaseResponse(kbPaymentId, context.getTenantId());
       if (adyenRecord == null) {
         logger.error("[Adyen] [voidPayment] Purchase do not exists");
-        return AdyenPaymentTransactionInfoPlugin.cancelPaymentTransactionInfoPlugin(
-            TransactionType.VOID, "Purchase do not exists");
+        return CompletableFuture.completedFuture(
+            AdyenPaymentTransactionInfoPlugin.cancelPaymentTransactionInfoPlugin(
+                TransactionType.VOID, "Purchase do not exists"));
       }
 
     } catch (SQLException e) {
       logger.error("[Adyen] [voidPayment]  but we encountered a database error", e);
-      return AdyenPaymentTransactionInfoPlugin.cancelPaymentTransactionInfoPlugin(
-          TransactionType.VOID, "[voidPayment] but we encountered a database error");
+      return CompletableFuture.completedFuture(
+          AdyenPaymentTransactionInfoPlugin.cancelPaymentTransactionInfoPlugin(
+              TransactionType.VOID, "[voidPayment] but we encountered a database error"));
     }
 
     final Map<String, String> mergedProperties = PluginProperties.toStringMap(properties);
-    GatewayProcessor gatewayProcessor =
-        GatewayProcessorFactory.get(
-            adyenConfigurationHandler.getConfigurable(context.getTenantId()));
+    AsyncGatewayProcessor gatewayProcessor =
+        gatewayProcessorRegistry.getAsync(context.getTenantId());
 
     ProcessorInputDTO input =
-        gatewayProcessor.validateData(
-            adyenConfigurationHandler, mergedProperties, kbPaymentMethodId, kbAccountId);
+        gatewayProcessor
+            .getProcessor()
+            .validateData(
+                adyenConfigurationHandler, mergedProperties, kbPaymentMethodId, kbAccountId);
     input.setPspReference(adyenRecord.getPspReference());
 
     input.setKbTransactionId(kbTransactionId.toString());
 
-    ProcessorOutputDTO outputDTO = gatewayProcessor.voidPayment(input);
-
-    try {
-      adyenRecord =
-          this.adyenDao.addResponse(
-              kbAccountId,
-              kbPaymentId,
-              kbTransactionId,
-              TransactionType.VOID,
-              null,
-              null,
-              PaymentPluginStatus.PENDING,
-              outputDTO.getFirstPaymentReferenceId(),
-              outputDTO,
-              context.getTenantId());
-    } catch (SQLException e) {
-      logger.error("[Adyen] We encountered a database error ", e);
-    }
-    return new AdyenPaymentTransactionInfoPlugin(
-        adyenRecord,
-        kbPaymentId,
-        kbTransactionId,
-        TransactionType.VOID,
-        null,
-        null,
-        PaymentPluginStatus.PENDING,
-        null,
-        null,
-        outputDTO.getFirstPaymentReferenceId(),
-        outputDTO.getSecondPaymentReferenceId(),
-        DateTime.now(),
-        DateTime.now(),
-        null);
+    final CompletableFuture<ProcessorOutputDTO> output =
+        async
+            ? gatewayProcessor.voidPayment(input)
+            : CompletableFuture.completedFuture(gatewayProcessor.getProcessor().voidPayment(input));
+    return output.thenApply(
+        outputDTO ->
+            addResponse(
+                kbAccountId,
+                kbPaymentId,
+                kbTransactionId,
+                kbPaymentMethodId,
+                TransactionType.VOID,
+                null,
+                null,
+                outputDTO,
+                context.getTenantId()));
   }
 
   @Override
@@ -474,48 +553,135 @@ public class AdyenPaymentPluginApi
       final Iterable<PluginProperty> properties,
       final CallContext context)
       throws PaymentPluginApiException {
+    return join(
+        refundPayment(
+            kbAccountId,
+            kbPaymentId,
+            kbTransactionId,
+            kbPaymentMethodId,
+            amount,
+            currency,
+            properties,
+            context,
+            false));
+  }
+
+  /**
+   * Same as {@link #refundPayment}, but the call to Adyen runs on the gateway executor, so bulk
+   * refunds can be fanned out and then joined.
+   */
+  public CompletableFuture<PaymentTransactionInfoPlugin> refundPaymentAsync(
+      final UUID kbAccountId,
+      final UUID kbPaymentId,
+      final UUID kbTransactionId,
+      final UUID kbPaymentMethodId,
+      final BigDecimal amount,
+      final Currency currency,
+      final Iterable<PluginProperty> properties,
+      final CallContext context) {
+    return refundPayment(
+        kbAccountId,
+        kbPaymentId,
+        kbTransactionId,
+        kbPaymentMethodId,
+        amount,
+        currency,
+        properties,
+        context,
+        true);
+  }
+
+  /**
+   * @param async whether the call to Adyen runs on the gateway executor. Kill Bill's own calls are
+   *     blocking: they call Adyen on their thread rather than waiting for another one
+   */
+  private CompletableFuture<PaymentTransactionInfoPlugin> refundPayment(
+      final UUID kbAccountId,
+      final UUID kbPaymentId,
+      final UUID kbTransactionId,
+      final UUID kbPaymentMethodId,
+      final BigDecimal amount,
+      final Currency currency,
+      final Iterable<PluginProperty> properties,
+      final CallContext context,
+      final boolean async) {
     logger.info("[Adyen] Refund Payment for account {}", kbAccountId);
     AdyenResponsesRecord adyenRecord = null;
 
     try {
       adyenRecord = this.adyenDao.getSuccessfulPurchaseResponse(kbPaymentId, context.getTenantId());
-      if (this.refundValidations(adyenRecord, amount) != null) {
-        return this.refundValidations(adyenRecord, amount);
+      final PaymentTransactionInfoPlugin validationError =
+          this.refundValidations(adyenRecord, amount);
+      if (validationError != null) {
+        return CompletableFuture.completedFuture(validationError);
       }
 
     } catch (SQLException e) {
       logger.error("[Adyen] [refundPayment]  but we encountered a database error", e);
-      return AdyenPaymentTransactionInfoPlugin.cancelPaymentTransactionInfoPlugin(
-          TransactionType.REFUND, "[refundPayment] but we encountered a database error");
+      return CompletableFuture.completedFuture(
+          AdyenPaymentTransactionInfoPlugin.cancelPaymentTransactionInfoPlugin(
+              TransactionType.REFUND, "[refundPayment] but we encountered a database error"));
     }
 
     final Map<String, String> mergedProperties = PluginProperties.toStringMap(properties);
-    GatewayProcessor gatewayProcessor =
-        GatewayProcessorFactory.get(
-            adyenConfigurationHandler.getConfigurable(context.getTenantId()));
+    AsyncGatewayProcessor gatewayProcessor =
+        gatewayProcessorRegistry.getAsync(context.getTenantId());
 
     ProcessorInputDTO input =
-        gatewayProcessor.validateData(
-            adyenConfigurationHandler, mergedProperties, kbPaymentMethodId, kbAccountId);
+        gatewayProcessor
+            .getProcessor()
+            .validateData(
+                adyenConfigurationHandler, mergedProperties, kbPaymentMethodId, kbAccountId);
     input.setPspReference(adyenRecord.getPspReference());
     input.setAmount(amount);
     input.setKbTransactionId(kbTransactionId.toString());
     input.setCurrency(currency);
-    ProcessorOutputDTO outputDTO = gatewayProcessor.refundPayment(input);
 
+    final CompletableFuture<ProcessorOutputDTO> output =
+        async
+            ? gatewayProcessor.refundPayment(input)
+            : CompletableFuture.completedFuture(
+                gatewayProcessor.getProcessor().refundPayment(input));
+    return output.thenApply(
+        outputDTO ->
+            addResponse(
+                kbAccountId,
+                kbPaymentId,
+                kbTransactionId,
+                kbPaymentMethodId,
+                TransactionType.REFUND,
+                amount,
+                currency,
+                outputDTO,
+                context.getTenantId()));
+  }
+
+  private PaymentTransactionInfoPlugin addResponse(
+      final UUID kbAccountId,
+      final UUID kbPaymentId,
+      final UUID kbTransactionId,
+      final UUID kbPaymentMethodId,
+      final TransactionType transactionType,
+      @Nullable final BigDecimal amount,
+      @Nullable final Currency currency,
+      final ProcessorOutputDTO outputDTO,
+      final UUID kbTenantId) {
+    final PaymentPluginStatus status = statusOf(outputDTO);
+    AdyenResponsesRecord adyenRecord = null;
     try {
       adyenRecord =
           this.adyenDao.addResponse(
               kbAccountId,
               kbPaymentId,
               kbTransactionId,
-              TransactionType.REFUND,
+              kbPaymentMethodId,
+              transactionType,
               amount,
               currency,
-              PaymentPluginStatus.PENDING,
+              status,
               outputDTO.getFirstPaymentReferenceId(),
               outputDTO,
-              context.getTenantId());
+              kbTenantId);
     } catch (SQLException e) {
       logger.error("[Adyen] We encountered a database error ", e);
     }
@@ -523,12 +689,12 @@ public class AdyenPaymentPluginApi
         adyenRecord,
         kbPaymentId,
         kbTransactionId,
-        TransactionType.REFUND,
+        transactionType,
         amount,
         currency,
-        PaymentPluginStatus.PENDING,
-        null,
-        null,
+        status,
+        outputDTO.getGatewayError(),
+        outputDTO.getGatewayErrorCode(),
         outputDTO.getFirstPaymentReferenceId(),
         outputDTO.getSecondPaymentReferenceId(),
         DateTime.now(),
@@ -536,6 +702,25 @@ public class AdyenPaymentPluginApi
         null);
   }
 
+  // Requests accepted by Adyen stay pending until their notification
+  private static PaymentPluginStatus statusOf(final ProcessorOutputDTO outputDTO) {
+    return outputDTO.getStatus() != null ? outputDTO.getStatus() : PaymentPluginStatus.PENDING;
+  }
+
+  // Only used on the synchronous paths, whose futures are already complete
+  private static PaymentTransactionInfoPlugin join(
+      final CompletableFuture<PaymentTransactionInfoPlugin> future)
+      throws PaymentPluginApiException {
+    try {
+      return future.join();
+    } catch (final CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new PaymentPluginApiException(INTERNAL, e.getCause());
+    }
+  }
+
   @Override
   public HostedPaymentPageFormDescriptor buildFormDescriptor(
       final UUID kbAccountId,
@@ -554,91 +739,317 @@ public class AdyenPaymentPluginApi
       throws PaymentPluginApiException {
     logger.info("[Adyen] Notification recieved");
 
+    // Kill Bill's route does not go through AdyenNotificationServlet and its checks
+    final NotificationRequest notificationRequest;
     try {
-      HMACValidator hmacValidator = new HMACValidator();
-      WebhookHandler notificationHandler = new WebhookHandler();
-      NotificationRequest notificationRequest =
-          notificationHandler.handleNotificationJson(notification);
-
-      NotificationRequestItem notificationItem = notificationRequest.getNotificationItems().get(0);
-
-      AdyenResponsesRecord record =
-          adyenDao.getResponseFromMerchantReference(notificationItem.getMerchantReference());
-      final CallContext tempContext =
-          new PluginCallContext(
-              AdyenActivator.PLUGIN_NAME,
-              clock.getUTCNow(),
-              UUID.fromString(record.getKbAccountId()),
-              UUID.fromString(record.getKbTenantId()));
-      if (hmacValidator.validateHMAC(
-          notificationItem,
-          this.adyenConfigurationHandler.getConfigurable(tempContext.getTenantId()).getHMACKey())) {
-
-        Payment payment =
-            this.killbillAPI
-                .getPaymentApi()
-                .getPayment(
-                    UUID.fromString(record.getKbPaymentId()),
-                    false,
-                    false,
-                    properties,
-                    tempContext);
-
-        ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
-        outputDTO.setPspReferenceCode(notificationItem.getPspReference());
-        if (notificationItem.isSuccess()) {
-          outputDTO.setStatus(PaymentPluginStatus.PROCESSED);
-        } else {
-          outputDTO.setStatus(PaymentPluginStatus.ERROR);
-        }
-        this.adyenDao.updateResponse(
-            UUID.fromString(record.getKbPaymentId()),
-            outputDTO,
-            UUID.fromString(record.getKbTenantId()));
-        this.adyenDao.addNotification(
-            UUID.fromString(record.getKbAccountId()),
-            UUID.fromString(record.getKbPaymentId()),
-            UUID.fromString(record.getKbPaymentTransactionId()),
-            notificationItem,
-            UUID.fromString(record.getKbTenantId()));
+      notificationRequest = notificationValidator.validateSignatures(notification);
+    } catch (NotificationRejectedException e) {
+      logger.warn("[Adyen] Rejecting notification: {}", e.getMessage());
+      throw new PaymentPluginApiException(INTERNAL, e);
+    }
 
-        if (notificationItem.getAdditionalData().get(RECURRING_DATA) != null) {
+    try {
+      handleNotification(notificationRequest, properties);
+    } catch (Exception e) {
+      // Not [accepted]: Adyen delivers it again later, and the items already applied are skipped
+      logger.error("[Adyen] Unable to apply notification: {}", e.getMessage(), e);
+      throw new PaymentPluginApiException(INTERNAL, e);
+    }
+    return new PluginGatewayNotification("[accepted]");
+  }
+
+  /**
+   * Same as {@link #processNotification}, for a payload already parsed (and pre-validated).
+   *
+   * @throws Exception if the notification could not be applied, e.g. a {@link
+   *     RejectedExecutionException} if the notification executor is full: it must not be
+   *     acknowledged, so that Adyen delivers it again later
+   */
+  public GatewayNotification processNotification(
+      final NotificationRequest notificationRequest, final Iterable<PluginProperty> properties)
+      throws Exception {
+    logger.info("[Adyen] Notification recieved");
 
-          this.adyenDao.updateRecurringDetailsPaymentMethod(
-                  payment.getPaymentMethodId(),
-                  UUID.fromString(record.getKbTenantId()),
-                  notificationItem.getAdditionalData().get(RECURRING_DATA));
-        } else {
-          logger.warn("[Adyen] missing {}", RECURRING_DATA);
+    handleNotification(notificationRequest, properties);
+    return new PluginGatewayNotification("[accepted]");
+  }
+
+  /**
+   * Applies a notification payload, e.g. one drained from the notification inbox. Failures are
+   * propagated so that it can be retried.
+   */
+  public void handleNotification(
+      final String notification, final Iterable<PluginProperty> properties) throws Exception {
+    handleNotification(webhookHandler.handleNotificationJson(notification), properties);
+  }
+
+  public void handleNotification(
+      final NotificationRequest notificationRequest, final Iterable<PluginProperty> properties)
+      throws Exception {
+    if (notificationRequest.getNotificationItems() == null
+        || notificationRequest.getNotificationItems().isEmpty()) {
+      logger.warn("[Adyen] Notification without items");
+      return;
+    }
+    // Adyen redelivers notifications until it gets an [accepted]: skip the items already applied
+    final List<NotificationRequestItem> notificationItems =
+        notificationDeduplicator.withoutKnownDuplicates(notificationRequest.getNotificationItems());
+    if (notificationItems.isEmpty()) {
+      logger.info("[Adyen] Skipping already processed notification");
+      return;
+    }
+
+    final List<NotificationRequestItem> unmatchedItems;
+    if (notificationExecutor != null) {
+      unmatchedItems = Collections.synchronizedList(new ArrayList<>());
+      notificationExecutor.execute(
+          notificationItems,
+          items -> unmatchedItems.addAll(applyNotificationItems(items, properties)));
+    } else {
+      unmatchedItems = applyNotificationItems(notificationItems, properties);
+    }
+    // The notification may have beaten the response of the call which created its payment
+    if (notificationParking != null && !unmatchedItems.isEmpty()) {
+      notificationParking.park(unmatchedItems);
+    }
+  }
+
+  /**
+   * Applies a notification parked by {@link AdyenNotificationParking}, returning false if its
+   * payment still cannot be found.
+   */
+  public boolean applyParkedNotification(final String notification) throws Exception {
+    final NotificationRequest notificationRequest =
+        webhookHandler.handleNotificationJson(notification);
+    if (notificationRequest.getNotificationItems() == null) {
+      return true;
+    }
+    return applyNotificationItems(
+            notificationRequest.getNotificationItems(), ImmutableList.<PluginProperty>of())
+        .isEmpty();
+  }
+
+  /** Returns the items whose payment could not be found. */
+  private List<NotificationRequestItem> applyNotificationItems(
+      final List<NotificationRequestItem> notificationItems,
+      final Iterable<PluginProperty> properties)
+      throws Exception {
+    final Set<String> merchantReferences = new HashSet<>();
+    final Set<String> pspReferences = new HashSet<>();
+    for (final NotificationRequestItem notificationItem : notificationItems) {
+      merchantReferences.add(notificationItem.getMerchantReference());
+      if (notificationItem.getPspReference() != null) {
+        pspReferences.add(notificationItem.getPspReference());
+      }
+    }
+
+    // Signatures are checked, and payment methods looked up in Kill Bill, before the transaction
+    // is opened: it only holds its connection and row locks for the reads and writes below
+    final Map<String, AdyenResponsesRecord> records =
+        this.adyenDao.getResponsesFromMerchantReferences(merchantReferences);
+    final List<AdyenResponsesRecord> candidateRecords = new ArrayList<>(notificationItems.size());
+    final List<NotificationRequestItem> candidateItems = new ArrayList<>(notificationItems.size());
+    final List<UUID> candidatePaymentMethodIds = new ArrayList<>(notificationItems.size());
+    final List<NotificationRequestItem> unmatchedItems = new ArrayList<>();
+    for (final NotificationRequestItem notificationItem : notificationItems) {
+      final AdyenResponsesRecord record = records.get(notificationItem.getMerchantReference());
+      if (record == null) {
+        // Without a payment there is no tenant to check the signature against: use the ones owning
+        // the merchant account, so that nothing unsigned gets parked
+        if (!isSignedForMerchantAccount(notificationItem)) {
+          logger.error(
+              "[Adyen] Dropping notification for unknown merchant reference {}: HMAC Key is not"
+                  + " valid for pspReference {}",
+              notificationItem.getMerchantReference(),
+              notificationItem.getPspReference());
+          continue;
         }
+        logger.warn(
+            "[Adyen] No payment found for merchant reference {} (pspReference {})",
+            notificationItem.getMerchantReference(),
+            notificationItem.getPspReference());
+        unmatchedItems.add(notificationItem);
+        continue;
+      }
+      if (!hmacValidator.isValid(
+          notificationItem,
+          this.adyenConfigurationHandler
+              .getConfigurable(UUID.fromString(record.getKbTenantId()))
+              .getHmacSecretKey())) {
+        logger.error(
+            "[Adyen] HMAC Key is not valid for pspReference {}",
+            notificationItem.getPspReference());
+        continue;
+      }
+      candidateRecords.add(record);
+      candidateItems.add(notificationItem);
+      candidatePaymentMethodIds.add(
+          getRecurringPaymentMethodId(record, notificationItem, properties));
+    }
+    if (candidateItems.isEmpty()) {
+      return unmatchedItems;
+    }
+
+    // The deduplication lookup and all the writes share one connection and are committed together.
+    // Kill Bill is only notified once they are, as it reads the new status back through
+    // getPaymentInfo
+    final List<AdyenResponsesRecord> matchedRecords = new ArrayList<>(candidateItems.size());
+    final List<NotificationRequestItem> matchedItems = new ArrayList<>(candidateItems.size());
+    final List<AdyenResponsesRecord> storedRecords = new ArrayList<>();
+    final List<NotificationRequestItem> storedItems = new ArrayList<>();
+    this.adyenDao.inTransaction(
+        unitOfWork -> {
+          final Set<String> storedKeys = unitOfWork.getNotificationKeys(pspReferences);
+          final List<UUID> matchedPaymentMethodIds = new ArrayList<>(candidateItems.size());
+          for (int i = 0; i < candidateItems.size(); i++) {
+            final NotificationRequestItem notificationItem = candidateItems.get(i);
+            if (notificationDeduplicator.isStored(notificationItem, storedKeys)) {
+              logger.info(
+                  "[Adyen] Skipping already processed {} notification for pspReference {}",
+                  notificationItem.getEventCode(),
+                  notificationItem.getPspReference());
+              storedRecords.add(candidateRecords.get(i));
+              storedItems.add(notificationItem);
+              continue;
+            }
+            matchedRecords.add(candidateRecords.get(i));
+            matchedItems.add(notificationItem);
+            matchedPaymentMethodIds.add(candidatePaymentMethodIds.get(i));
+          }
+          if (matchedItems.isEmpty()) {
+            return null;
+          }
+
+          unitOfWork.addNotifications(matchedRecords, matchedItems);
+          for (int i = 0; i < matchedItems.size(); i++) {
+            if (matchedPaymentMethodIds.get(i) != null) {
+              unitOfWork.updateRecurringDetailsPaymentMethod(
+                  matchedPaymentMethodIds.get(i),
+                  UUID.fromString(matchedRecords.get(i).getKbTenantId()),
+                  matchedItems.get(i).getAdditionalData().get(RECURRING_DATA));
+            }
+          }
+          return null;
+        });
 
-        logger.info("[Adyen] Crowder was here");
-        //{"authCode":"059103","cardHolderName":"Checkout Shopper PlaceHolder","cardSummary":"5454","checkoutSessionId":"CS917C1787EA622C42","shopperCountry":"UY","shopperIP":"167.62.124.208","tokenization.shopperReference":"c67b93b3-bf67-4f89-a430-85644436e4d5","hmacSignature":"2QRcCYenK7b+puF5q214EuCy/HaE1lAwqBxVLdrsrnY=","expiryDate":"03/2030","issuerCountry":"PL","cardBin":"545454","recurringProcessingModel":"CardOnFile","recurring.shopperReference":"c67b93b3-bf67-4f89-a430-85644436e4d5","fundingSource":"CREDIT","shopperReference":"c67b93b3-bf67-4f89-a430-85644436e4d5"}
-        try {
-          final Account kbAccount = this.killbillAPI
-              .getAccountUserApi()
-              .getAccountById(UUID.fromString(record.getKbAccountId()), tempContext);
-
-          this.killbillAPI
-              .getPaymentApi()
-              .notifyPendingTransactionOfStateChanged(
-                  kbAccount,
-                  UUID.fromString(record.getKbPaymentTransactionId()),
-                  notificationItem.isSuccess(),
-                  tempContext);
-
-        } catch (Exception e) {
-          logger.error("[Adyen] Crowder: {}", e.getMessage());
-          e.printStackTrace();
+    // Items are only remembered as applied once Kill Bill knows about them. Otherwise, the failure
+    // is propagated (so that the inbox retries the notification) and the redelivered items, found
+    // in the database, are notified again if Kill Bill still has their transaction pending
+    final List<NotificationRequestItem> notifiedItems = new ArrayList<>(matchedItems.size());
+    Exception failure = null;
+    for (int i = 0; i < matchedItems.size() + storedItems.size(); i++) {
+      final boolean stored = i >= matchedItems.size();
+      final AdyenResponsesRecord record =
+          stored ? storedRecords.get(i - matchedItems.size()) : matchedRecords.get(i);
+      final NotificationRequestItem notificationItem =
+          stored ? storedItems.get(i - matchedItems.size()) : matchedItems.get(i);
+      try {
+        if (!stored || isPendingInKillbill(record)) {
+          notifyKillbill(record, notificationItem);
         }
+        notifiedItems.add(notificationItem);
+      } catch (final AccountApiException | PaymentApiException e) {
+        logger.warn(
+            "[Adyen] Unable to notify Kill Bill of transaction {}",
+            record.getKbPaymentTransactionId(),
+            e);
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    notificationDeduplicator.markApplied(notifiedItems);
+    if (failure != null) {
+      throw failure;
+    }
+    return unmatchedItems;
+  }
 
-      } else {
-        logger.error("[Adyen] HMAC Key is not valid");
+  private boolean isPendingInKillbill(final AdyenResponsesRecord record)
+      throws PaymentApiException {
+    final Payment payment =
+        this.killbillAPI
+            .getPaymentApi()
+            .getPayment(
+                UUID.fromString(record.getKbPaymentId()),
+                false,
+                false,
+                ImmutableList.<PluginProperty>of(),
+                newCallContext(record));
+    for (final PaymentTransaction transaction : payment.getTransactions()) {
+      if (transaction.getId().toString().equals(record.getKbPaymentTransactionId())) {
+        return transaction.getTransactionStatus() == TransactionStatus.PENDING;
       }
-    } catch (Exception e) {
-      logger.error("[Adyen] {}", e.getMessage(), e);
     }
-    return new PluginGatewayNotification("[accepted]");
+    return false;
+  }
+
+  /**
+   * Returns the payment method to store the recurring detail reference of a notification on, or
+   * null if it does not carry one.
+   */
+  @Nullable
+  private UUID getRecurringPaymentMethodId(
+      final AdyenResponsesRecord record,
+      final NotificationRequestItem notificationItem,
+      final Iterable<PluginProperty> properties)
+      throws PaymentApiException {
+    if (notificationItem.getAdditionalData() == null
+        || notificationItem.getAdditionalData().get(RECURRING_DATA) == null) {
+      logger.warn("[Adyen] missing {}", RECURRING_DATA);
+      return null;
+    }
+
+    if (record.getKbPaymentMethodId() != null) {
+      return UUID.fromString(record.getKbPaymentMethodId());
+    }
+    // Responses stored before kb_payment_method_id, and not backfilled
+    return this.killbillAPI
+        .getPaymentApi()
+        .getPayment(
+            UUID.fromString(record.getKbPaymentId()),
+            false,
+            false,
+            properties,
+            newCallContext(record))
+        .getPaymentMethodId();
+  }
+
+  private CallContext newCallContext(final AdyenResponsesRecord record) {
+    return new PluginCallContext(
+        AdyenActivator.PLUGIN_NAME,
+        clock.getUTCNow(),
+        UUID.fromString(record.getKbAccountId()),
+        UUID.fromString(record.getKbTenantId()));
+  }
+
+  private boolean isSignedForMerchantAccount(final NotificationRequestItem notificationItem) {
+    for (final AdyenConfigProperties configuration :
+        this.adyenConfigurationHandler.getConfigurablesForMerchantAccount(
+            notificationItem.getMerchantAccountCode())) {
+      if (hmacValidator.isValid(notificationItem, configuration.getHmacSecretKey())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void notifyKillbill(
+      final AdyenResponsesRecord record, final NotificationRequestItem notificationItem)
+      throws AccountApiException, PaymentApiException {
+    final CallContext tempContext = newCallContext(record);
+    final Account kbAccount =
+        this.killbillAPI
+            .getAccountUserApi()
+            .getAccountById(UUID.fromString(record.getKbAccountId()), tempContext);
+
+    this.killbillAPI
+        .getPaymentApi()
+        .notifyPendingTransactionOfStateChanged(
+            kbAccount,
+            UUID.fromString(record.getKbPaymentTransactionId()),
+            notificationItem.isSuccess(),
+            tempContext);
   }
 
   public Map<String, String> getAdditionalDataMap(String additionalData) {
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.api.exceptions;
+
+/** Thrown when a webhook fails the checks performed before it reaches the database. */
+public class NotificationRejectedException extends Exception {
+
+  public enum Reason {
+    MALFORMED,
+    UNAUTHORIZED,
+    UNKNOWN_MERCHANT_ACCOUNT,
+    INVALID_HMAC
+  }
+
+  private final Reason reason;
+
+  public NotificationRejectedException(final Reason reason, final String message) {
+    super(message);
+    this.reason = reason;
+  }
+
+  public Reason getReason() {
+    return reason;
+  }
+}
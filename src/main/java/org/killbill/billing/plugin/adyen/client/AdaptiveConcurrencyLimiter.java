@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+/**
+ * AIMD concurrency limiter: the number of calls allowed in flight grows by one per limit's worth of
+ * fast, successful calls, and shrinks by {@code backoffRatio} whenever a call is slower than {@code
+ * latencyThresholdMs} or fails because the gateway is struggling. Calls over the limit are rejected
+ * right away instead of queueing behind a slow gateway.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  private static final double BACKOFF_RATIO = 0.9;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long latencyThresholdMs;
+
+  private double limit;
+  private int inFlight;
+
+  public AdaptiveConcurrencyLimiter(
+      final int initialLimit, final int maxLimit, final long latencyThresholdMs) {
+    this.minLimit = 1;
+    this.maxLimit = Math.max(maxLimit, minLimit);
+    this.latencyThresholdMs = latencyThresholdMs;
+    this.limit = Math.max(minLimit, Math.min(initialLimit, this.maxLimit));
+  }
+
+  public synchronized boolean tryAcquire() {
+    if (inFlight >= (int) limit) {
+      return false;
+    }
+    inFlight++;
+    return true;
+  }
+
+  /**
+   * Releases a slot obtained with {@link #tryAcquire}.
+   *
+   * @param latencyMs how long the call took
+   * @param overloaded whether the call failed in a way that suggests the gateway is overloaded
+   */
+  public synchronized void release(final long latencyMs, final boolean overloaded) {
+    inFlight--;
+    if (overloaded || latencyMs > latencyThresholdMs) {
+      limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+    } else {
+      limit = Math.min(maxLimit, limit + 1.0 / limit);
+    }
+  }
+
+  /** Releases a slot obtained with {@link #tryAcquire}, for a call that was not sent. */
+  public synchronized void abandon() {
+    inFlight--;
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.Client;
+import com.adyen.Config;
+import com.adyen.constants.ApiConstants;
+import com.adyen.httpclient.AdyenHttpClient;
+import com.adyen.httpclient.HTTPClientException;
+import com.adyen.model.RequestOptions;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+
+/**
+ * SDK HTTP client backed by one long-lived, pooled HttpClient 5 instance. The SDK's own client
+ * opens a new connection for every request and relies on default timeouts; this one reuses
+ * connections and applies the tenant's timeout, pool and keep-alive settings. With {@code
+ * http.http2} enabled, HTTP/2 is negotiated through ALPN and calls are multiplexed on fewer
+ * connections.
+ *
+ * <p>The client must be closed once its configuration has been replaced.
+ */
+public class AdyenPooledHttpClient extends AdyenHttpClient implements Closeable {
+
+  private static final String API_KEY_HEADER = "x-api-key";
+  private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+  private final PoolingAsyncClientConnectionManager connectionManager;
+  private final CloseableHttpAsyncClient client;
+
+  public AdyenPooledHttpClient(final AdyenConfigProperties configuration) {
+    final Timeout connectTimeout = Timeout.ofMilliseconds(configuration.getHttpConnectTimeoutMs());
+    final Timeout readTimeout = Timeout.ofMilliseconds(configuration.getHttpReadTimeoutMs());
+    this.connectionManager =
+        PoolingAsyncClientConnectionManagerBuilder.create()
+            .setMaxConnPerRoute(configuration.getHttpMaxConnectionsPerRoute())
+            .setMaxConnTotal(configuration.getHttpMaxConnectionsPerRoute())
+            .setDefaultConnectionConfig(
+                ConnectionConfig.custom()
+                    .setConnectTimeout(connectTimeout)
+                    .setSocketTimeout(readTimeout)
+                    .setTimeToLive(TimeValue.ofMilliseconds(configuration.getHttpKeepAliveMs()))
+                    .build())
+            .setDefaultTlsConfig(
+                TlsConfig.custom()
+                    .setVersionPolicy(
+                        configuration.isHttp2Enabled()
+                            ? HttpVersionPolicy.NEGOTIATE
+                            : HttpVersionPolicy.FORCE_HTTP_1)
+                    .build())
+            .build();
+    this.client =
+        HttpAsyncClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(
+                RequestConfig.custom()
+                    // Waiting for a pooled connection counts as connecting
+                    .setConnectionRequestTimeout(connectTimeout)
+                    .setResponseTimeout(readTimeout)
+                    .build())
+            .evictExpiredConnections()
+            .disableCookieManagement()
+            .build();
+    client.start();
+  }
+
+  @Override
+  public String request(
+      final String endpoint,
+      final String requestBody,
+      final Config config,
+      final boolean isApiKeyRequired,
+      final RequestOptions requestOptions,
+      final ApiConstants.HttpMethod httpMethod,
+      final Map<String, String> params)
+      throws IOException, HTTPClientException {
+    final SimpleRequestBuilder request =
+        SimpleRequestBuilder.create(httpMethod.name())
+            .setUri(toUri(endpoint, params))
+            .addHeader("Accept-Charset", StandardCharsets.UTF_8.name())
+            .addHeader("User-Agent", userAgent(config))
+            .addHeader("adyen-library-name", Client.LIB_NAME)
+            .addHeader("adyen-library-version", Client.LIB_VERSION);
+    if (config.getApiKey() != null && !config.getApiKey().isEmpty()) {
+      request.addHeader(API_KEY_HEADER, config.getApiKey());
+    } else if (config.getUsername() != null && config.getPassword() != null) {
+      final String credentials = config.getUsername() + ":" + config.getPassword();
+      request.addHeader(
+          "Authorization",
+          "Basic "
+              + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+    }
+    if (requestOptions != null && requestOptions.getIdempotencyKey() != null) {
+      request.addHeader(IDEMPOTENCY_KEY_HEADER, requestOptions.getIdempotencyKey());
+    }
+    if (requestBody != null && httpMethod != ApiConstants.HttpMethod.GET) {
+      request.setBody(requestBody, ContentType.APPLICATION_JSON);
+    }
+
+    final SimpleHttpResponse response;
+    try {
+      response = client.execute(request.build(), null).get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while calling " + endpoint);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Unable to call " + endpoint, e.getCause());
+    }
+
+    final String body = response.getBodyText();
+    if (response.getCode() < 200 || response.getCode() >= 300) {
+      throw new HTTPClientException(response.getCode(), "HTTP Exception", headers(response), body);
+    }
+    return body;
+  }
+
+  public PoolStats getPoolStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  @Override
+  public void close() {
+    client.close(CloseMode.GRACEFUL);
+  }
+
+  private static URI toUri(final String endpoint, final Map<String, String> params)
+      throws IOException {
+    try {
+      final URIBuilder uriBuilder = new URIBuilder(endpoint);
+      if (params != null) {
+        params.forEach(uriBuilder::addParameter);
+      }
+      return uriBuilder.build();
+    } catch (final URISyntaxException e) {
+      throw new IOException("Invalid Adyen endpoint " + endpoint, e);
+    }
+  }
+
+  private static String userAgent(final Config config) {
+    final String libraryAgent = Client.LIB_NAME + "/" + Client.LIB_VERSION;
+    return config.getApplicationName() != null
+        ? config.getApplicationName() + " " + libraryAgent
+        : libraryAgent;
+  }
+
+  private static Map<String, List<String>> headers(final SimpleHttpResponse response) {
+    final Map<String, List<String>> headers = new HashMap<>();
+    for (final Header header : response.getHeaders()) {
+      headers.computeIfAbsent(header.getName(), k -> new ArrayList<>()).add(header.getValue());
+    }
+    return headers;
+  }
+}
@@ -25,11 +25,14 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import javax.annotation.Nullable;
 import org.joda.time.LocalDate;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
 import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
 import org.killbill.billing.plugin.adyen.api.SessionInputDTO;
 import org.killbill.billing.plugin.adyen.api.SessionOutputDTO;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
 import org.killbill.billing.plugin.api.PluginTenantContext;
 import org.killbill.billing.util.callcontext.TenantContext;
@@ -39,13 +42,31 @@ import org.slf4j.LoggerFactory;
 public class AdyenProcessorImpl implements GatewayProcessor {
   private static final Logger logger = LoggerFactory.getLogger(AdyenProcessorImpl.class);
 
-  private final AdyenSDKClientImpl httpClient;
+  private final AdyenSDKClient httpClient;
+  private final GatewayGuard gatewayGuard;
+  @Nullable private final MerchantRateLimiter rateLimiter;
 
   private static final String MERCHANT_ACCOUNT = "merchantAccount";
   private static final String API_KEY = "apiKey";
 
-  public AdyenProcessorImpl(AdyenSDKClientImpl httpClient) {
+  // Circuit breaker names
+  private static final String PAYMENTS = "payments";
+  private static final String SESSIONS = "sessions";
+  private static final String REFUNDS = "refunds";
+  private static final String REVERSALS = "reversals";
+  private static final String SESSION_RESULTS = "sessionResults";
+
+  public AdyenProcessorImpl(AdyenSDKClient httpClient, GatewayGuard gatewayGuard) {
+    this(httpClient, gatewayGuard, null);
+  }
+
+  public AdyenProcessorImpl(
+      AdyenSDKClient httpClient,
+      GatewayGuard gatewayGuard,
+      @Nullable MerchantRateLimiter rateLimiter) {
     this.httpClient = httpClient;
+    this.gatewayGuard = gatewayGuard;
+    this.rateLimiter = rateLimiter;
   }
 
   @Override
@@ -53,19 +74,21 @@ public class AdyenProcessorImpl implements GatewayProcessor {
     PaymentResponse response = null;
     try {
       response =
-          httpClient.purchase(
-              input.getCurrency(),
-              input.getAmount(),
-              input.getKbTransactionId(),
-              input.getKbAccountId(),
-              input.getRecurringData());
+          call(
+              PAYMENTS,
+              () ->
+                  httpClient.purchase(
+                      input.getCurrency(),
+                      input.getAmount(),
+                      input.getKbTransactionId(),
+                      input.getKbAccountId(),
+                      input.getRecurringData()));
+    } catch (GatewayUnavailableException e) {
+      return shed(e);
     } catch (IOException e) {
-      logger.error("[Adyen] IO Exception{}", e.getMessage(), e);
-      e.printStackTrace();
+      return ioError(e);
     } catch (ApiException e) {
-
-      logger.error("[Adyen] API Exception {} \n {}", e.getError(), e.getMessage(), e);
-      e.printStackTrace();
+      return apiError(e);
     }
     ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
     if (response != null) {
@@ -82,19 +105,21 @@ public class AdyenProcessorImpl implements GatewayProcessor {
     boolean recurring = input.getPaymentMethod().toString().equals("RECURRING");
     try {
       response =
-          httpClient.checkoutsessions(
-              input.getCurrency(),
-              input.getAmount(),
-              input.getKbTransactionId(),
-              input.getKbAccountId(),
-              recurring);
+          call(
+              SESSIONS,
+              () ->
+                  httpClient.checkoutsessions(
+                      input.getCurrency(),
+                      input.getAmount(),
+                      input.getKbTransactionId(),
+                      input.getKbAccountId(),
+                      recurring));
+    } catch (GatewayUnavailableException e) {
+      return shed(e);
     } catch (IOException e) {
-      logger.error("[Adyen] IO Exception{}", e.getMessage(), e);
-      e.printStackTrace();
+      return ioError(e);
     } catch (ApiException e) {
-
-      logger.error("[Adyen] API Exception {} \n {}", e.getError(), e.getMessage(), e);
-      e.printStackTrace();
+      return apiError(e);
     }
 
     ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
@@ -114,18 +139,20 @@ public class AdyenProcessorImpl implements GatewayProcessor {
     PaymentRefundResponse response = null;
     try {
       response =
-          httpClient.refund(
-              input.getCurrency(),
-              input.getAmount(),
-              input.getKbTransactionId(),
-              input.getPspReference());
+          call(
+              REFUNDS,
+              () ->
+                  httpClient.refund(
+                      input.getCurrency(),
+                      input.getAmount(),
+                      input.getKbTransactionId(),
+                      input.getPspReference()));
+    } catch (GatewayUnavailableException e) {
+      return shed(e);
     } catch (IOException e) {
-      logger.error("[Adyen] IO Exception{}", e.getMessage(), e);
-      e.printStackTrace();
+      return ioError(e);
     } catch (ApiException e) {
-
-      logger.error("[Adyen] API Exception {} \n {}", e.getError(), e.getMessage(), e);
-      e.printStackTrace();
+      return apiError(e);
     }
 
     ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
@@ -148,13 +175,12 @@ public class AdyenProcessorImpl implements GatewayProcessor {
     inputDTO.setPluginProperties(properties);
     // Read Configuration From Kill Bill
     Map<String, String> configurations = new HashMap<>();
-    if (AdyenConfigurationHandler.getConfigurable(context).getApiKey() == null
-        || AdyenConfigurationHandler.getConfigurable(context).getMerchantAccount() == null) {
+    final AdyenConfigProperties configuration = AdyenConfigurationHandler.getConfigurable(context);
+    if (configuration.getApiKey() == null || configuration.getMerchantAccount() == null) {
       return null;
     }
-    configurations.put(
-        MERCHANT_ACCOUNT, AdyenConfigurationHandler.getConfigurable(context).getMerchantAccount());
-    configurations.put(API_KEY, AdyenConfigurationHandler.getConfigurable(context).getApiKey());
+    configurations.put(MERCHANT_ACCOUNT, configuration.getMerchantAccount());
+    configurations.put(API_KEY, configuration.getApiKey());
     inputDTO.setPluginConfiguration(configurations);
     TenantContext tenantContext = new PluginTenantContext(kbAccountId, context);
     String localdate = LocalDate.now().toString("yyyyMMdd");
@@ -168,14 +194,16 @@ public class AdyenProcessorImpl implements GatewayProcessor {
   public ProcessorOutputDTO voidPayment(ProcessorInputDTO input) {
     PaymentReversalResponse response = null;
     try {
-      response = httpClient.reversal(input.getKbTransactionId(), input.getPspReference());
+      response =
+          call(
+              REVERSALS,
+              () -> httpClient.reversal(input.getKbTransactionId(), input.getPspReference()));
+    } catch (GatewayUnavailableException e) {
+      return shed(e);
     } catch (IOException e) {
-      logger.error("[Adyen] IO Exception{}", e.getMessage(), e);
-      e.printStackTrace();
+      return ioError(e);
     } catch (ApiException e) {
-
-      logger.error("[Adyen] API Exception {} \n {}", e.getError(), e.getMessage(), e);
-      e.printStackTrace();
+      return apiError(e);
     }
 
     ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
@@ -195,10 +223,12 @@ public class AdyenProcessorImpl implements GatewayProcessor {
   
     SessionOutputDTO response = null;
     try {
-      response = httpClient.getResultOfPaymentSession(sessionInputDTO);
+      response = call(SESSION_RESULTS, () -> httpClient.getResultOfPaymentSession(sessionInputDTO));
       if (response == null) {
         logger.warn("[Adyen] No response received from Adyen for session ID: {}", sessionInputDTO.getSessionId());
       }
+    } catch (GatewayUnavailableException e) {
+      logger.warn("[Adyen] Session result not fetched: {}", e.getMessage());
     } catch (IOException e) {
       logger.error("[Adyen] IO Exception processing session result: {}", e.getMessage(), e);
     } catch (ApiException e) {
@@ -208,4 +238,39 @@ public class AdyenProcessorImpl implements GatewayProcessor {
     }
     return response;
   }
+
+  // The rate limit wait happens before the guard, so that it is not accounted as gateway latency
+  private <T> T call(String operation, GatewayGuard.GatewayCall<T> call)
+      throws GatewayUnavailableException, IOException, ApiException {
+    if (rateLimiter != null) {
+      rateLimiter.acquire();
+    }
+    return gatewayGuard.call(operation, call);
+  }
+
+  // Not sent: Kill Bill can safely retry
+  private static ProcessorOutputDTO shed(GatewayUnavailableException e) {
+    logger.warn("[Adyen] Call not sent: {}", e.getMessage());
+    return failed(PaymentPluginStatus.CANCELED, e.getReason(), e.getMessage());
+  }
+
+  // The request may have reached Adyen: its notification will settle the status
+  private static ProcessorOutputDTO ioError(IOException e) {
+    logger.error("[Adyen] IO Exception {}", e.getMessage(), e);
+    return failed(PaymentPluginStatus.UNDEFINED, null, e.getMessage());
+  }
+
+  private static ProcessorOutputDTO apiError(ApiException e) {
+    logger.error("[Adyen] API Exception {} \n {}", e.getError(), e.getMessage(), e);
+    return failed(PaymentPluginStatus.ERROR, String.valueOf(e.getStatusCode()), e.getMessage());
+  }
+
+  private static ProcessorOutputDTO failed(
+      PaymentPluginStatus status, String gatewayErrorCode, String gatewayError) {
+    ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
+    outputDTO.setStatus(status);
+    outputDTO.setGatewayErrorCode(gatewayErrorCode);
+    outputDTO.setGatewayError(gatewayError);
+    return outputDTO;
+  }
 }
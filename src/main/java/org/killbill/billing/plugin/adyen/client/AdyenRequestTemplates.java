@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.model.checkout.Amount;
+import com.adyen.model.checkout.CheckoutPaymentMethod;
+import com.adyen.model.checkout.CreateCheckoutSessionRequest;
+import com.adyen.model.checkout.CreateCheckoutSessionRequest.RecurringProcessingModelEnum;
+import com.adyen.model.checkout.CreateCheckoutSessionRequest.ShopperInteractionEnum;
+import com.adyen.model.checkout.CreateCheckoutSessionRequest.StorePaymentMethodModeEnum;
+import com.adyen.model.checkout.PaymentRefundRequest;
+import com.adyen.model.checkout.PaymentRequest;
+import com.adyen.model.checkout.PaymentReversalRequest;
+import com.adyen.model.checkout.StoredPaymentMethodDetails;
+import java.math.BigDecimal;
+import javax.annotation.Nullable;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenMinorUnits;
+
+/**
+ * Builds the Checkout requests of a tenant. The parts which do not depend on the call (merchant
+ * account, return URL, country, capture delay, channel, shopper interaction and recurring models)
+ * are resolved once per configuration snapshot, so that each call only fills in its amount,
+ * reference and shopper.
+ *
+ * <p>The SDK request models are mutable: each call still gets its own instances.
+ */
+public final class AdyenRequestTemplates {
+
+  private final String merchantAccount;
+  @Nullable private final String returnUrl;
+  @Nullable private final String countryCode;
+  @Nullable private final Integer captureDelayHours;
+
+  public AdyenRequestTemplates(final AdyenConfigProperties adyenConfigProperties) {
+    this.merchantAccount = adyenConfigProperties.getMerchantAccount();
+    this.returnUrl = adyenConfigProperties.getReturnUrl();
+    this.countryCode = adyenConfigProperties.getRegion();
+    this.captureDelayHours = adyenConfigProperties.getCaptureDelayHours();
+  }
+
+  public Amount amount(final Currency currency, final BigDecimal kbAmount) {
+    final String currencyCode = currency.name();
+    return new Amount()
+        .currency(currencyCode)
+        .value(AdyenMinorUnits.toMinorUnits(kbAmount, currencyCode));
+  }
+
+  /** Drop-in session; recurring sessions store the payment method for later {@link #payment}s. */
+  public CreateCheckoutSessionRequest session(
+      final Amount amount,
+      final String reference,
+      final String shopperReference,
+      final boolean recurring) {
+    final CreateCheckoutSessionRequest request = new CreateCheckoutSessionRequest();
+    request.setMerchantAccount(merchantAccount);
+    request.setChannel(CreateCheckoutSessionRequest.ChannelEnum.WEB);
+    request.setReturnUrl(returnUrl);
+    request.setCountryCode(countryCode);
+    request.setCaptureDelayHours(captureDelayHours);
+    request.setAmount(amount);
+    request.setReference(reference);
+    request.setShopperReference(shopperReference);
+    if (recurring) {
+      request.setRecurringProcessingModel(RecurringProcessingModelEnum.CARDONFILE);
+      request.setShopperInteraction(ShopperInteractionEnum.ECOMMERCE);
+      request.setStorePaymentMethod(true);
+      request.setStorePaymentMethodMode(StorePaymentMethodModeEnum.ENABLED);
+    }
+    return request;
+  }
+
+  /** Merchant-initiated payment with a payment method stored by a recurring session. */
+  public PaymentRequest payment(
+      final Amount amount,
+      final String reference,
+      final String shopperReference,
+      final String storedPaymentMethodId) {
+    final StoredPaymentMethodDetails storedPaymentMethodDetails = new StoredPaymentMethodDetails();
+    storedPaymentMethodDetails.setStoredPaymentMethodId(storedPaymentMethodId);
+
+    final PaymentRequest request = new PaymentRequest();
+    request.setMerchantAccount(merchantAccount);
+    request.setReturnUrl(returnUrl);
+    request.setCaptureDelayHours(captureDelayHours);
+    request.setShopperInteraction(PaymentRequest.ShopperInteractionEnum.CONTAUTH);
+    request.setRecurringProcessingModel(
+        PaymentRequest.RecurringProcessingModelEnum.UNSCHEDULEDCARDONFILE);
+    request.setAmount(amount);
+    request.setReference(reference);
+    request.setShopperReference(shopperReference);
+    request.setPaymentMethod(new CheckoutPaymentMethod(storedPaymentMethodDetails));
+    return request;
+  }
+
+  public PaymentRefundRequest refund(final Amount amount, final String reference) {
+    final PaymentRefundRequest request = new PaymentRefundRequest();
+    request.setMerchantAccount(merchantAccount);
+    request.setAmount(amount);
+    request.setReference(reference);
+    return request;
+  }
+
+  public PaymentReversalRequest reversal(final String reference) {
+    final PaymentReversalRequest request = new PaymentReversalRequest();
+    request.setMerchantAccount(merchantAccount);
+    request.setReference(reference);
+    return request;
+  }
+}
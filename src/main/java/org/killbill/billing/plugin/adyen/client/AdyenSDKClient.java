@@ -39,14 +39,14 @@ public interface AdyenSDKClient {
             String transactionId,
             String kbAccountId,
             boolean isRecurring)
-            throws IOException, ApiException;
+            throws GatewayUnavailableException, IOException, ApiException;
 
     public PaymentReversalResponse reversal(String transactionId, String paymentPspReference)
-            throws IOException, ApiException;
+            throws GatewayUnavailableException, IOException, ApiException;
 
     public PaymentRefundResponse refund(
             Currency currency, BigDecimal kbAmount, String transactionId, String paymentPspReference)
-            throws IOException, ApiException;
+            throws GatewayUnavailableException, IOException, ApiException;
 
     public PaymentResponse purchase(
             Currency currency,
@@ -54,8 +54,8 @@ public interface AdyenSDKClient {
             String transactionId,
             String kbAccountId,
             String recurringDetailReference)
-            throws IOException, ApiException;
+            throws GatewayUnavailableException, IOException, ApiException;
 
     public SessionOutputDTO getResultOfPaymentSession(SessionInputDTO sessionInputDTO)
-            throws IOException, ApiException;
+            throws GatewayUnavailableException, IOException, ApiException;
 }
@@ -18,29 +18,19 @@
 package org.killbill.billing.plugin.adyen.client;
 
 import com.adyen.Client;
-import com.adyen.enums.Environment;
-import com.adyen.model.checkout.Amount;
-import com.adyen.model.checkout.CheckoutPaymentMethod;
-import com.adyen.model.checkout.CreateCheckoutSessionRequest;
-import com.adyen.model.checkout.CreateCheckoutSessionRequest.RecurringProcessingModelEnum;
-import com.adyen.model.checkout.CreateCheckoutSessionRequest.ShopperInteractionEnum;
-import com.adyen.model.checkout.CreateCheckoutSessionRequest.StorePaymentMethodModeEnum;
+import com.adyen.httpclient.ClientInterface;
 import com.adyen.model.checkout.CreateCheckoutSessionResponse;
-
-import com.adyen.model.checkout.PaymentRefundRequest;
 import com.adyen.model.checkout.PaymentRefundResponse;
-import com.adyen.model.checkout.PaymentRequest;
 import com.adyen.model.checkout.PaymentResponse;
-import com.adyen.model.checkout.PaymentReversalRequest;
 import com.adyen.model.checkout.PaymentReversalResponse;
 import com.adyen.model.checkout.SessionResultResponse;
-import com.adyen.model.checkout.StoredPaymentMethodDetails;
 import com.adyen.service.checkout.ModificationsApi;
 import com.adyen.service.checkout.PaymentsApi;
 import com.adyen.service.exception.ApiException;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import javax.annotation.Nullable;
 
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.plugin.adyen.api.SessionInputDTO;
@@ -49,18 +39,32 @@ import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 
 public class AdyenSDKClientImpl implements AdyenSDKClient {
 
-    private final AdyenConfigProperties adyenConfigProperties;
+    private final AdyenRequestTemplates requestTemplates;
     private final PaymentsApi paymentsApi;
     private final ModificationsApi modificationsApi;
 
     public AdyenSDKClientImpl(AdyenConfigProperties adyenConfigProperties) {
-        this.adyenConfigProperties = adyenConfigProperties;
+        this(adyenConfigProperties, null);
+    }
+
+    /** @param httpClient replaces the SDK's default HTTP client, when not null */
+    public AdyenSDKClientImpl(
+            AdyenConfigProperties adyenConfigProperties, @Nullable ClientInterface httpClient) {
+        this.requestTemplates = new AdyenRequestTemplates(adyenConfigProperties);
         final Client client =
                 new Client(
-                        adyenConfigProperties.getApiKey(),
-                        Environment.valueOf(adyenConfigProperties.getEnviroment()));
-        this.paymentsApi = new PaymentsApi(client);
-        this.modificationsApi = new ModificationsApi(client);
+                        adyenConfigProperties.getApiKey(), adyenConfigProperties.getEnvironment());
+        if (httpClient != null) {
+            client.setHttpClient(httpClient);
+        }
+        final String checkoutEndpoint = adyenConfigProperties.getCheckoutEndpoint();
+        if (checkoutEndpoint != null) {
+            this.paymentsApi = new PaymentsApi(client, checkoutEndpoint);
+            this.modificationsApi = new ModificationsApi(client, checkoutEndpoint);
+        } else {
+            this.paymentsApi = new PaymentsApi(client);
+            this.modificationsApi = new ModificationsApi(client);
+        }
     }
 
     @Override
@@ -71,52 +75,27 @@ public class AdyenSDKClientImpl implements AdyenSDKClient {
             String kbAccountId,
             boolean isRecurrent)
             throws IOException, ApiException {
-
-        Amount amount = new Amount().currency(currency.name()).value(convertToMinorUnit(kbAmount));
-        CreateCheckoutSessionRequest checkoutSession = new CreateCheckoutSessionRequest();
-        checkoutSession.merchantAccount(adyenConfigProperties.getMerchantAccount());
-        checkoutSession.setChannel(CreateCheckoutSessionRequest.ChannelEnum.WEB);
-        checkoutSession.setReference(kbTransactionId);
-        checkoutSession.setReturnUrl(adyenConfigProperties.getReturnUrl());
-        checkoutSession.setAmount(amount);
-        checkoutSession.setCountryCode(adyenConfigProperties.getRegion());
-        checkoutSession.setCaptureDelayHours(
-                Integer.valueOf(adyenConfigProperties.getCaptureDelayHours()));
-        checkoutSession.setShopperReference(kbAccountId);
-        if (isRecurrent) {
-            checkoutSession.setRecurringProcessingModel(RecurringProcessingModelEnum.CARDONFILE);
-            checkoutSession.shopperInteraction(ShopperInteractionEnum.ECOMMERCE);
-//          checkoutSession.setEnableOneClick(true);
-//          checkoutSession.setEnableRecurring(true);
-            checkoutSession.storePaymentMethod(true);
-            checkoutSession.storePaymentMethodMode(StorePaymentMethodModeEnum.ENABLED);
-        }
-
-        return paymentsApi.sessions(checkoutSession);
+        return paymentsApi.sessions(
+                requestTemplates.session(
+                        requestTemplates.amount(currency, kbAmount),
+                        kbTransactionId,
+                        kbAccountId,
+                        isRecurrent));
     }
 
     @Override
     public PaymentReversalResponse reversal(String transactionId, String paymentPspReference)
             throws IOException, ApiException {
-
-        PaymentReversalRequest paymentReversalRequest = new PaymentReversalRequest();
-
-        paymentReversalRequest.setMerchantAccount(adyenConfigProperties.getMerchantAccount());
-        paymentReversalRequest.setReference(transactionId);
-
-        return modificationsApi.refundOrCancelPayment(paymentPspReference, paymentReversalRequest);
+        return modificationsApi.refundOrCancelPayment(
+                paymentPspReference, requestTemplates.reversal(transactionId));
     }
 
     public PaymentRefundResponse refund(
             Currency currency, BigDecimal kbAmount, String transactionId, String paymentPspReference)
             throws IOException, ApiException {
-
-        PaymentRefundRequest paymentRefundRequest = new PaymentRefundRequest();
-        Amount amount = new Amount().currency(currency.name()).value(convertToMinorUnit(kbAmount));
-        paymentRefundRequest.setAmount(amount);
-        paymentRefundRequest.setMerchantAccount(adyenConfigProperties.getMerchantAccount());
-        paymentRefundRequest.setReference(transactionId);
-        return modificationsApi.refundCapturedPayment(paymentPspReference, paymentRefundRequest);
+        return modificationsApi.refundCapturedPayment(
+                paymentPspReference,
+                requestTemplates.refund(requestTemplates.amount(currency, kbAmount), transactionId));
     }
 
     @Override
@@ -127,30 +106,12 @@ public class AdyenSDKClientImpl implements AdyenSDKClient {
             String kbAccountId,
             String recurringDetailReference)
             throws IOException, ApiException {
-        PaymentRequest paymentsRequest = new PaymentRequest();
-        Amount amount = new Amount().currency(currency.name()).value(convertToMinorUnit(kbAmount));
-        paymentsRequest.setAmount(amount);
-        paymentsRequest.setReference(transactionId);
-
-        paymentsRequest.setShopperReference(kbAccountId);
-        paymentsRequest.setReturnUrl(adyenConfigProperties.getReturnUrl());
-        paymentsRequest.setMerchantAccount(adyenConfigProperties.getMerchantAccount());
-        paymentsRequest.setShopperInteraction(PaymentRequest.ShopperInteractionEnum.CONTAUTH);
-        paymentsRequest.setRecurringProcessingModel(PaymentRequest.RecurringProcessingModelEnum.UNSCHEDULEDCARDONFILE);
-        // antes
-        // paymentsRequest.addOneClickData(recurringDetailReference, null);
-        // despues
-        StoredPaymentMethodDetails storedPaymentMethodDetails = new StoredPaymentMethodDetails();
-        // storedPaymentMethodDetails.setType(TypeEnum.BCMC_MOBILE);
-        storedPaymentMethodDetails.storedPaymentMethodId(recurringDetailReference);
-        // storedPaymentMethodDetails.setRecurringDetailReference(recurringDetailReference);
-
-        paymentsRequest.setPaymentMethod(new CheckoutPaymentMethod(storedPaymentMethodDetails));
-
-        paymentsRequest.setCaptureDelayHours(
-                Integer.valueOf(adyenConfigProperties.getCaptureDelayHours()));
-
-        return paymentsApi.payments(paymentsRequest);
+        return paymentsApi.payments(
+                requestTemplates.payment(
+                        requestTemplates.amount(currency, kbAmount),
+                        transactionId,
+                        kbAccountId,
+                        recurringDetailReference));
     }
 
     @Override
@@ -166,11 +127,4 @@ public class AdyenSDKClientImpl implements AdyenSDKClient {
         return sessionOutputDTO;
     }
 
-    private Long convertToMinorUnit(BigDecimal amount) {
-
-        String minorUnit = amount.toString().replace(".", "");
-
-        return Long.valueOf(minorUnit);
-    }
-
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.api.SessionInputDTO;
+import org.killbill.billing.plugin.adyen.api.SessionOutputDTO;
+
+/**
+ * Asynchronous view of a {@link GatewayProcessor}. The Adyen SDK only offers blocking calls: they
+ * run on the bounded executor shared by all tenants (see {@link GatewayProcessorRegistry}), which
+ * caps the number of requests in flight, so callers can fan out work without holding one of their
+ * own threads per request.
+ *
+ * <p>When the executor queue is full, the returned future fails with a {@link
+ * RejectedExecutionException}.
+ */
+public class AsyncGatewayProcessor {
+
+  private final GatewayProcessor processor;
+  private final Executor executor;
+
+  public AsyncGatewayProcessor(final GatewayProcessor processor, final Executor executor) {
+    this.processor = processor;
+    this.executor = executor;
+  }
+
+  public GatewayProcessor getProcessor() {
+    return processor;
+  }
+
+  public CompletableFuture<ProcessorOutputDTO> processOneTimePayment(
+      final ProcessorInputDTO input) {
+    return submit(() -> processor.processOneTimePayment(input));
+  }
+
+  public CompletableFuture<ProcessorOutputDTO> processPayment(final ProcessorInputDTO input) {
+    return submit(() -> processor.processPayment(input));
+  }
+
+  public CompletableFuture<ProcessorOutputDTO> refundPayment(final ProcessorInputDTO input) {
+    return submit(() -> processor.refundPayment(input));
+  }
+
+  public CompletableFuture<ProcessorOutputDTO> voidPayment(final ProcessorInputDTO input) {
+    return submit(() -> processor.voidPayment(input));
+  }
+
+  public CompletableFuture<SessionOutputDTO> getSessionResult(
+      final SessionInputDTO sessionInputDTO) {
+    return submit(() -> processor.getSessionResult(sessionInputDTO));
+  }
+
+  private <T> CompletableFuture<T> submit(final Supplier<T> call) {
+    try {
+      return CompletableFuture.supplyAsync(call, executor);
+    } catch (final RejectedExecutionException e) {
+      final CompletableFuture<T> rejected = new CompletableFuture<>();
+      rejected.completeExceptionally(e);
+      return rejected;
+    }
+  }
+}
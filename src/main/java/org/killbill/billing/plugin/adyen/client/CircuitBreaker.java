@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consecutive-failure circuit breaker. After {@code failureThreshold} failures in a row the circuit
+ * opens and calls are rejected for {@code openDurationMs}; then a single trial call is let through
+ * (half-open), which closes the circuit if it succeeds and re-opens it otherwise.
+ */
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    HALF_OPEN,
+    OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openDurationNanos;
+  private final Ticker ticker;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAtNanos;
+  private boolean trialInFlight;
+
+  public CircuitBreaker(final int failureThreshold, final long openDurationMs) {
+    this(failureThreshold, openDurationMs, Ticker.systemTicker());
+  }
+
+  public CircuitBreaker(
+      final int failureThreshold, final long openDurationMs, final Ticker ticker) {
+    this.failureThreshold = failureThreshold;
+    this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMs);
+    this.ticker = ticker;
+  }
+
+  /** Returns whether a call may go through: each permitted call must report its outcome. */
+  public synchronized boolean tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (ticker.read() - openedAtNanos < openDurationNanos) {
+          return false;
+        }
+        state = State.HALF_OPEN;
+        trialInFlight = true;
+        return true;
+      default:
+        if (trialInFlight) {
+          return false;
+        }
+        trialInFlight = true;
+        return true;
+    }
+  }
+
+  /** Reports that a permitted call was not made after all: it counts as neither outcome. */
+  public synchronized void abandon() {
+    trialInFlight = false;
+  }
+
+  public synchronized void onSuccess() {
+    consecutiveFailures = 0;
+    trialInFlight = false;
+    state = State.CLOSED;
+  }
+
+  public synchronized void onFailure() {
+    trialInFlight = false;
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      state = State.OPEN;
+      openedAtNanos = ticker.read();
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the blocking Adyen SDK calls of {@link AsyncGatewayProcessor}s, in one of two modes:
+ *
+ * <ul>
+ *   <li>platform threads (default): a pool shared by all tenants, with {@code maxInFlight} threads
+ *       and a queue of {@code maxQueued} calls.
+ *   <li>virtual threads (JDK 21+): one virtual thread per call, behind a per-tenant bulkhead that
+ *       lets {@code maxInFlight} calls of a tenant run at a time and {@code maxQueued} more wait.
+ *       Waiting and blocking on I/O cost no platform thread, so the limits can be raised to
+ *       thousands, and a tenant cannot starve the others.
+ * </ul>
+ *
+ * <p>Virtual threads are looked up reflectively, as the plugin is built for older JDKs: when they
+ * are not available, the platform mode is used.
+ */
+public class GatewayExecutor {
+
+  private static final Logger logger = LoggerFactory.getLogger(GatewayExecutor.class);
+
+  private final int maxInFlight;
+  private final int maxQueued;
+  private final LongAdder rejected;
+  private final ExecutorService executor;
+  // Only set in platform mode
+  @Nullable private final ThreadPoolExecutor pool;
+  // Only used in virtual threads mode
+  private final ConcurrentMap<UUID, TenantBulkhead> bulkheads = new ConcurrentHashMap<>();
+
+  public GatewayExecutor(
+      final boolean useVirtualThreads,
+      final int maxInFlight,
+      final int maxQueued,
+      final LongAdder rejected) {
+    this.maxInFlight = maxInFlight;
+    this.maxQueued = maxQueued;
+    this.rejected = rejected;
+
+    final ExecutorService virtualThreadsExecutor =
+        useVirtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+    if (useVirtualThreads && virtualThreadsExecutor == null) {
+      logger.warn(
+          "[Adyen] Virtual threads are not available on Java {}, using platform threads",
+          System.getProperty("java.version"));
+    }
+
+    if (virtualThreadsExecutor != null) {
+      this.executor = virtualThreadsExecutor;
+      this.pool = null;
+    } else {
+      this.pool =
+          new ThreadPoolExecutor(
+              maxInFlight,
+              maxInFlight,
+              60,
+              TimeUnit.SECONDS,
+              // ArrayBlockingQueue needs a capacity of at least 1: hand calls off directly instead
+              maxQueued > 0 ? new ArrayBlockingQueue<>(maxQueued) : new SynchronousQueue<>(),
+              new ThreadFactoryBuilder().setNameFormat("adyen-gateway-%d").setDaemon(true).build(),
+              (runnable, executor) -> {
+                throw reject();
+              });
+      pool.allowCoreThreadTimeOut(true);
+      this.executor = pool;
+    }
+  }
+
+  public boolean isVirtualThreads() {
+    return pool == null;
+  }
+
+  /** The executor to run the calls of a tenant on. */
+  public Executor forTenant(final UUID kbTenantId) {
+    if (pool != null) {
+      return pool;
+    }
+    return bulkheads.computeIfAbsent(kbTenantId, k -> new TenantBulkhead());
+  }
+
+  public int getInFlight() {
+    if (pool != null) {
+      return pool.getActiveCount();
+    }
+    return bulkheads.values().stream().mapToInt(TenantBulkhead::getInFlight).sum();
+  }
+
+  public int getQueued() {
+    if (pool != null) {
+      return pool.getQueue().size();
+    }
+    return bulkheads.values().stream().mapToInt(TenantBulkhead::getQueued).sum();
+  }
+
+  public void shutdown() throws InterruptedException {
+    executor.shutdown();
+    if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+      executor.shutdownNow();
+    }
+  }
+
+  private RejectedExecutionException reject() {
+    rejected.increment();
+    return new RejectedExecutionException(
+        "Too many pending Adyen requests (" + maxQueued + " queued)");
+  }
+
+  @Nullable
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (final ReflectiveOperationException | RuntimeException e) {
+      // Missing before Java 21, preview-only in 19 and 20
+      return null;
+    }
+  }
+
+  private final class TenantBulkhead implements Executor {
+
+    private final Semaphore running = new Semaphore(maxInFlight);
+    // Calls running or waiting for a slot
+    private final Semaphore admitted = new Semaphore(maxInFlight + maxQueued);
+
+    @Override
+    public void execute(final Runnable command) {
+      if (!admitted.tryAcquire()) {
+        throw reject();
+      }
+      try {
+        executor.execute(
+            () -> {
+              // Parks the virtual thread, not its carrier
+              running.acquireUninterruptibly();
+              try {
+                command.run();
+              } finally {
+                running.release();
+                admitted.release();
+              }
+            });
+      } catch (final RejectedExecutionException e) {
+        admitted.release();
+        throw e;
+      }
+    }
+
+    private int getInFlight() {
+      return maxInFlight - running.availablePermits();
+    }
+
+    private int getQueued() {
+      return Math.max(0, maxInFlight + maxQueued - admitted.availablePermits() - getInFlight());
+    }
+  }
+}
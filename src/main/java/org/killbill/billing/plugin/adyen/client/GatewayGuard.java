@@ -0,0 +1,202 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.service.exception.ApiException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenHistogram;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+
+/**
+ * Protects a tenant's calls to Adyen: a {@link CircuitBreaker} per operation (so failing refunds do
+ * not block payments) and an {@link AdaptiveConcurrencyLimiter} for the tenant as a whole. Shed
+ * calls fail fast with a {@link GatewayUnavailableException}; so do calls shed by the client itself,
+ * which are neither successes nor failures. Rate limiting ({@link MerchantRateLimiter}) happens
+ * before the guard.
+ *
+ * <p>Connection errors, timeouts, HTTP 429 and 5xx responses count as failures; other API errors
+ * are about the request itself and do not trip the circuit.
+ *
+ * <p>The latency of the calls which reach Adyen is recorded in {@code
+ * adyen_gateway_request_duration_seconds}, by operation and outcome.
+ */
+public class GatewayGuard {
+
+  @FunctionalInterface
+  public interface GatewayCall<T> {
+
+    T call() throws GatewayUnavailableException, IOException, ApiException;
+  }
+
+  private enum Outcome {
+    SUCCESS("success"),
+    API_ERROR("api_error"),
+    IO_ERROR("io_error"),
+    ERROR("error");
+
+    private final String label;
+
+    Outcome(final String label) {
+      this.label = label;
+    }
+  }
+
+  private final String tenant;
+  private final AdyenMetrics metrics;
+  private final int failureThreshold;
+  private final long openDurationMs;
+  private final AdaptiveConcurrencyLimiter limiter;
+  private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+  // By operation, indexed by outcome
+  private final ConcurrentMap<String, AdyenHistogram[]> latencies = new ConcurrentHashMap<>();
+  private final LongAdder shedCircuitOpen;
+  private final LongAdder shedConcurrencyLimit;
+
+  public GatewayGuard(
+      final String tenant, final AdyenConfigProperties configuration, final AdyenMetrics metrics) {
+    this.tenant = tenant;
+    this.metrics = metrics;
+    this.failureThreshold = configuration.getGatewayCircuitBreakerFailureThreshold();
+    this.openDurationMs = configuration.getGatewayCircuitBreakerOpenMs();
+    this.limiter =
+        new AdaptiveConcurrencyLimiter(
+            configuration.getGatewayLimiterInitialLimit(),
+            configuration.getGatewayLimiterMaxLimit(),
+            configuration.getGatewayLimiterLatencyThresholdMs());
+    this.shedCircuitOpen =
+        metrics.counter(
+            "adyen_gateway_shed_total",
+            "tenant",
+            tenant,
+            "reason",
+            GatewayUnavailableException.CIRCUIT_OPEN);
+    this.shedConcurrencyLimit =
+        metrics.counter(
+            "adyen_gateway_shed_total",
+            "tenant",
+            tenant,
+            "reason",
+            GatewayUnavailableException.CONCURRENCY_LIMIT);
+    metrics.gauge("adyen_gateway_concurrency_limit", limiter::getLimit, "tenant", tenant);
+    metrics.gauge("adyen_gateway_concurrency_in_flight", limiter::getInFlight, "tenant", tenant);
+  }
+
+  public <T> T call(final String operation, final GatewayCall<T> call)
+      throws GatewayUnavailableException, IOException, ApiException {
+    if (!limiter.tryAcquire()) {
+      shedConcurrencyLimit.increment();
+      throw new GatewayUnavailableException(
+          GatewayUnavailableException.CONCURRENCY_LIMIT,
+          "Too many concurrent Adyen calls (limit " + limiter.getLimit() + ")");
+    }
+    final CircuitBreaker breaker = getBreaker(operation);
+    if (!breaker.tryAcquire()) {
+      limiter.abandon();
+      shedCircuitOpen.increment();
+      throw new GatewayUnavailableException(
+          GatewayUnavailableException.CIRCUIT_OPEN,
+          "Circuit open for Adyen " + operation + " calls");
+    }
+
+    final long startNanos = System.nanoTime();
+    Outcome outcome = Outcome.ERROR;
+    boolean success = false;
+    boolean sent = true;
+    try {
+      final T result = call.call();
+      outcome = Outcome.SUCCESS;
+      success = true;
+      return result;
+    } catch (final GatewayUnavailableException e) {
+      // Shed before reaching Adyen (e.g. rate limited): says nothing about its health
+      sent = false;
+      throw e;
+    } catch (final ApiException e) {
+      outcome = Outcome.API_ERROR;
+      success = !isGatewayFailure(e);
+      throw e;
+    } catch (final IOException e) {
+      outcome = Outcome.IO_ERROR;
+      throw e;
+    } finally {
+      if (!sent) {
+        breaker.abandon();
+        limiter.abandon();
+      } else {
+        final long latencyNanos = System.nanoTime() - startNanos;
+        getLatencies(operation)[outcome.ordinal()].recordNanos(latencyNanos);
+        if (success) {
+          breaker.onSuccess();
+        } else {
+          breaker.onFailure();
+        }
+        limiter.release(TimeUnit.NANOSECONDS.toMillis(latencyNanos), !success);
+      }
+    }
+  }
+
+  public CircuitBreaker.State getState(final String operation) {
+    return getBreaker(operation).getState();
+  }
+
+  private CircuitBreaker getBreaker(final String operation) {
+    return breakers.computeIfAbsent(
+        operation,
+        op -> {
+          final CircuitBreaker breaker = new CircuitBreaker(failureThreshold, openDurationMs);
+          // 0: closed, 1: half-open, 2: open
+          metrics.gauge(
+              "adyen_gateway_circuit_state",
+              () -> breaker.getState().ordinal(),
+              "tenant",
+              tenant,
+              "operation",
+              op);
+          return breaker;
+        });
+  }
+
+  private AdyenHistogram[] getLatencies(final String operation) {
+    return latencies.computeIfAbsent(
+        operation,
+        op -> {
+          final AdyenHistogram[] histograms = new AdyenHistogram[Outcome.values().length];
+          for (final Outcome outcome : Outcome.values()) {
+            histograms[outcome.ordinal()] =
+                metrics.histogram(
+                    "adyen_gateway_request_duration_seconds",
+                    "tenant",
+                    tenant,
+                    "operation",
+                    op,
+                    "outcome",
+                    outcome.label);
+          }
+          return histograms;
+        });
+  }
+
+  private static boolean isGatewayFailure(final ApiException e) {
+    return e.getStatusCode() == 429 || e.getStatusCode() >= 500;
+  }
+}
@@ -16,14 +16,30 @@
  */
 package org.killbill.billing.plugin.adyen.client;
 
+import javax.annotation.Nullable;
 import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
 
 public class GatewayProcessorFactory {
   private GatewayProcessorFactory() {}
 
-  public static GatewayProcessor get(AdyenConfigProperties adyenConfigProperties) {
-    AdyenSDKClientImpl httpClient = new AdyenSDKClientImpl(adyenConfigProperties);
+  public static GatewayProcessor get(
+      AdyenConfigProperties adyenConfigProperties,
+      AdyenPooledHttpClient pooledHttpClient,
+      GatewayGuard gatewayGuard,
+      @Nullable TokenBucket rateLimiter,
+      AdyenMetrics metrics) {
+    AdyenSDKClient httpClient = new AdyenSDKClientImpl(adyenConfigProperties, pooledHttpClient);
+    MerchantRateLimiter merchantRateLimiter = null;
+    if (rateLimiter != null) {
+      merchantRateLimiter =
+          new MerchantRateLimiter(
+              rateLimiter,
+              adyenConfigProperties.getRateLimitMaxWaitMs(),
+              adyenConfigProperties.getMerchantAccount(),
+              metrics);
+    }
 
-    return new AdyenProcessorImpl(httpClient);
+    return new AdyenProcessorImpl(httpClient, gatewayGuard, merchantRateLimiter);
   }
 }
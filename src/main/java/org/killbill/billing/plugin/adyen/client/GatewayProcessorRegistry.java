@@ -0,0 +1,362 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.api.SessionInputDTO;
+import org.killbill.billing.plugin.adyen.api.SessionOutputDTO;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps one long-lived {@link GatewayProcessor} (and therefore one Adyen SDK client and its HTTP
+ * connections) per tenant.
+ *
+ * <p>A processor is tied to the configuration instance it was built from. When a tenant
+ * configuration is re-uploaded, the configuration handler creates a new {@link
+ * AdyenConfigProperties} instance: the next lookup notices the change and atomically swaps in a
+ * processor built from the new configuration. The HTTP connection pool of the replaced one is
+ * closed once the calls still running on it have completed; calls made afterwards through a stale
+ * reference (e.g. queued asynchronous calls) are sent with the tenant's current processor.
+ *
+ * <p>Asynchronous calls ({@link #getAsync}) run on a bounded {@link GatewayExecutor}: by default at
+ * most {@code maxInFlight} Adyen requests of all tenants run at a time, and up to {@code maxQueued}
+ * more wait for a slot. With virtual threads, these limits apply per tenant.
+ *
+ * <p>Each tenant also has a {@link GatewayGuard} (circuit breakers and concurrency limiter), kept
+ * across configuration changes. When {@code rateLimit.permitsPerSecond} is set, calls are paced by
+ * a {@link TokenBucket} per merchant account, shared by all the tenants using it, updated in place
+ * when a configuration changes its rate and dropped once no tenant uses it anymore.
+ */
+public class GatewayProcessorRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(GatewayProcessorRegistry.class);
+
+  // ConcurrentHashMap does not accept null keys: the global configuration is stored under this one
+  private static final UUID DEFAULT_TENANT_KEY = new UUID(0L, 0L);
+
+  private final ConcurrentMap<UUID, Entry> processors = new ConcurrentHashMap<>();
+  // Replaced entries whose HTTP client is still in use
+  private final Set<Entry> retired = ConcurrentHashMap.newKeySet();
+  private final ConcurrentMap<UUID, GatewayGuard> guards = new ConcurrentHashMap<>();
+  // By merchant account, shared by the tenants using it
+  private final ConcurrentMap<String, SharedBucket> rateLimiters = new ConcurrentHashMap<>();
+  private final AdyenConfigurationHandler adyenConfigurationHandler;
+  private final AdyenConfigProperties globalConfiguration;
+  private final AdyenMetrics metrics;
+  private final LongAdder created;
+  private final LongAdder reused;
+  private final LongAdder swapped;
+  private final GatewayExecutor executor;
+
+  public GatewayProcessorRegistry(
+      final AdyenConfigurationHandler adyenConfigurationHandler, final AdyenMetrics metrics) {
+    this(adyenConfigurationHandler, metrics, new AdyenConfigProperties(new Properties(), ""));
+  }
+
+  /**
+   * @param globalConfiguration the per-node configuration, for the executor and guard settings
+   */
+  public GatewayProcessorRegistry(
+      final AdyenConfigurationHandler adyenConfigurationHandler,
+      final AdyenMetrics metrics,
+      final AdyenConfigProperties globalConfiguration) {
+    this.adyenConfigurationHandler = adyenConfigurationHandler;
+    this.globalConfiguration = globalConfiguration;
+    this.metrics = metrics;
+    this.created = metrics.counter("adyen_gateway_processor_created_total");
+    this.reused = metrics.counter("adyen_gateway_processor_reused_total");
+    this.swapped = metrics.counter("adyen_gateway_processor_swapped_total");
+    metrics.gauge("adyen_gateway_processor_cached", processors::size);
+
+    this.executor =
+        new GatewayExecutor(
+            globalConfiguration.isGatewayVirtualThreads(),
+            globalConfiguration.getGatewayMaxInFlight(),
+            globalConfiguration.getGatewayMaxQueued(),
+            metrics.counter("adyen_gateway_async_rejected_total"));
+    metrics.gauge("adyen_gateway_async_in_flight", executor::getInFlight);
+    metrics.gauge("adyen_gateway_async_queued", executor::getQueued);
+  }
+
+  public GatewayProcessor get(@Nullable final UUID kbTenantId) {
+    return getEntry(kbTenantId).processor;
+  }
+
+  public AsyncGatewayProcessor getAsync(@Nullable final UUID kbTenantId) {
+    return getEntry(kbTenantId).asyncProcessor;
+  }
+
+  public void shutdown() throws InterruptedException {
+    executor.shutdown();
+    for (final Entry entry : processors.values()) {
+      entry.httpClient.close();
+    }
+    for (final Entry entry : retired) {
+      entry.httpClient.close();
+    }
+  }
+
+  private Entry getEntry(@Nullable final UUID kbTenantId) {
+    final UUID key = kbTenantId != null ? kbTenantId : DEFAULT_TENANT_KEY;
+    while (true) {
+      final AdyenConfigProperties configuration =
+          adyenConfigurationHandler.getConfigurable(kbTenantId);
+      final Entry current = processors.get(key);
+      if (current != null && current.configuration == configuration) {
+        reused.increment();
+        return current;
+      }
+
+      // Built outside the map, so that opening a connection pool does not block other lookups
+      final Entry entry = newEntry(key, configuration);
+      final boolean installed =
+          current == null
+              ? processors.putIfAbsent(key, entry) == null
+              : processors.replace(key, current, entry);
+      if (!installed) {
+        // Another thread won the race: use (or replace) its entry instead
+        entry.httpClient.close();
+        releaseRateLimiter(entry);
+        continue;
+      }
+
+      created.increment();
+      registerPoolGauges(key.toString(), entry.httpClient);
+      if (current != null) {
+        logger.info("[Adyen] Configuration changed for tenant {}, rebuilding client", key);
+        swapped.increment();
+        current.retire();
+      }
+      return entry;
+    }
+  }
+
+  private Entry newEntry(final UUID key, final AdyenConfigProperties configuration) {
+    final GatewayGuard guard =
+        guards.computeIfAbsent(
+            key, k -> new GatewayGuard(k.toString(), globalConfiguration, metrics));
+    final AdyenPooledHttpClient httpClient = new AdyenPooledHttpClient(configuration);
+    final TokenBucket rateLimiter = acquireRateLimiter(configuration);
+    final GatewayProcessor processor =
+        GatewayProcessorFactory.get(configuration, httpClient, guard, rateLimiter, metrics);
+    return new Entry(key, configuration, processor, httpClient, rateLimiter != null);
+  }
+
+  private void registerPoolGauges(final String tenant, final AdyenPooledHttpClient httpClient) {
+    metrics.gauge(
+        "adyen_http_pool_leased", () -> httpClient.getPoolStats().getLeased(), "tenant", tenant);
+    metrics.gauge(
+        "adyen_http_pool_available",
+        () -> httpClient.getPoolStats().getAvailable(),
+        "tenant",
+        tenant);
+    metrics.gauge(
+        "adyen_http_pool_pending", () -> httpClient.getPoolStats().getPending(), "tenant", tenant);
+    metrics.gauge(
+        "adyen_http_pool_max", () -> httpClient.getPoolStats().getMax(), "tenant", tenant);
+  }
+
+  @Nullable
+  private TokenBucket acquireRateLimiter(final AdyenConfigProperties configuration) {
+    final String merchantAccount = configuration.getMerchantAccount();
+    final int permitsPerSecond = configuration.getRateLimitPermitsPerSecond();
+    if (permitsPerSecond <= 0 || merchantAccount == null) {
+      return null;
+    }
+    final int burst = configuration.getRateLimitBurst();
+    return rateLimiters.compute(
+            merchantAccount,
+            (account, existing) -> {
+              if (existing != null) {
+                existing.bucket.setRate(permitsPerSecond, burst);
+                existing.users++;
+                return existing;
+              }
+              final SharedBucket shared =
+                  new SharedBucket(new TokenBucket(permitsPerSecond, burst));
+              metrics.gauge(
+                  "adyen_rate_limit_tokens", shared.bucket::getTokens, "merchant_account", account);
+              return shared;
+            })
+        .bucket;
+  }
+
+  /** Drops the bucket of a merchant account, and its series, once no entry uses it anymore. */
+  private void releaseRateLimiter(final Entry entry) {
+    if (!entry.rateLimited) {
+      return;
+    }
+    rateLimiters.computeIfPresent(
+        entry.configuration.getMerchantAccount(),
+        (account, shared) -> {
+          if (--shared.users > 0) {
+            return shared;
+          }
+          metrics.removeGauge("adyen_rate_limit_tokens", "merchant_account", account);
+          metrics.removeHistogram("adyen_rate_limit_wait_seconds", "merchant_account", account);
+          return null;
+        });
+  }
+
+  private final class Entry {
+
+    // Number of calls running on this entry, or CLOSED once its HTTP client has been closed
+    private static final int CLOSED = -1;
+
+    private final UUID key;
+    private final AdyenConfigProperties configuration;
+    private final GatewayProcessor delegate;
+    private final GatewayProcessor processor;
+    private final AsyncGatewayProcessor asyncProcessor;
+    private final AdyenPooledHttpClient httpClient;
+    // Whether it holds a reference on the bucket of its merchant account
+    private final boolean rateLimited;
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile boolean replaced;
+
+    private Entry(
+        final UUID key,
+        final AdyenConfigProperties configuration,
+        final GatewayProcessor delegate,
+        final AdyenPooledHttpClient httpClient,
+        final boolean rateLimited) {
+      this.key = key;
+      this.configuration = configuration;
+      this.delegate = delegate;
+      this.processor = new TrackedProcessor(this);
+      this.asyncProcessor = new AsyncGatewayProcessor(processor, executor.forTenant(key));
+      this.httpClient = httpClient;
+      this.rateLimited = rateLimited;
+    }
+
+    private <T> T call(final Function<GatewayProcessor, T> call) {
+      if (!acquire()) {
+        // Replaced and closed since the caller got hold of it
+        return call.apply(get(DEFAULT_TENANT_KEY.equals(key) ? null : key));
+      }
+      try {
+        return call.apply(delegate);
+      } finally {
+        if (calls.decrementAndGet() == 0 && replaced) {
+          closeIfIdle();
+        }
+      }
+    }
+
+    private boolean acquire() {
+      while (true) {
+        final int current = calls.get();
+        if (current == CLOSED) {
+          return false;
+        }
+        if (calls.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private void retire() {
+      retired.add(this);
+      replaced = true;
+      // Calls still running on it keep their reference to the bucket
+      releaseRateLimiter(this);
+      closeIfIdle();
+    }
+
+    private void closeIfIdle() {
+      if (calls.compareAndSet(0, CLOSED)) {
+        logger.debug("[Adyen] Closing the replaced HTTP client of tenant {}", key);
+        httpClient.close();
+        retired.remove(this);
+      }
+    }
+  }
+
+  /** The token bucket of a merchant account, with the number of entries using it. */
+  private static final class SharedBucket {
+
+    private final TokenBucket bucket;
+    // Only read and written within rateLimiters.compute
+    private int users = 1;
+
+    private SharedBucket(final TokenBucket bucket) {
+      this.bucket = bucket;
+    }
+  }
+
+  /** Counts the calls running on an entry, so that its HTTP client is not closed under them. */
+  private static final class TrackedProcessor implements GatewayProcessor {
+
+    private final Entry entry;
+
+    private TrackedProcessor(final Entry entry) {
+      this.entry = entry;
+    }
+
+    @Override
+    public ProcessorOutputDTO processOneTimePayment(final ProcessorInputDTO input) {
+      return entry.call(processor -> processor.processOneTimePayment(input));
+    }
+
+    @Override
+    public ProcessorOutputDTO processPayment(final ProcessorInputDTO input) {
+      return entry.call(processor -> processor.processPayment(input));
+    }
+
+    @Override
+    public ProcessorOutputDTO refundPayment(final ProcessorInputDTO input) {
+      return entry.call(processor -> processor.refundPayment(input));
+    }
+
+    @Override
+    public ProcessorOutputDTO voidPayment(final ProcessorInputDTO input) {
+      return entry.call(processor -> processor.voidPayment(input));
+    }
+
+    @Override
+    public ProcessorInputDTO validateData(
+        final AdyenConfigurationHandler adyenConfigurationHandler,
+        final Map<String, String> properties,
+        final UUID context,
+        final UUID kbAccountId) {
+      return entry.call(
+          processor ->
+              processor.validateData(adyenConfigurationHandler, properties, context, kbAccountId));
+    }
+
+    @Override
+    public SessionOutputDTO getSessionResult(final SessionInputDTO sessionInputDTO) {
+      return entry.call(processor -> processor.getSessionResult(sessionInputDTO));
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+/** Thrown when a call to Adyen is shed before being sent, to not pile up behind a slow gateway. */
+public class GatewayUnavailableException extends Exception {
+
+  public static final String CIRCUIT_OPEN = "CIRCUIT_OPEN";
+  public static final String CONCURRENCY_LIMIT = "CONCURRENCY_LIMIT";
+  public static final String RATE_LIMITED = "RATE_LIMITED";
+
+  private final String reason;
+
+  public GatewayUnavailableException(final String reason, final String message) {
+    super(message);
+    this.reason = reason;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.killbill.billing.plugin.adyen.core.AdyenHistogram;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+
+/**
+ * Paces the calls to Adyen of a merchant account with a {@link TokenBucket} shared by all the
+ * tenants using it, to stay below Adyen's rate limits during billing runs rather than being
+ * throttled. When no token is available, a call either waits up to {@code maxWaitMs} for one, or
+ * fails fast (when {@code maxWaitMs} is 0) with a {@link GatewayUnavailableException}: it is not
+ * sent, so Kill Bill can retry it.
+ *
+ * <p>The token is taken before the call enters the {@link GatewayGuard}: the wait is neither
+ * recorded as gateway latency nor holds a concurrency or circuit breaker slot.
+ */
+public class MerchantRateLimiter {
+
+  private final TokenBucket bucket;
+  private final long maxWaitNanos;
+  private final String merchantAccount;
+  private final LongAdder rejected;
+  private final AdyenHistogram waits;
+
+  public MerchantRateLimiter(
+      final TokenBucket bucket,
+      final int maxWaitMs,
+      final String merchantAccount,
+      final AdyenMetrics metrics) {
+    this.bucket = bucket;
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    this.merchantAccount = merchantAccount;
+    this.rejected =
+        metrics.counter("adyen_rate_limit_rejected_total", "merchant_account", merchantAccount);
+    this.waits =
+        metrics.histogram("adyen_rate_limit_wait_seconds", "merchant_account", merchantAccount);
+  }
+
+  public void acquire() throws GatewayUnavailableException {
+    final long waitNanos = bucket.reserve(maxWaitNanos);
+    if (waitNanos < 0) {
+      rejected.increment();
+      throw new GatewayUnavailableException(
+          GatewayUnavailableException.RATE_LIMITED,
+          "Rate limit reached for merchant account " + merchantAccount);
+    }
+    waits.recordNanos(waitNanos);
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new GatewayUnavailableException(
+            GatewayUnavailableException.RATE_LIMITED,
+            "Interrupted while waiting for the rate limit of merchant account " + merchantAccount);
+      }
+    }
+  }
+}
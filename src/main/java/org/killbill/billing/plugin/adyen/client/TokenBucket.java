@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Token bucket: {@code permitsPerSecond} tokens are added per second, up to {@code burst}.
+ *
+ * <p>Callers which can wait reserve a token ahead of time (the balance goes negative) and then
+ * sleep until it is theirs, so that waiting callers are served in order and the rate holds without
+ * retry loops.
+ */
+public class TokenBucket {
+
+  private final Ticker ticker;
+
+  private double permitsPerNano;
+  private double capacity;
+  private double tokens;
+  private long refilledAtNanos;
+
+  public TokenBucket(final int permitsPerSecond, final int burst) {
+    this(permitsPerSecond, burst, Ticker.systemTicker());
+  }
+
+  public TokenBucket(final int permitsPerSecond, final int burst, final Ticker ticker) {
+    this.ticker = ticker;
+    this.refilledAtNanos = ticker.read();
+    setRate(permitsPerSecond, burst);
+    this.tokens = capacity;
+  }
+
+  /** Applies a new configuration, keeping the current balance (capped to the new burst). */
+  public synchronized void setRate(final int permitsPerSecond, final int burst) {
+    refill();
+    this.permitsPerNano = Math.max(1, permitsPerSecond) / 1e9;
+    this.capacity = Math.max(1, burst);
+    this.tokens = Math.min(tokens, capacity);
+  }
+
+  /**
+   * Takes a token, or reserves the next one if it becomes available within {@code maxWaitNanos}.
+   *
+   * @return 0 if a token was available, how long to wait before using the reserved token, or -1 if
+   *     none is available in time (nothing is taken then)
+   */
+  public synchronized long reserve(final long maxWaitNanos) {
+    refill();
+    if (tokens >= 1) {
+      tokens -= 1;
+      return 0;
+    }
+    final long waitNanos = (long) Math.ceil((1 - tokens) / permitsPerNano);
+    if (waitNanos > maxWaitNanos) {
+      return -1;
+    }
+    tokens -= 1;
+    return waitNanos;
+  }
+
+  /** Tokens available right now, negative when callers are waiting for reserved tokens. */
+  public synchronized double getTokens() {
+    refill();
+    return tokens;
+  }
+
+  private void refill() {
+    final long now = ticker.read();
+    tokens = Math.min(capacity, tokens + (now - refilledAtNanos) * permitsPerNano);
+    refilledAtNanos = now;
+  }
+}
@@ -19,18 +19,23 @@ package org.killbill.billing.plugin.adyen.core;
 import java.util.Hashtable;
 import javax.servlet.Servlet;
 import javax.servlet.http.HttpServlet;
+import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
 import org.killbill.billing.osgi.api.Healthcheck;
 import org.killbill.billing.osgi.api.OSGIPluginProperties;
 import org.killbill.billing.osgi.libs.killbill.KillbillActivatorBase;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApi;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenCheckoutService;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenCheckoutServlet;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenHealthcheckServlet;
+import org.killbill.billing.plugin.adyen.core.resources.AdyenMetricsServlet;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenNotificationServlet;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenSessionService;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenSessionServlet;
 import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.AdyenSchemaMigrator;
 import org.killbill.billing.plugin.api.notification.PluginConfigurationEventHandler;
 import org.killbill.billing.plugin.core.config.PluginEnvironmentConfig;
 import org.killbill.billing.plugin.core.resources.jooby.PluginApp;
@@ -46,13 +51,16 @@ public class AdyenActivator extends KillbillActivatorBase {
   public static final String PLUGIN_NAME = "adyen-plugin";
 
   private AdyenConfigurationHandler adyenConfigurationHandler;
+  private AdyenNotificationInbox notificationInbox;
+  private GatewayProcessorRegistry gatewayProcessorRegistry;
+  private AdyenNotificationExecutor notificationExecutor;
+  private AdyenNotificationParking notificationParking;
 
   @Override
   public void start(final BundleContext context) throws Exception {
     super.start(context);
 
     logger.info("[Adyen] Starting plugin {}", PLUGIN_NAME);
-    final AdyenDao adyenDao = new AdyenDao(dataSource.getDataSource());
 
     final String region = PluginEnvironmentConfig.getRegion(configProperties.getProperties());
 
@@ -63,14 +71,75 @@ public class AdyenActivator extends KillbillActivatorBase {
         adyenConfigurationHandler.createConfigurable(configProperties.getProperties());
     adyenConfigurationHandler.setDefaultConfigurable(globalConfiguration);
 
+    if (globalConfiguration.isSchemaMigrationsEnabled()) {
+      logger.info("[Adyen] Checking for pending schema migrations");
+      final int applied = new AdyenSchemaMigrator(dataSource.getDataSource()).migrate();
+      logger.info("[Adyen] {} schema migration(s) applied", applied);
+    }
+
+    final AdyenDao adyenDao =
+        new AdyenDao(
+            dataSource.getDataSource(),
+            globalConfiguration.getPaymentMethodsCacheMaxSize(),
+            globalConfiguration.getPaymentMethodsCacheTtlSeconds());
+    // Webhooks are authenticated against the merchant accounts of loaded configurations only
+    adyenConfigurationHandler.index(adyenDao.getKnownTenantIds(PLUGIN_NAME));
+
+    final AdyenMetrics metrics = new AdyenMetrics();
+    metrics.gauge("adyen_payment_methods_cache_size", adyenDao::getPaymentMethodsCacheSize);
+    metrics.gauge(
+        "adyen_payment_methods_cache_hits",
+        () -> adyenDao.getPaymentMethodsCacheStats().hitCount());
+    metrics.gauge(
+        "adyen_payment_methods_cache_misses",
+        () -> adyenDao.getPaymentMethodsCacheStats().missCount());
+    metrics.gauge(
+        "adyen_payment_methods_cache_evictions",
+        () -> adyenDao.getPaymentMethodsCacheStats().evictionCount());
+    gatewayProcessorRegistry =
+        new GatewayProcessorRegistry(adyenConfigurationHandler, metrics, globalConfiguration);
+
+    if (globalConfiguration.getNotificationExecutorStripes() > 0) {
+      notificationExecutor =
+          new AdyenNotificationExecutor(
+              globalConfiguration.getNotificationExecutorStripes(),
+              globalConfiguration.getNotificationExecutorQueueCapacity(),
+              metrics);
+    }
+    if (globalConfiguration.getNotificationParkingMaxSize() > 0) {
+      notificationParking =
+          new AdyenNotificationParking(adyenDao, clock.getClock(), globalConfiguration, metrics);
+    }
+
+    final AdyenNotificationValidator notificationValidator =
+        new AdyenNotificationValidator(
+            adyenConfigurationHandler, new AdyenHmacValidator(), metrics);
+
     // As an example, this plugin registers a PaymentPluginApi (this could be changed to any other
     // plugin api)
     logger.info("[Adyen] Registering an APIs");
-    final PaymentPluginApi paymentPluginApi =
+    final AdyenPaymentPluginApi paymentPluginApi =
         new AdyenPaymentPluginApi(
-            adyenConfigurationHandler, killbillAPI, configProperties, clock.getClock(), adyenDao);
+            adyenConfigurationHandler,
+            killbillAPI,
+            configProperties,
+            clock.getClock(),
+            adyenDao,
+            gatewayProcessorRegistry,
+            new AdyenNotificationDeduplicator(globalConfiguration, metrics),
+            notificationValidator,
+            notificationExecutor,
+            notificationParking);
     registerPaymentPluginApi(context, paymentPluginApi);
 
+    notificationInbox =
+        new AdyenNotificationInbox(
+            adyenDao,
+            paymentPluginApi,
+            clock.getClock(),
+            globalConfiguration,
+            metrics);
+
     // Expose a healthcheck (optional), so other plugins can check on the plugin status
     logger.info("[Adyen] Registering healthcheck");
     final Healthcheck healthcheck = new AdyenHealthcheck();
@@ -81,7 +150,7 @@ public class AdyenActivator extends KillbillActivatorBase {
           new AdyenCheckoutService(killbillAPI, adyenConfigurationHandler);
       
       final AdyenSessionService sessionService =
-          new AdyenSessionService(killbillAPI, adyenConfigurationHandler);
+          new AdyenSessionService(killbillAPI, adyenConfigurationHandler, gatewayProcessorRegistry);
           
       // Register a servlet (optional)
       final PluginApp pluginApp =
@@ -90,22 +159,59 @@ public class AdyenActivator extends KillbillActivatorBase {
               .withRouteClass(AdyenNotificationServlet.class)
               .withRouteClass(AdyenCheckoutServlet.class)
               .withRouteClass(AdyenSessionServlet.class)
+              .withRouteClass(AdyenMetricsServlet.class)
               .withService(healthcheck)
               .withService(clock)
               .withService(checkoutService)
               .withService(sessionService)
               .withService(paymentPluginApi)
+              .withService(metrics)
+              .withService(notificationInbox)
+              .withService(notificationValidator)
               .build();
     final HttpServlet httpServlet = PluginApp.createServlet(pluginApp);
 
     registerServlet(context, httpServlet);
 
     registerHandlers();
+
+    notificationInbox.start();
+    if (notificationParking != null) {
+      notificationParking.start(paymentPluginApi::applyParkedNotification);
+    }
+  }
+
+  @Override
+  public void stop(final BundleContext context) throws Exception {
+    if (notificationInbox != null) {
+      notificationInbox.stop();
+    }
+    if (notificationParking != null) {
+      notificationParking.stop();
+    }
+    if (notificationExecutor != null) {
+      notificationExecutor.shutdown();
+    }
+    if (gatewayProcessorRegistry != null) {
+      gatewayProcessorRegistry.shutdown();
+    }
+    super.stop(context);
   }
 
   private void registerHandlers() {
     final PluginConfigurationEventHandler configHandler =
-        new PluginConfigurationEventHandler(adyenConfigurationHandler);
+        new PluginConfigurationEventHandler(adyenConfigurationHandler) {
+          @Override
+          public void handleKillbillEvent(final ExtBusEvent killbillEvent) {
+            super.handleKillbillEvent(killbillEvent);
+            // Webhooks for the tenant's merchant account are authenticated with the new settings
+            if ((killbillEvent.getEventType() == ExtBusEventType.TENANT_CONFIG_CHANGE
+                    || killbillEvent.getEventType() == ExtBusEventType.TENANT_CONFIG_DELETION)
+                && killbillEvent.getTenantId() != null) {
+              adyenConfigurationHandler.refresh(killbillEvent.getTenantId());
+            }
+          }
+        };
     dispatcher.registerEventHandlers(configHandler);
   }
 
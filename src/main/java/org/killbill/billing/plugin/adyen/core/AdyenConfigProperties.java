@@ -17,9 +17,17 @@
 
 package org.killbill.billing.plugin.adyen.core;
 
+import com.adyen.enums.Environment;
 import java.util.Map;
 import java.util.Properties;
+import javax.annotation.Nullable;
+import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * Immutable snapshot of a tenant (or the global) configuration. Environment variable fallbacks are
+ * resolved, values parsed and validated once, when the configuration is loaded: an invalid value
+ * fails with an {@link IllegalArgumentException} at that point rather than on a payment call.
+ */
 public class AdyenConfigProperties {
 
   private static final String PROPERTY_PREFIX = "org.killbill.billing.plugin.adyen.";
@@ -30,33 +38,331 @@ public class AdyenConfigProperties {
   public static final String ADYEN_MERCHANT_ACCOUNT = "ADYEN_MERCHANT_ACCOUNT";
   public static final String ADYEN_ENVIROMENT = "ADYEN_ENVIROMENT";
   public static final String ADYEN_CAPTURE_DELAY_HOURS = "ADYEN_CAPTURE_DELAY_HOURS";
+  public static final String ADYEN_CHECKOUT_ENDPOINT = "ADYEN_CHECKOUT_ENDPOINT";
   public static final String ADYEN_KB_USERNAME = "ADYEN_KB_USERNAME";
   public static final String ADYEN_KB_PASSWORD = "ADYEN_KB_PASSWORD";
+  public static final String ADYEN_NOTIFICATION_INBOX_ENABLED = "ADYEN_NOTIFICATION_INBOX_ENABLED";
+  public static final String ADYEN_NOTIFICATION_INBOX_WORKERS = "ADYEN_NOTIFICATION_INBOX_WORKERS";
+  public static final String ADYEN_NOTIFICATION_INBOX_POLL_INTERVAL_MS =
+      "ADYEN_NOTIFICATION_INBOX_POLL_INTERVAL_MS";
+  public static final String ADYEN_NOTIFICATION_INBOX_BATCH_SIZE =
+      "ADYEN_NOTIFICATION_INBOX_BATCH_SIZE";
+  public static final String ADYEN_NOTIFICATION_INBOX_MAX_ATTEMPTS =
+      "ADYEN_NOTIFICATION_INBOX_MAX_ATTEMPTS";
+  public static final String ADYEN_SCHEMA_MIGRATIONS_ENABLED = "ADYEN_SCHEMA_MIGRATIONS_ENABLED";
+  public static final String ADYEN_PAYMENT_METHODS_CACHE_MAX_SIZE =
+      "ADYEN_PAYMENT_METHODS_CACHE_MAX_SIZE";
+  public static final String ADYEN_PAYMENT_METHODS_CACHE_TTL_SECONDS =
+      "ADYEN_PAYMENT_METHODS_CACHE_TTL_SECONDS";
+  public static final String ADYEN_NOTIFICATION_DEDUP_CACHE_SIZE =
+      "ADYEN_NOTIFICATION_DEDUP_CACHE_SIZE";
+  public static final String ADYEN_NOTIFICATION_EXECUTOR_STRIPES =
+      "ADYEN_NOTIFICATION_EXECUTOR_STRIPES";
+  public static final String ADYEN_NOTIFICATION_EXECUTOR_QUEUE_CAPACITY =
+      "ADYEN_NOTIFICATION_EXECUTOR_QUEUE_CAPACITY";
+  public static final String ADYEN_NOTIFICATION_PARKING_MAX_SIZE =
+      "ADYEN_NOTIFICATION_PARKING_MAX_SIZE";
+  public static final String ADYEN_NOTIFICATION_PARKING_MAX_AGE_SECONDS =
+      "ADYEN_NOTIFICATION_PARKING_MAX_AGE_SECONDS";
+  public static final String ADYEN_NOTIFICATION_PARKING_POLL_INTERVAL_MS =
+      "ADYEN_NOTIFICATION_PARKING_POLL_INTERVAL_MS";
+  public static final String ADYEN_HTTP_CONNECT_TIMEOUT_MS = "ADYEN_HTTP_CONNECT_TIMEOUT_MS";
+  public static final String ADYEN_HTTP_READ_TIMEOUT_MS = "ADYEN_HTTP_READ_TIMEOUT_MS";
+  public static final String ADYEN_HTTP_MAX_CONNECTIONS_PER_ROUTE =
+      "ADYEN_HTTP_MAX_CONNECTIONS_PER_ROUTE";
+  public static final String ADYEN_HTTP_KEEP_ALIVE_MS = "ADYEN_HTTP_KEEP_ALIVE_MS";
+  public static final String ADYEN_HTTP_HTTP2 = "ADYEN_HTTP_HTTP2";
+  public static final String ADYEN_RATE_LIMIT_PERMITS_PER_SECOND =
+      "ADYEN_RATE_LIMIT_PERMITS_PER_SECOND";
+  public static final String ADYEN_RATE_LIMIT_BURST = "ADYEN_RATE_LIMIT_BURST";
+  public static final String ADYEN_RATE_LIMIT_MAX_WAIT_MS = "ADYEN_RATE_LIMIT_MAX_WAIT_MS";
+  public static final String ADYEN_GATEWAY_VIRTUAL_THREADS = "ADYEN_GATEWAY_VIRTUAL_THREADS";
+  public static final String ADYEN_GATEWAY_MAX_IN_FLIGHT = "ADYEN_GATEWAY_MAX_IN_FLIGHT";
+  public static final String ADYEN_GATEWAY_MAX_QUEUED = "ADYEN_GATEWAY_MAX_QUEUED";
+  public static final String ADYEN_GATEWAY_CIRCUIT_BREAKER_FAILURE_THRESHOLD =
+      "ADYEN_GATEWAY_CIRCUIT_BREAKER_FAILURE_THRESHOLD";
+  public static final String ADYEN_GATEWAY_CIRCUIT_BREAKER_OPEN_MS =
+      "ADYEN_GATEWAY_CIRCUIT_BREAKER_OPEN_MS";
+  public static final String ADYEN_GATEWAY_LIMITER_INITIAL_LIMIT =
+      "ADYEN_GATEWAY_LIMITER_INITIAL_LIMIT";
+  public static final String ADYEN_GATEWAY_LIMITER_MAX_LIMIT = "ADYEN_GATEWAY_LIMITER_MAX_LIMIT";
+  public static final String ADYEN_GATEWAY_LIMITER_LATENCY_THRESHOLD_MS =
+      "ADYEN_GATEWAY_LIMITER_LATENCY_THRESHOLD_MS";
+
+  public static final int MAX_CAPTURE_DELAY_HOURS = 168;
 
   private final String region;
 
-  private String apiKey;
-  private String merchantAccount;
-  private String returnUrl;
-  private String hcmaKey;
-  private String captureDelayHours;
-  private String enviroment;
+  private final String apiKey;
+  private final String merchantAccount;
+  private final String returnUrl;
+  // Overrides the environment's Checkout API base URL, e.g. to point at a local simulator
+  @Nullable private final String checkoutEndpoint;
+  private final String hmacKey;
+  @Nullable private final SecretKeySpec hmacSecretKey;
+  @Nullable private final Integer captureDelayHours;
+  private final Environment environment;
+
+  private final String username;
 
-  private String username;
+  private final String password;
 
-  private String password;
+  // Notification inbox settings are only read from the global (per-node) configuration
+  private final boolean notificationInboxEnabled;
+  private final int notificationInboxWorkers;
+  private final int notificationInboxPollIntervalMs;
+  private final int notificationInboxBatchSize;
+  private final int notificationInboxMaxAttempts;
+  private final boolean schemaMigrationsEnabled;
+  private final int paymentMethodsCacheMaxSize;
+  private final int paymentMethodsCacheTtlSeconds;
+  private final int notificationDedupCacheSize;
+  private final int notificationExecutorStripes;
+  private final int notificationExecutorQueueCapacity;
+  private final int notificationParkingMaxSize;
+  private final int notificationParkingMaxAgeSeconds;
+  private final int notificationParkingPollIntervalMs;
+  private final int httpConnectTimeoutMs;
+  private final int httpReadTimeoutMs;
+  private final int httpMaxConnectionsPerRoute;
+  private final int httpKeepAliveMs;
+  private final boolean http2Enabled;
+  // Calls per second to Adyen for the merchant account, 0 for no limit
+  private final int rateLimitPermitsPerSecond;
+  private final int rateLimitBurst;
+  // How long a call may wait for the rate limit, 0 to fail fast
+  private final int rateLimitMaxWaitMs;
+  private final boolean gatewayVirtualThreads;
+  private final int gatewayMaxInFlight;
+  private final int gatewayMaxQueued;
+  private final int gatewayCircuitBreakerFailureThreshold;
+  private final int gatewayCircuitBreakerOpenMs;
+  private final int gatewayLimiterInitialLimit;
+  private final int gatewayLimiterMaxLimit;
+  private final int gatewayLimiterLatencyThresholdMs;
 
   public AdyenConfigProperties(final Properties properties, final String region) {
+    this(properties, region, System.getenv());
+  }
+
+  AdyenConfigProperties(
+      final Properties properties, final String region, final Map<String, String> env) {
     this.region = region;
 
-    this.apiKey = properties.getProperty(PROPERTY_PREFIX + "apiKey");
-    this.merchantAccount = properties.getProperty(PROPERTY_PREFIX + "merchantAccount");
-    this.returnUrl = properties.getProperty(PROPERTY_PREFIX + "returnUrl");
-    this.hcmaKey = properties.getProperty(PROPERTY_PREFIX + "hcmaKey");
-    this.captureDelayHours = properties.getProperty(PROPERTY_PREFIX + "captureDelayHours");
-    this.enviroment = properties.getProperty(PROPERTY_PREFIX + "enviroment");
-    this.username = properties.getProperty(PROPERTY_PREFIX + "username");
-    this.password = properties.getProperty(PROPERTY_PREFIX + "password");
+    this.apiKey = getString(properties, env, "apiKey", ADYEN_API_KEY, null);
+    this.merchantAccount =
+        getString(properties, env, "merchantAccount", ADYEN_MERCHANT_ACCOUNT, null);
+    this.returnUrl = getString(properties, env, "returnUrl", ADYEN_RETURN_URL, null);
+    this.checkoutEndpoint =
+        getString(properties, env, "checkoutEndpoint", ADYEN_CHECKOUT_ENDPOINT, null);
+    this.hmacKey = getString(properties, env, "hcmaKey", ADYEN_HMAC_KEY, null);
+    this.hmacSecretKey = hmacKey != null ? AdyenHmacValidator.decodeKey(hmacKey) : null;
+    if (hmacKey != null && hmacSecretKey == null) {
+      throw new IllegalArgumentException("hcmaKey must be a hex encoded HMAC key");
+    }
+    this.captureDelayHours =
+        getInteger(properties, env, "captureDelayHours", ADYEN_CAPTURE_DELAY_HOURS, null);
+    if (captureDelayHours != null
+        && (captureDelayHours < 0 || captureDelayHours > MAX_CAPTURE_DELAY_HOURS)) {
+      throw new IllegalArgumentException(
+          "captureDelayHours must be between 0 and "
+              + MAX_CAPTURE_DELAY_HOURS
+              + ", got "
+              + captureDelayHours);
+    }
+    final String environmentName =
+        getString(properties, env, "enviroment", ADYEN_ENVIROMENT, Environment.TEST.name());
+    try {
+      this.environment = Environment.valueOf(environmentName.trim().toUpperCase());
+    } catch (final IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          "enviroment must be TEST or LIVE, got " + environmentName, e);
+    }
+    this.username = getString(properties, env, "username", ADYEN_KB_USERNAME, null);
+    this.password = getString(properties, env, "password", ADYEN_KB_PASSWORD, null);
+
+    this.notificationInboxEnabled =
+        Boolean.parseBoolean(
+            getString(
+                properties,
+                env,
+                "notificationInbox.enabled",
+                ADYEN_NOTIFICATION_INBOX_ENABLED,
+                "false"));
+    this.notificationInboxWorkers =
+        getInteger(
+            properties, env, "notificationInbox.workers", ADYEN_NOTIFICATION_INBOX_WORKERS, 2);
+    this.notificationInboxPollIntervalMs =
+        getInteger(
+            properties,
+            env,
+            "notificationInbox.pollIntervalMs",
+            ADYEN_NOTIFICATION_INBOX_POLL_INTERVAL_MS,
+            1000);
+    this.notificationInboxBatchSize =
+        getInteger(
+            properties,
+            env,
+            "notificationInbox.batchSize",
+            ADYEN_NOTIFICATION_INBOX_BATCH_SIZE,
+            50);
+    this.notificationInboxMaxAttempts =
+        getInteger(
+            properties,
+            env,
+            "notificationInbox.maxAttempts",
+            ADYEN_NOTIFICATION_INBOX_MAX_ATTEMPTS,
+            10);
+    this.schemaMigrationsEnabled =
+        Boolean.parseBoolean(
+            getString(
+                properties,
+                env,
+                "schemaMigrations.enabled",
+                ADYEN_SCHEMA_MIGRATIONS_ENABLED,
+                "true"));
+    this.paymentMethodsCacheMaxSize =
+        getInteger(
+            properties,
+            env,
+            "paymentMethodsCache.maxSize",
+            ADYEN_PAYMENT_METHODS_CACHE_MAX_SIZE,
+            // Off by default: other nodes only see recurring detail changes once entries expire
+            0);
+    this.paymentMethodsCacheTtlSeconds =
+        getInteger(
+            properties,
+            env,
+            "paymentMethodsCache.ttlSeconds",
+            ADYEN_PAYMENT_METHODS_CACHE_TTL_SECONDS,
+            300);
+    this.notificationDedupCacheSize =
+        getInteger(
+            properties,
+            env,
+            "notificationDedup.cacheSize",
+            ADYEN_NOTIFICATION_DEDUP_CACHE_SIZE,
+            100000);
+    this.notificationExecutorStripes =
+        getInteger(
+            properties,
+            env,
+            "notificationExecutor.stripes",
+            ADYEN_NOTIFICATION_EXECUTOR_STRIPES,
+            0);
+    this.notificationExecutorQueueCapacity =
+        getInteger(
+            properties,
+            env,
+            "notificationExecutor.queueCapacity",
+            ADYEN_NOTIFICATION_EXECUTOR_QUEUE_CAPACITY,
+            100);
+    if (notificationExecutorQueueCapacity < 1) {
+      throw new IllegalArgumentException(
+          "notificationExecutor.queueCapacity must be at least 1, got "
+              + notificationExecutorQueueCapacity);
+    }
+    this.notificationParkingMaxSize =
+        getInteger(
+            properties,
+            env,
+            "notificationParking.maxSize",
+            ADYEN_NOTIFICATION_PARKING_MAX_SIZE,
+            // Off by default: needs the inbox table, which upgraded installs may not have yet
+            0);
+    this.notificationParkingMaxAgeSeconds =
+        getInteger(
+            properties,
+            env,
+            "notificationParking.maxAgeSeconds",
+            ADYEN_NOTIFICATION_PARKING_MAX_AGE_SECONDS,
+            600);
+    this.notificationParkingPollIntervalMs =
+        getInteger(
+            properties,
+            env,
+            "notificationParking.pollIntervalMs",
+            ADYEN_NOTIFICATION_PARKING_POLL_INTERVAL_MS,
+            1000);
+    this.httpConnectTimeoutMs =
+        getInteger(
+            properties, env, "http.connectTimeoutMs", ADYEN_HTTP_CONNECT_TIMEOUT_MS, 10000);
+    this.httpReadTimeoutMs =
+        getInteger(properties, env, "http.readTimeoutMs", ADYEN_HTTP_READ_TIMEOUT_MS, 30000);
+    this.httpMaxConnectionsPerRoute =
+        getInteger(
+            properties,
+            env,
+            "http.maxConnectionsPerRoute",
+            ADYEN_HTTP_MAX_CONNECTIONS_PER_ROUTE,
+            50);
+    this.httpKeepAliveMs =
+        getInteger(properties, env, "http.keepAliveMs", ADYEN_HTTP_KEEP_ALIVE_MS, 60000);
+    this.http2Enabled =
+        Boolean.parseBoolean(getString(properties, env, "http.http2", ADYEN_HTTP_HTTP2, "false"));
+    this.rateLimitPermitsPerSecond =
+        getInteger(
+            properties,
+            env,
+            "rateLimit.permitsPerSecond",
+            ADYEN_RATE_LIMIT_PERMITS_PER_SECOND,
+            0);
+    this.rateLimitBurst =
+        getInteger(
+            properties, env, "rateLimit.burst", ADYEN_RATE_LIMIT_BURST, rateLimitPermitsPerSecond);
+    this.rateLimitMaxWaitMs =
+        getInteger(properties, env, "rateLimit.maxWaitMs", ADYEN_RATE_LIMIT_MAX_WAIT_MS, 0);
+    this.gatewayVirtualThreads =
+        Boolean.parseBoolean(
+            getString(
+                properties,
+                env,
+                "gateway.virtualThreads",
+                ADYEN_GATEWAY_VIRTUAL_THREADS,
+                "false"));
+    this.gatewayMaxInFlight =
+        getInteger(properties, env, "gateway.maxInFlight", ADYEN_GATEWAY_MAX_IN_FLIGHT, 32);
+    this.gatewayMaxQueued =
+        getInteger(properties, env, "gateway.maxQueued", ADYEN_GATEWAY_MAX_QUEUED, 1000);
+    if (gatewayMaxInFlight < 1) {
+      throw new IllegalArgumentException(
+          "gateway.maxInFlight must be at least 1, got " + gatewayMaxInFlight);
+    }
+    if (gatewayMaxQueued < 0) {
+      throw new IllegalArgumentException(
+          "gateway.maxQueued must be at least 0, got " + gatewayMaxQueued);
+    }
+    this.gatewayCircuitBreakerFailureThreshold =
+        getInteger(
+            properties,
+            env,
+            "gateway.circuitBreaker.failureThreshold",
+            ADYEN_GATEWAY_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+            5);
+    this.gatewayCircuitBreakerOpenMs =
+        getInteger(
+            properties,
+            env,
+            "gateway.circuitBreaker.openMs",
+            ADYEN_GATEWAY_CIRCUIT_BREAKER_OPEN_MS,
+            30000);
+    this.gatewayLimiterInitialLimit =
+        getInteger(
+            properties,
+            env,
+            "gateway.limiter.initialLimit",
+            ADYEN_GATEWAY_LIMITER_INITIAL_LIMIT,
+            20);
+    this.gatewayLimiterMaxLimit =
+        getInteger(
+            properties, env, "gateway.limiter.maxLimit", ADYEN_GATEWAY_LIMITER_MAX_LIMIT, 200);
+    this.gatewayLimiterLatencyThresholdMs =
+        getInteger(
+            properties,
+            env,
+            "gateway.limiter.latencyThresholdMs",
+            ADYEN_GATEWAY_LIMITER_LATENCY_THRESHOLD_MS,
+            3000);
   }
 
   public String getRegion() {
@@ -65,76 +371,202 @@ public class AdyenConfigProperties {
   }
 
   public String getApiKey() {
-    if (apiKey == null || apiKey.isEmpty()) {
-      return getClient(ADYEN_API_KEY, null);
-    }
     return apiKey;
   }
 
   public String getHMACKey() {
-    if (hcmaKey == null || hcmaKey.isEmpty()) {
-      return getClient(ADYEN_HMAC_KEY, null);
-    }
-    return hcmaKey;
+    return hmacKey;
   }
 
-  public String getMerchantAccount() {
-    if (merchantAccount == null || merchantAccount.isEmpty()) {
-      return getClient(ADYEN_MERCHANT_ACCOUNT, null);
-    }
+  /** The decoded {@link #getHMACKey()}, or null if none is configured. */
+  @Nullable
+  public SecretKeySpec getHmacSecretKey() {
+    return hmacSecretKey;
+  }
 
+  public String getMerchantAccount() {
     return merchantAccount;
   }
 
   public String getReturnUrl() {
-    if (returnUrl == null || returnUrl.isEmpty()) {
-      return getClient(ADYEN_RETURN_URL, null);
-    }
-
     return returnUrl;
   }
 
-  public String getUsername() {
-    if (username == null || username.isEmpty()) {
-      return getClient(ADYEN_KB_USERNAME, null);
-    }
+  @Nullable
+  public String getCheckoutEndpoint() {
+    return checkoutEndpoint;
+  }
 
+  public String getUsername() {
     return username;
   }
 
   public String getPassword() {
-    if (password == null || password.isEmpty()) {
-      return getClient(ADYEN_KB_PASSWORD, null);
-    }
-
     return password;
   }
 
-  public String getCaptureDelayHours() {
-    if (captureDelayHours == null || captureDelayHours.isEmpty()) {
-      return getClient(ADYEN_CAPTURE_DELAY_HOURS, null);
-    }
-
+  @Nullable
+  public Integer getCaptureDelayHours() {
     return captureDelayHours;
   }
 
-  public String getEnviroment() {
-    if (enviroment == null || enviroment.isEmpty()) {
-      return getClient(ADYEN_ENVIROMENT, "TEST");
-    }
+  public Environment getEnvironment() {
+    return environment;
+  }
+
+  public boolean isNotificationInboxEnabled() {
+    return notificationInboxEnabled;
+  }
+
+  public int getNotificationInboxWorkers() {
+    return notificationInboxWorkers;
+  }
+
+  public int getNotificationInboxPollIntervalMs() {
+    return notificationInboxPollIntervalMs;
+  }
+
+  public int getNotificationInboxBatchSize() {
+    return notificationInboxBatchSize;
+  }
+
+  public int getNotificationInboxMaxAttempts() {
+    return notificationInboxMaxAttempts;
+  }
+
+  public boolean isSchemaMigrationsEnabled() {
+    return schemaMigrationsEnabled;
+  }
+
+  public int getPaymentMethodsCacheMaxSize() {
+    return paymentMethodsCacheMaxSize;
+  }
+
+  public int getPaymentMethodsCacheTtlSeconds() {
+    return paymentMethodsCacheTtlSeconds;
+  }
+
+  public int getNotificationDedupCacheSize() {
+    return notificationDedupCacheSize;
+  }
+
+  public int getNotificationExecutorStripes() {
+    return notificationExecutorStripes;
+  }
+
+  public int getNotificationExecutorQueueCapacity() {
+    return notificationExecutorQueueCapacity;
+  }
+
+  public int getNotificationParkingMaxSize() {
+    return notificationParkingMaxSize;
+  }
+
+  public int getNotificationParkingMaxAgeSeconds() {
+    return notificationParkingMaxAgeSeconds;
+  }
+
+  public int getNotificationParkingPollIntervalMs() {
+    return notificationParkingPollIntervalMs;
+  }
+
+  public int getHttpConnectTimeoutMs() {
+    return httpConnectTimeoutMs;
+  }
+
+  public int getHttpReadTimeoutMs() {
+    return httpReadTimeoutMs;
+  }
+
+  public int getHttpMaxConnectionsPerRoute() {
+    return httpMaxConnectionsPerRoute;
+  }
+
+  public int getHttpKeepAliveMs() {
+    return httpKeepAliveMs;
+  }
+
+  public boolean isHttp2Enabled() {
+    return http2Enabled;
+  }
 
-    return enviroment;
+  public int getRateLimitPermitsPerSecond() {
+    return rateLimitPermitsPerSecond;
   }
 
-  private String getClient(String envKey, String defaultValue) {
-    Map<String, String> env = System.getenv();
+  public int getRateLimitBurst() {
+    return rateLimitBurst;
+  }
 
-    String value = env.get(envKey);
+  public int getRateLimitMaxWaitMs() {
+    return rateLimitMaxWaitMs;
+  }
 
+  public boolean isGatewayVirtualThreads() {
+    return gatewayVirtualThreads;
+  }
+
+  public int getGatewayMaxInFlight() {
+    return gatewayMaxInFlight;
+  }
+
+  public int getGatewayMaxQueued() {
+    return gatewayMaxQueued;
+  }
+
+  public int getGatewayCircuitBreakerFailureThreshold() {
+    return gatewayCircuitBreakerFailureThreshold;
+  }
+
+  public int getGatewayCircuitBreakerOpenMs() {
+    return gatewayCircuitBreakerOpenMs;
+  }
+
+  public int getGatewayLimiterInitialLimit() {
+    return gatewayLimiterInitialLimit;
+  }
+
+  public int getGatewayLimiterMaxLimit() {
+    return gatewayLimiterMaxLimit;
+  }
+
+  public int getGatewayLimiterLatencyThresholdMs() {
+    return gatewayLimiterLatencyThresholdMs;
+  }
+
+  // Plugin property first, then environment variable
+  private static String getString(
+      final Properties properties,
+      final Map<String, String> env,
+      final String property,
+      final String envKey,
+      @Nullable final String defaultValue) {
+    String value = properties.getProperty(PROPERTY_PREFIX + property);
+    if (value == null || value.isEmpty()) {
+      value = env.get(envKey);
+    }
     if (value == null || value.isEmpty()) {
       return defaultValue;
     }
 
     return value;
   }
+
+  private static Integer getInteger(
+      final Properties properties,
+      final Map<String, String> env,
+      final String property,
+      final String envKey,
+      @Nullable final Integer defaultValue) {
+    final String value = getString(properties, env, property, envKey, null);
+    if (value == null) {
+      return defaultValue;
+    }
+
+    try {
+      return Integer.valueOf(value.trim());
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException(property + " must be an integer, got " + value, e);
+    }
+  }
 }
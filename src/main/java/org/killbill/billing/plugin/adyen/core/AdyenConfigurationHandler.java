@@ -17,9 +17,19 @@
 
 package org.killbill.billing.plugin.adyen.core;
 
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
 import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
 import org.killbill.billing.plugin.api.notification.PluginTenantConfigurableConfigurationHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * When per-tenant config changes are made, the plugin automatically gets notified (and prints a log
@@ -41,7 +51,16 @@ import org.killbill.billing.plugin.api.notification.PluginTenantConfigurableConf
 public class AdyenConfigurationHandler
     extends PluginTenantConfigurableConfigurationHandler<AdyenConfigProperties> {
 
+  private static final Logger logger = LoggerFactory.getLogger(AdyenConfigurationHandler.class);
+
   private final String region;
+  // In-memory index used to authenticate webhooks before any database access. Known tenants are
+  // indexed at startup (see #index(Iterable)), others as their configuration is loaded or changed.
+  // Several tenants may share a merchant account, e.g. sandboxes of the same Adyen account.
+  private final ConcurrentMap<String, Set<UUID>> tenantsByMerchantAccount =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<UUID, String> merchantAccountsByTenant = new ConcurrentHashMap<>();
+  private volatile AdyenConfigProperties defaultConfigurable;
 
   public AdyenConfigurationHandler(
       final String region, final String pluginName, final OSGIKillbillAPI osgiKillbillAPI) {
@@ -53,4 +72,112 @@ public class AdyenConfigurationHandler
   protected AdyenConfigProperties createConfigurable(final Properties properties) {
     return new AdyenConfigProperties(properties, region);
   }
+
+  @Override
+  public AdyenConfigProperties getConfigurable(@Nullable final UUID kbTenantId) {
+    final AdyenConfigProperties configurable = super.getConfigurable(kbTenantId);
+    // Tenants without their own configuration fall back to the global one, looked up separately
+    if (kbTenantId != null && configurable != null && configurable != defaultConfigurable) {
+      index(kbTenantId, configurable);
+    }
+    return configurable;
+  }
+
+  @Override
+  public void setDefaultConfigurable(final AdyenConfigProperties defaultConfigurable) {
+    super.setDefaultConfigurable(defaultConfigurable);
+    this.defaultConfigurable = defaultConfigurable;
+  }
+
+  /**
+   * Returns the configurations of the tenants using this merchant account, or the global one if no
+   * tenant-specific configuration uses it. Empty if no loaded configuration uses it.
+   */
+  public List<AdyenConfigProperties> getConfigurablesForMerchantAccount(
+      @Nullable final String merchantAccount) {
+    if (merchantAccount == null) {
+      return ImmutableList.of();
+    }
+    final List<AdyenConfigProperties> configurables = new ArrayList<>(1);
+    final Set<UUID> kbTenantIds = tenantsByMerchantAccount.get(merchantAccount);
+    if (kbTenantIds != null) {
+      for (final UUID kbTenantId : kbTenantIds) {
+        final AdyenConfigProperties configurable = super.getConfigurable(kbTenantId);
+        if (configurable != null && configurable != defaultConfigurable) {
+          configurables.add(configurable);
+        }
+      }
+    }
+    // A tenant-specific configuration wins over the global one for the same merchant account
+    final AdyenConfigProperties global = defaultConfigurable;
+    if (configurables.isEmpty()
+        && global != null
+        && merchantAccount.equals(global.getMerchantAccount())) {
+      configurables.add(global);
+    }
+    return configurables;
+  }
+
+  @Nullable
+  public AdyenConfigProperties getDefaultConfigurable() {
+    return defaultConfigurable;
+  }
+
+  /** Loads and indexes the configuration of these tenants, e.g. all the known ones at startup. */
+  public void index(final Iterable<UUID> kbTenantIds) {
+    for (final UUID kbTenantId : kbTenantIds) {
+      refresh(kbTenantId);
+    }
+  }
+
+  /** Indexes the current configuration of a tenant, e.g. after it has been changed or deleted. */
+  public void refresh(final UUID kbTenantId) {
+    final AdyenConfigProperties configurable = super.getConfigurable(kbTenantId);
+    if (configurable != null && configurable != defaultConfigurable) {
+      index(kbTenantId, configurable);
+    } else {
+      final String previous = merchantAccountsByTenant.remove(kbTenantId);
+      if (previous != null) {
+        release(previous, kbTenantId);
+      }
+    }
+  }
+
+  private void index(final UUID kbTenantId, final AdyenConfigProperties configurable) {
+    final String merchantAccount = configurable.getMerchantAccount();
+    final String previous =
+        merchantAccount != null
+            ? merchantAccountsByTenant.put(kbTenantId, merchantAccount)
+            : merchantAccountsByTenant.remove(kbTenantId);
+    if (previous != null && !previous.equals(merchantAccount)) {
+      release(previous, kbTenantId);
+    }
+    if (merchantAccount == null || merchantAccount.equals(previous)) {
+      return;
+    }
+    tenantsByMerchantAccount.compute(
+        merchantAccount,
+        (key, kbTenantIds) -> {
+          final Set<UUID> updated =
+              kbTenantIds != null ? kbTenantIds : ConcurrentHashMap.<UUID>newKeySet();
+          updated.add(kbTenantId);
+          if (updated.size() > 1) {
+            logger.warn(
+                "[Adyen] Merchant account {} is used by tenants {}: its webhooks are accepted if"
+                    + " any of their configurations validates them",
+                merchantAccount,
+                updated);
+          }
+          return updated;
+        });
+  }
+
+  private void release(final String merchantAccount, final UUID kbTenantId) {
+    tenantsByMerchantAccount.computeIfPresent(
+        merchantAccount,
+        (key, kbTenantIds) -> {
+          kbTenantIds.remove(kbTenantId);
+          return kbTenantIds.isEmpty() ? null : kbTenantIds;
+        });
+  }
 }
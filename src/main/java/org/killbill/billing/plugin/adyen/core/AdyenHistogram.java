@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed, roughly logarithmic buckets, cheap enough to record every call to
+ * Adyen: recording is a few comparisons and two {@link LongAdder} increments, without locking or
+ * allocation. The buckets are the ones exposed to Prometheus, so that quantiles can be aggregated
+ * across tenants and Kill Bill nodes.
+ */
+public class AdyenHistogram {
+
+  // Upper bounds of the buckets, in milliseconds: the last bucket has no upper bound
+  private static final long[] BOUNDS_MS = {
+    5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000
+  };
+  private static final long[] BOUNDS_NANOS = new long[BOUNDS_MS.length];
+
+  static {
+    for (int i = 0; i < BOUNDS_MS.length; i++) {
+      BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BOUNDS_MS[i]);
+    }
+  }
+
+  private final LongAdder[] buckets = new LongAdder[BOUNDS_MS.length + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  public AdyenHistogram() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void recordNanos(final long nanos) {
+    int bucket = 0;
+    while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+      bucket++;
+    }
+    buckets[bucket].increment();
+    sumNanos.add(nanos);
+  }
+
+  /** Upper bounds of the buckets in seconds, without the last (unbounded) one. */
+  public static double[] getBucketBoundsSeconds() {
+    final double[] bounds = new double[BOUNDS_MS.length];
+    for (int i = 0; i < bounds.length; i++) {
+      bounds[i] = BOUNDS_MS[i] / 1000.0;
+    }
+    return bounds;
+  }
+
+  /**
+   * Number of recorded values at or below each bound of {@link #getBucketBoundsSeconds()}, plus
+   * the total count as last element.
+   */
+  public long[] getCumulativeCounts() {
+    final long[] counts = new long[buckets.length];
+    long count = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      count += buckets[i].sum();
+      counts[i] = count;
+    }
+    return counts;
+  }
+
+  public double getSumSeconds() {
+    return sumNanos.sum() / 1e9;
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validates the {@code hmacSignature} of notification items using the same signing scheme as the
+ * SDK's {@code HMACValidator}, without its per-call allocations.
+ *
+ * <p>Keys are decoded once: by {@link AdyenConfigProperties} when a configuration is loaded, or
+ * here for hex keys passed directly. Each thread keeps one initialized {@link Mac} per key (i.e.
+ * per tenant) along with the buffers used to build the signing payload, so a validation only
+ * allocates when a thread sees a key for the first time or a payload larger than any before.
+ */
+public class AdyenHmacValidator {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenHmacValidator.class);
+
+  public static final String HMAC_SIGNATURE = "hmacSignature";
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int SIGNATURE_LENGTH = 32;
+  private static final int ENCODED_SIGNATURE_LENGTH = 44;
+  // Keys are looked up by identity: stale ones (from reloaded configurations) are dropped past this
+  private static final int MAX_MACS_PER_THREAD = 64;
+
+  private final ConcurrentMap<String, Optional<SecretKeySpec>> keys = new ConcurrentHashMap<>();
+  private final ThreadLocal<ThreadState> threadState = ThreadLocal.withInitial(ThreadState::new);
+
+  public boolean isValid(final NotificationRequestItem item, @Nullable final String hmacKey) {
+    if (hmacKey == null) {
+      return false;
+    }
+    return isValid(
+        item, keys.computeIfAbsent(hmacKey, k -> Optional.ofNullable(decodeKey(k))).orElse(null));
+  }
+
+  /** Same as {@link #isValid(NotificationRequestItem, String)}, for an already decoded key. */
+  public boolean isValid(final NotificationRequestItem item, @Nullable final SecretKeySpec key) {
+    if (key == null || item == null || item.getAdditionalData() == null) {
+      return false;
+    }
+    final String expected = item.getAdditionalData().get(HMAC_SIGNATURE);
+    if (expected == null || expected.length() != ENCODED_SIGNATURE_LENGTH) {
+      return false;
+    }
+
+    final ThreadState state = threadState.get();
+    final Mac mac = state.getMac(key);
+    if (mac == null) {
+      return false;
+    }
+
+    state.sign(mac, item);
+    return state.matches(expected);
+  }
+
+  @Nullable
+  private static Mac newMac(final SecretKeySpec key) {
+    try {
+      final Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      return mac;
+    } catch (final GeneralSecurityException e) {
+      logger.error("[Adyen] Unable to initialize {}", ALGORITHM, e);
+      return null;
+    }
+  }
+
+  /** Decodes a hex HMAC key, or returns null if it is not valid hex. */
+  @Nullable
+  static SecretKeySpec decodeKey(final String hexKey) {
+    if (hexKey.isEmpty() || hexKey.length() % 2 != 0) {
+      logger.error("[Adyen] HMAC key is not a valid hex string");
+      return null;
+    }
+    final byte[] raw = new byte[hexKey.length() / 2];
+    for (int i = 0; i < raw.length; i++) {
+      final int high = Character.digit(hexKey.charAt(2 * i), 16);
+      final int low = Character.digit(hexKey.charAt(2 * i + 1), 16);
+      if (high < 0 || low < 0) {
+        logger.error("[Adyen] HMAC key is not a valid hex string");
+        return null;
+      }
+      raw[i] = (byte) ((high << 4) | low);
+    }
+    return new SecretKeySpec(raw, ALGORITHM);
+  }
+
+  private final class ThreadState {
+
+    private final Map<SecretKeySpec, Mac> macs = new IdentityHashMap<>();
+    private final StringBuilder payload = new StringBuilder(256);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final byte[] signature = new byte[SIGNATURE_LENGTH];
+    private final byte[] encodedSignature = new byte[ENCODED_SIGNATURE_LENGTH];
+    private char[] chars = new char[256];
+    private CharBuffer charBuffer = CharBuffer.wrap(chars);
+    private ByteBuffer bytes = ByteBuffer.allocate(1024);
+
+    @Nullable
+    private Mac getMac(final SecretKeySpec key) {
+      Mac mac = macs.get(key);
+      if (mac == null) {
+        mac = newMac(key);
+        if (mac != null) {
+          if (macs.size() >= MAX_MACS_PER_THREAD) {
+            macs.clear();
+          }
+          macs.put(key, mac);
+        }
+      }
+      return mac;
+    }
+
+    // pspReference:originalReference:merchantAccountCode:merchantReference:value:currency:
+    // eventCode:success, with missing fields signed as empty strings
+    private void sign(final Mac mac, final NotificationRequestItem item) {
+      final Amount amount = item.getAmount();
+      payload.setLength(0);
+      appendField(item.getPspReference()).append(':');
+      appendField(item.getOriginalReference()).append(':');
+      appendField(item.getMerchantAccountCode()).append(':');
+      appendField(item.getMerchantReference()).append(':');
+      if (amount != null && amount.getValue() != null) {
+        payload.append(amount.getValue().longValue());
+      }
+      payload.append(':');
+      appendField(amount != null ? amount.getCurrency() : null).append(':');
+      appendField(item.getEventCode()).append(':');
+      payload.append(item.isSuccess());
+
+      final int length = payload.length();
+      if (chars.length < length) {
+        chars = new char[Math.max(length, 2 * chars.length)];
+        charBuffer = CharBuffer.wrap(chars);
+      }
+      payload.getChars(0, length, chars, 0);
+      charBuffer.clear().limit(length);
+      final int maxBytes = (int) (length * encoder.maxBytesPerChar());
+      if (bytes.capacity() < maxBytes) {
+        bytes = ByteBuffer.allocate(maxBytes);
+      }
+      bytes.clear();
+      encoder.reset();
+      encoder.encode(charBuffer, bytes, true);
+      encoder.flush(bytes);
+      bytes.flip();
+
+      mac.update(bytes);
+      try {
+        mac.doFinal(signature, 0);
+      } catch (final GeneralSecurityException e) {
+        // Cannot happen: the output buffer is sized for HmacSHA256
+        throw new IllegalStateException(e);
+      }
+      Base64.getEncoder().encode(signature, encodedSignature);
+    }
+
+    private StringBuilder appendField(@Nullable final String value) {
+      return value == null ? payload : payload.append(value);
+    }
+
+    // Constant-time comparison, to not leak how much of a forged signature is correct
+    private boolean matches(final String expected) {
+      int diff = 0;
+      for (int i = 0; i < ENCODED_SIGNATURE_LENGTH; i++) {
+        diff |= encodedSignature[i] ^ expected.charAt(i);
+      }
+      return diff == 0;
+    }
+  }
+}
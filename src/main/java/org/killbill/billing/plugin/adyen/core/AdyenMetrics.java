@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Plugin-local registry of counters, gauges and histograms. Series are identified by a metric name
+ * and an optional list of label key/value pairs, e.g. {@code counter("adyen_foo_total", "tenant",
+ * id)}. Callers on hot paths should keep a reference to the returned {@link LongAdder} (or {@link
+ * AdyenHistogram}) rather than looking it up on every call.
+ */
+public class AdyenMetrics {
+
+  private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Supplier<? extends Number>> gauges =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AdyenHistogram> histograms = new ConcurrentHashMap<>();
+
+  public LongAdder counter(final String name, final String... labels) {
+    return counters.computeIfAbsent(seriesName(name, labels), k -> new LongAdder());
+  }
+
+  public void gauge(
+      final String name, final Supplier<? extends Number> supplier, final String... labels) {
+    gauges.put(seriesName(name, labels), supplier);
+  }
+
+  /** Histogram of durations, by convention named {@code *_seconds}. */
+  public AdyenHistogram histogram(final String name, final String... labels) {
+    return histograms.computeIfAbsent(seriesName(name, labels), k -> new AdyenHistogram());
+  }
+
+  public void removeGauge(final String name, final String... labels) {
+    gauges.remove(seriesName(name, labels));
+  }
+
+  public void removeHistogram(final String name, final String... labels) {
+    histograms.remove(seriesName(name, labels));
+  }
+
+  public Map<String, Long> getCounters() {
+    final Map<String, Long> snapshot = new TreeMap<>();
+    for (final Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().sum());
+    }
+    return snapshot;
+  }
+
+  public Map<String, Number> getGauges() {
+    final Map<String, Number> snapshot = new TreeMap<>();
+    for (final Map.Entry<String, Supplier<? extends Number>> entry : gauges.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().get());
+    }
+    return snapshot;
+  }
+
+  public Map<String, Map<String, Object>> getHistograms() {
+    final double[] bounds = AdyenHistogram.getBucketBoundsSeconds();
+    final Map<String, Map<String, Object>> snapshot = new TreeMap<>();
+    for (final Map.Entry<String, AdyenHistogram> entry : histograms.entrySet()) {
+      final long[] counts = entry.getValue().getCumulativeCounts();
+      final Map<String, Long> buckets = new LinkedHashMap<>();
+      for (int i = 0; i < bounds.length; i++) {
+        buckets.put(String.valueOf(bounds[i]), counts[i]);
+      }
+      final Map<String, Object> histogram = new LinkedHashMap<>();
+      histogram.put("count", counts[counts.length - 1]);
+      histogram.put("sum", entry.getValue().getSumSeconds());
+      histogram.put("buckets", buckets);
+      snapshot.put(entry.getKey(), histogram);
+    }
+    return snapshot;
+  }
+
+  /** All series, in the Prometheus text exposition format (version 0.0.4). */
+  public String toPrometheusText() {
+    final StringBuilder sb = new StringBuilder();
+    appendFamilies(sb, "counter", getCounters());
+    appendFamilies(sb, "gauge", getGauges());
+
+    final double[] bounds = AdyenHistogram.getBucketBoundsSeconds();
+    final Map<String, StringBuilder> families = new TreeMap<>();
+    for (final Map.Entry<String, AdyenHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+      final String family = familyName(entry.getKey());
+      // {k="v",...} as is for the sum and count, k="v",...,le="..." for the buckets
+      final String labels = entry.getKey().substring(family.length());
+      final String bucketLabels =
+          labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+      final long[] counts = entry.getValue().getCumulativeCounts();
+
+      final StringBuilder lines = families.computeIfAbsent(family, k -> new StringBuilder());
+      for (int i = 0; i < counts.length; i++) {
+        lines.append(family).append("_bucket").append(bucketLabels).append("le=\"");
+        lines.append(i < bounds.length ? String.valueOf(bounds[i]) : "+Inf");
+        lines.append("\"} ").append(counts[i]).append('\n');
+      }
+      lines.append(family).append("_sum").append(labels).append(' ');
+      lines.append(entry.getValue().getSumSeconds()).append('\n');
+      lines.append(family).append("_count").append(labels).append(' ');
+      lines.append(counts[counts.length - 1]).append('\n');
+    }
+    appendTypes(sb, "histogram", families);
+    return sb.toString();
+  }
+
+  private static void appendFamilies(
+      final StringBuilder sb, final String type, final Map<String, ? extends Number> series) {
+    final Map<String, StringBuilder> families = new TreeMap<>();
+    for (final Map.Entry<String, ? extends Number> entry : series.entrySet()) {
+      if (entry.getValue() == null) {
+        continue;
+      }
+      families
+          .computeIfAbsent(familyName(entry.getKey()), k -> new StringBuilder())
+          .append(entry.getKey())
+          .append(' ')
+          .append(formatValue(entry.getValue()))
+          .append('\n');
+    }
+    appendTypes(sb, type, families);
+  }
+
+  private static void appendTypes(
+      final StringBuilder sb, final String type, final Map<String, StringBuilder> families) {
+    for (final Map.Entry<String, StringBuilder> family : families.entrySet()) {
+      sb.append("# TYPE ").append(family.getKey()).append(' ').append(type).append('\n');
+      sb.append(family.getValue());
+    }
+  }
+
+  private static String familyName(final String series) {
+    final int labelsStart = series.indexOf('{');
+    return labelsStart < 0 ? series : series.substring(0, labelsStart);
+  }
+
+  private static String formatValue(final Number value) {
+    final double doubleValue = value.doubleValue();
+    if (Double.isInfinite(doubleValue)) {
+      return doubleValue > 0 ? "+Inf" : "-Inf";
+    }
+    return value.toString();
+  }
+
+  static String seriesName(final String name, final String... labels) {
+    if (labels == null || labels.length == 0) {
+      return name;
+    }
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be key/value pairs for metric " + name);
+    }
+    final StringBuilder sb = new StringBuilder(name).append('{');
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(labels[i]).append("=\"");
+      // Escaped as in the Prometheus text format
+      for (final char c : String.valueOf(labels[i + 1]).toCharArray()) {
+        if (c == '\\' || c == '"') {
+          sb.append('\\').append(c);
+        } else if (c == '\n') {
+          sb.append("\\n");
+        } else {
+          sb.append(c);
+        }
+      }
+      sb.append('"');
+    }
+    return sb.append('}').toString();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import javax.annotation.Nullable;
+
+/**
+ * Conversions between Kill Bill amounts and the minor units used by Adyen, based on the number of
+ * decimals Adyen expects for each currency (its exponent). This follows ISO 4217, except for the
+ * few currencies where Adyen deviates from it (e.g. {@code CLP} and {@code ISK} take 2 decimals,
+ * {@code IDR} none).
+ *
+ * <p>Amounts with more decimals than their currency are rounded half up, like Kill Bill does.
+ * Kill Bill amounts are usually read with a scale of 9, so the conversion works on the unscaled
+ * value and scale of the amount rather than on its string representation, and does not allocate
+ * for amounts of up to 15 significant digits.
+ */
+public final class AdyenMinorUnits {
+
+  public static final int DEFAULT_EXPONENT = 2;
+
+  // Largest precision for which the unscaled value is below 2^50, see unscaledValue
+  private static final int MAX_FAST_PRECISION = 15;
+  private static final int MAX_FAST_SCALE = 18;
+
+  private static final long[] POWERS_OF_TEN = new long[MAX_FAST_SCALE + 1];
+  private static final double[] DOUBLE_POWERS_OF_TEN = new double[MAX_FAST_SCALE + 1];
+
+  static {
+    long power = 1;
+    for (int i = 0; i <= MAX_FAST_SCALE; i++) {
+      POWERS_OF_TEN[i] = power;
+      DOUBLE_POWERS_OF_TEN[i] = power;
+      power *= 10;
+    }
+  }
+
+  private AdyenMinorUnits() {}
+
+  /** Number of decimals of {@code currencyCode}, {@link #DEFAULT_EXPONENT} if unknown or null. */
+  public static int exponent(@Nullable final String currencyCode) {
+    if (currencyCode == null) {
+      return DEFAULT_EXPONENT;
+    }
+    switch (currencyCode) {
+      case "CVE":
+      case "DJF":
+      case "GNF":
+      case "IDR":
+      case "JPY":
+      case "KMF":
+      case "KRW":
+      case "PYG":
+      case "RWF":
+      case "UGX":
+      case "VND":
+      case "VUV":
+      case "XAF":
+      case "XOF":
+      case "XPF":
+        return 0;
+      case "BHD":
+      case "IQD":
+      case "JOD":
+      case "KWD":
+      case "LYD":
+      case "OMR":
+      case "TND":
+        return 3;
+      default:
+        return DEFAULT_EXPONENT;
+    }
+  }
+
+  /**
+   * Converts {@code amount} into minor units of {@code currencyCode}, e.g. 10.5 EUR into 1050.
+   *
+   * @throws ArithmeticException if the result does not fit in a long
+   */
+  public static long toMinorUnits(final BigDecimal amount, @Nullable final String currencyCode) {
+    final int exponent = exponent(currencyCode);
+    final int scale = amount.scale();
+    if (scale < 0 || scale > MAX_FAST_SCALE || amount.precision() > MAX_FAST_PRECISION) {
+      return amount.setScale(exponent, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    final long unscaled = unscaledValue(amount);
+    if (scale <= exponent) {
+      return Math.multiplyExact(unscaled, POWERS_OF_TEN[exponent - scale]);
+    }
+    final long divisor = POWERS_OF_TEN[scale - exponent];
+    final long quotient = unscaled / divisor;
+    final long remainder = Math.abs(unscaled % divisor);
+    // Half up, i.e. away from zero on ties
+    return remainder >= divisor - remainder ? quotient + Long.signum(unscaled) : quotient;
+  }
+
+  /** Converts minor units of {@code currencyCode} back into an amount, e.g. 1050 EUR into 10.50. */
+  public static BigDecimal fromMinorUnits(
+      final long minorUnits, @Nullable final String currencyCode) {
+    return BigDecimal.valueOf(minorUnits, exponent(currencyCode));
+  }
+
+  // BigDecimal#unscaledValue allocates a BigInteger. For |unscaled| < 2^50 and scale <= 22,
+  // doubleValue() is a single correctly rounded division by an exact power of ten, and multiplying
+  // back adds at most one more rounding: the result is within 2^50 * 2^-52 = 0.25 of the unscaled
+  // value, so rounding it is exact.
+  private static long unscaledValue(final BigDecimal amount) {
+    return Math.round(amount.doubleValue() * DOUBLE_POWERS_OF_TEN[amount.scale()]);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+
+/**
+ * Recognises Adyen redeliveries of notification items which were already applied, so that they are
+ * acknowledged without updating the response or notifying Kill Bill again. An item is identified by
+ * its pspReference, event code and success flag.
+ *
+ * <p>Recently applied items are remembered in memory (up to {@code notificationDedup.cacheSize},
+ * least recently used first out); the others are looked up in the notifications table, by its
+ * {@code psp_reference} index, in the transaction applying the notification.
+ *
+ * <p>Two deliveries of the same item applied at the same time (e.g. by two nodes) can both go
+ * through: this only saves the work of redeliveries, Kill Bill ignores repeated state changes.
+ */
+public class AdyenNotificationDeduplicator {
+
+  // Null when disabled
+  @Nullable private final Cache<String, Boolean> applied;
+  private final LongAdder items;
+  private final LongAdder memoryDuplicates;
+  private final LongAdder databaseDuplicates;
+
+  public AdyenNotificationDeduplicator(
+      final AdyenConfigProperties globalConfiguration, final AdyenMetrics metrics) {
+    final int cacheSize = globalConfiguration.getNotificationDedupCacheSize();
+    this.applied = cacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(cacheSize).build() : null;
+    this.items = metrics.counter("adyen_notification_items_total");
+    this.memoryDuplicates =
+        metrics.counter("adyen_notification_duplicates_total", "source", "memory");
+    this.databaseDuplicates =
+        metrics.counter("adyen_notification_duplicates_total", "source", "database");
+  }
+
+  /**
+   * Returns the items which are not known to have been applied, without the repeated items of the
+   * payload itself.
+   */
+  public List<NotificationRequestItem> withoutKnownDuplicates(
+      final List<NotificationRequestItem> notificationItems) {
+    items.add(notificationItems.size());
+    final List<NotificationRequestItem> result = new ArrayList<>(notificationItems.size());
+    final Set<String> seen = new HashSet<>();
+    for (final NotificationRequestItem item : notificationItems) {
+      final String key = key(item);
+      if (key != null
+          && ((applied != null && applied.getIfPresent(key) != null) || !seen.add(key))) {
+        memoryDuplicates.increment();
+        continue;
+      }
+      result.add(item);
+    }
+    return result;
+  }
+
+  /**
+   * Returns whether an item was already applied, given the keys returned by {@link
+   * AdyenDao.UnitOfWork#getNotificationKeys} for its pspReference.
+   */
+  public boolean isStored(final NotificationRequestItem item, final Set<String> storedKeys) {
+    final String key = key(item);
+    if (key == null || !storedKeys.contains(key)) {
+      return false;
+    }
+    databaseDuplicates.increment();
+    remember(key);
+    return true;
+  }
+
+  /** Remembers items once the transaction applying them has been committed. */
+  public void markApplied(final List<NotificationRequestItem> appliedItems) {
+    for (final NotificationRequestItem item : appliedItems) {
+      final String key = key(item);
+      if (key != null) {
+        remember(key);
+      }
+    }
+  }
+
+  private void remember(final String key) {
+    if (applied != null) {
+      applied.put(key, Boolean.TRUE);
+    }
+  }
+
+  // Items without a pspReference cannot be told apart: they are always applied
+  @Nullable
+  private static String key(final NotificationRequestItem item) {
+    if (item.getPspReference() == null) {
+      return null;
+    }
+    return AdyenDao.notificationKey(item.getPspReference(), item.getEventCode(), item.isSuccess());
+  }
+}
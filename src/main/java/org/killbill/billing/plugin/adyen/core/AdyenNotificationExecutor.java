@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies notification items in parallel across payments, but in order for each payment. Items are
+ * spread over {@code stripes} single-threaded executors by payment: Adyen sets the {@code
+ * originalReference} of modifications (captures, refunds, cancellations...) to the pspReference of
+ * the payment they apply to, so all the events of a payment land on the same stripe and are
+ * applied in the order they were received.
+ *
+ * <p>Each stripe queues up to {@code queueCapacity} batches of items. When a stripe is full the
+ * notification is rejected, so that Adyen delivers it again later. The items already handed to
+ * other stripes are still applied: they are deduplicated when the notification comes back.
+ */
+public class AdyenNotificationExecutor {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenNotificationExecutor.class);
+
+  @FunctionalInterface
+  public interface ItemsHandler {
+
+    void apply(List<NotificationRequestItem> items) throws Exception;
+  }
+
+  private final ThreadPoolExecutor[] stripes;
+  private final LongAdder[] processed;
+  private final LongAdder rejected;
+
+  public AdyenNotificationExecutor(
+      final int stripeCount, final int queueCapacity, final AdyenMetrics metrics) {
+    this.stripes = new ThreadPoolExecutor[stripeCount];
+    this.processed = new LongAdder[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      final ThreadPoolExecutor stripe =
+          new ThreadPoolExecutor(
+              1,
+              1,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new LinkedBlockingQueue<>(queueCapacity),
+              new ThreadFactoryBuilder()
+                  .setNameFormat("adyen-notification-stripe-" + i)
+                  .setDaemon(true)
+                  .build());
+      stripes[i] = stripe;
+      final String label = String.valueOf(i);
+      processed[i] =
+          metrics.counter("adyen_notification_stripe_processed_total", "stripe", label);
+      metrics.gauge(
+          "adyen_notification_stripe_queued", () -> stripe.getQueue().size(), "stripe", label);
+    }
+    this.rejected = metrics.counter("adyen_notification_stripe_rejected_total");
+  }
+
+  /**
+   * Applies the items with {@code handler}, once per stripe with the items of that stripe (in their
+   * original order), and waits for all of them.
+   *
+   * @throws RejectedExecutionException if a stripe queue is full, once the stripes which accepted
+   *     their items are done with them
+   * @throws Exception the first failure of {@code handler}, once all stripes are done
+   */
+  public void execute(final List<NotificationRequestItem> items, final ItemsHandler handler)
+      throws Exception {
+    final Map<Integer, List<NotificationRequestItem>> itemsByStripe = new LinkedHashMap<>();
+    for (final NotificationRequestItem item : items) {
+      itemsByStripe.computeIfAbsent(stripeOf(item), k -> new ArrayList<>()).add(item);
+    }
+
+    final List<Future<?>> futures = new ArrayList<>(itemsByStripe.size());
+    try {
+      for (final Map.Entry<Integer, List<NotificationRequestItem>> entry :
+          itemsByStripe.entrySet()) {
+        final int stripe = entry.getKey();
+        final List<NotificationRequestItem> stripeItems = entry.getValue();
+        futures.add(
+            stripes[stripe].submit(
+                () -> {
+                  handler.apply(stripeItems);
+                  processed[stripe].add(stripeItems.size());
+                  return null;
+                }));
+      }
+    } catch (final RejectedExecutionException e) {
+      rejected.increment();
+      logger.warn("[Adyen] Notification stripe queue full, rejecting notification");
+      // Adyen delivers the whole notification again: its failures are reported by the redelivery
+      await(futures);
+      throw e;
+    }
+
+    final Exception failure = await(futures);
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /** Waits for all the futures, returning the first failure. */
+  @Nullable
+  private static Exception await(final List<Future<?>> futures) throws InterruptedException {
+    Exception failure = null;
+    for (final Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (final ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+      }
+    }
+    return failure;
+  }
+
+  public void shutdown() throws InterruptedException {
+    for (final ThreadPoolExecutor stripe : stripes) {
+      stripe.shutdown();
+    }
+    for (final ThreadPoolExecutor stripe : stripes) {
+      if (!stripe.awaitTermination(30, TimeUnit.SECONDS)) {
+        stripe.shutdownNow();
+      }
+    }
+  }
+
+  private int stripeOf(final NotificationRequestItem item) {
+    final String key = paymentKey(item);
+    return key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % stripes.length;
+  }
+
+  /** The pspReference of the payment an item is about. */
+  @Nullable
+  private static String paymentKey(final NotificationRequestItem item) {
+    if (item.getOriginalReference() != null && !item.getOriginalReference().isEmpty()) {
+      return item.getOriginalReference();
+    }
+    return item.getPspReference();
+  }
+}
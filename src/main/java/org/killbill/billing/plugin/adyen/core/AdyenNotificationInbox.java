@@ -0,0 +1,217 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.joda.time.DateTime;
+import org.jooq.Record2;
+import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsInboxRecord;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable inbox for Adyen webhooks. When enabled, the notification endpoint only persists the raw
+ * payload and acknowledges it; a pool of workers then applies queued notifications in the
+ * background, retrying failures with an exponential backoff.
+ */
+public class AdyenNotificationInbox {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenNotificationInbox.class);
+
+  // Claimed entries not released after this long are assumed to belong to a dead node
+  private static final int STALE_CLAIM_MINUTES = 10;
+  private static final long STATS_INTERVAL_SECONDS = 10;
+  private static final long MAX_BACKOFF_SECONDS = 3600;
+
+  private final AdyenDao adyenDao;
+  private final AdyenPaymentPluginApi adyenPaymentPluginApi;
+  private final Clock clock;
+  private final boolean enabled;
+  private final int workers;
+  private final int pollIntervalMs;
+  private final int batchSize;
+  private final int maxAttempts;
+
+  private final LongAdder enqueued;
+  private final LongAdder processed;
+  private final LongAdder retried;
+  private final LongAdder failed;
+  private volatile long depth;
+  private volatile long lagMs;
+
+  private ScheduledExecutorService executor;
+  private volatile boolean running;
+
+  public AdyenNotificationInbox(
+      final AdyenDao adyenDao,
+      final AdyenPaymentPluginApi adyenPaymentPluginApi,
+      final Clock clock,
+      final AdyenConfigProperties globalConfiguration,
+      final AdyenMetrics metrics) {
+    this.adyenDao = adyenDao;
+    this.adyenPaymentPluginApi = adyenPaymentPluginApi;
+    this.clock = clock;
+    this.enabled = globalConfiguration.isNotificationInboxEnabled();
+    this.workers = globalConfiguration.getNotificationInboxWorkers();
+    this.pollIntervalMs = globalConfiguration.getNotificationInboxPollIntervalMs();
+    this.batchSize = globalConfiguration.getNotificationInboxBatchSize();
+    this.maxAttempts = globalConfiguration.getNotificationInboxMaxAttempts();
+
+    this.enqueued = metrics.counter("adyen_notification_inbox_enqueued_total");
+    this.processed = metrics.counter("adyen_notification_inbox_processed_total");
+    this.retried = metrics.counter("adyen_notification_inbox_retried_total");
+    this.failed = metrics.counter("adyen_notification_inbox_failed_total");
+    metrics.gauge("adyen_notification_inbox_depth", () -> depth);
+    metrics.gauge("adyen_notification_inbox_lag_ms", () -> lagMs);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void enqueue(final String notification) throws SQLException {
+    adyenDao.enqueueNotification(notification, clock.getUTCNow());
+    enqueued.increment();
+  }
+
+  public synchronized void start() {
+    if (!enabled || executor != null) {
+      return;
+    }
+
+    logger.info("[Adyen] Starting {} notification inbox workers", workers);
+    running = true;
+    executor =
+        Executors.newScheduledThreadPool(
+            workers + 1,
+            new ThreadFactoryBuilder()
+                .setNameFormat("adyen-notification-inbox-%d")
+                .setDaemon(true)
+                .build());
+    for (int i = 0; i < workers; i++) {
+      executor.scheduleWithFixedDelay(this::drain, 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+    executor.scheduleWithFixedDelay(
+        this::refreshStats, 0, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  public synchronized void stop() throws InterruptedException {
+    if (executor == null) {
+      return;
+    }
+
+    logger.info("[Adyen] Stopping notification inbox workers");
+    running = false;
+    executor.shutdown();
+    if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+      // Interrupted entries stay claimed and are picked up again once stale
+      executor.shutdownNow();
+    }
+    executor = null;
+  }
+
+  /** Applies the due notifications. Run periodically by each worker once started. */
+  public void drain() {
+    // An exception escaping a scheduled task would silently cancel all its future runs
+    try {
+      List<AdyenNotificationsInboxRecord> batch;
+      do {
+        batch = adyenDao.claimNotifications(batchSize, clock.getUTCNow());
+        for (final AdyenNotificationsInboxRecord entry : batch) {
+          process(entry);
+        }
+      } while (batch.size() == batchSize && running);
+    } catch (final Throwable t) {
+      logger.warn("[Adyen] Unable to poll the notification inbox", t);
+    }
+  }
+
+  private void process(final AdyenNotificationsInboxRecord entry) throws SQLException {
+    try {
+      adyenPaymentPluginApi.handleNotification(entry.getNotification(), ImmutableList.of());
+      adyenDao.deleteNotificationFromInbox(entry.getRecordId());
+      processed.increment();
+    } catch (final Exception e) {
+      final String error = String.valueOf(e.getMessage());
+      if (entry.getAttempts() >= maxAttempts) {
+        logger.error(
+            "[Adyen] Giving up on inbox notification {} after {} attempts",
+            entry.getRecordId(),
+            entry.getAttempts(),
+            e);
+        adyenDao.releaseNotification(entry.getRecordId(), error, clock.getUTCNow(), null);
+        failed.increment();
+      } else {
+        final long backoffSeconds =
+            Math.min(MAX_BACKOFF_SECONDS, 1L << Math.min(entry.getAttempts(), 20));
+        logger.warn(
+            "[Adyen] Inbox notification {} failed (attempt {}), retrying in {}s: {}",
+            entry.getRecordId(),
+            entry.getAttempts(),
+            backoffSeconds,
+            error);
+        final DateTime now = clock.getUTCNow();
+        adyenDao.releaseNotification(
+            entry.getRecordId(), error, now, now.plusSeconds((int) backoffSeconds));
+        retried.increment();
+      }
+    }
+  }
+
+  /**
+   * Puts back the entries claimed by a node which went away and refreshes the depth and lag
+   * gauges. Run periodically once started.
+   */
+  public void refreshStats() {
+    try {
+      final DateTime now = clock.getUTCNow();
+      final int released =
+          adyenDao.releaseStaleNotifications(now, now.minusMinutes(STALE_CLAIM_MINUTES));
+      if (released > 0) {
+        logger.warn("[Adyen] Released {} stale inbox notifications", released);
+      }
+
+      final Record2<Integer, LocalDateTime> stats = adyenDao.getNotificationInboxStats();
+      depth = stats.value1();
+      if (stats.value2() == null) {
+        lagMs = 0;
+      } else {
+        final LocalDateTime now =
+            LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(clock.getUTCNow().getMillis()), ZoneOffset.UTC);
+        lagMs = Math.max(0, Duration.between(stats.value2(), now).toMillis());
+      }
+    } catch (final Throwable t) {
+      logger.warn("[Adyen] Unable to refresh notification inbox stats", t);
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.joda.time.DateTime;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsInboxRecord;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds on to notification items whose payment cannot be found yet. Adyen can notify an
+ * authorisation before {@code purchasePayment} has stored its response: such items are parked in
+ * the inbox table and matched again with an exponential backoff, until their payment shows up or
+ * they are older than {@code maxAgeSeconds}.
+ *
+ * <p>At most {@code maxSize} items are parked at a time (items of payments made outside of Kill
+ * Bill on the same merchant account are parked too, until they expire); past that, unmatched items
+ * are dropped as before.
+ */
+public class AdyenNotificationParking {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenNotificationParking.class);
+
+  private static final long MAX_BACKOFF_SECONDS = 60;
+  // Entries claimed by a node which went away are retried after this long
+  private static final int CLAIM_LEASE_SECONDS = 300;
+  private static final int BATCH_SIZE = 50;
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  @FunctionalInterface
+  public interface Matcher {
+
+    /** Applies a parked notification, returning false if its payment still cannot be found. */
+    boolean apply(String notification) throws Exception;
+  }
+
+  private final AdyenDao adyenDao;
+  private final Clock clock;
+  private final int maxSize;
+  private final int maxAgeSeconds;
+  private final int pollIntervalMs;
+
+  private final LongAdder parked;
+  private final LongAdder matched;
+  private final LongAdder expired;
+  private final LongAdder dropped;
+  private volatile long size;
+
+  private ScheduledExecutorService executor;
+  private volatile boolean running;
+
+  public AdyenNotificationParking(
+      final AdyenDao adyenDao,
+      final Clock clock,
+      final AdyenConfigProperties globalConfiguration,
+      final AdyenMetrics metrics) {
+    this.adyenDao = adyenDao;
+    this.clock = clock;
+    this.maxSize = globalConfiguration.getNotificationParkingMaxSize();
+    this.maxAgeSeconds = globalConfiguration.getNotificationParkingMaxAgeSeconds();
+    this.pollIntervalMs = globalConfiguration.getNotificationParkingPollIntervalMs();
+
+    this.parked = metrics.counter("adyen_notification_parked_total");
+    this.matched = metrics.counter("adyen_notification_parked_matched_total");
+    this.expired = metrics.counter("adyen_notification_parked_expired_total");
+    this.dropped = metrics.counter("adyen_notification_parked_dropped_total");
+    metrics.gauge("adyen_notification_parked", () -> size);
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  public void park(final List<NotificationRequestItem> items) throws SQLException {
+    final DateTime now = clock.getUTCNow();
+    long parkedCount = adyenDao.countParkedNotifications();
+    for (final NotificationRequestItem item : items) {
+      if (parkedCount >= maxSize) {
+        logger.error(
+            "[Adyen] Too many parked notifications, dropping {} notification for pspReference {}",
+            item.getEventCode(),
+            item.getPspReference());
+        dropped.increment();
+        continue;
+      }
+      logger.info(
+          "[Adyen] Parking {} notification for pspReference {} until its payment is found",
+          item.getEventCode(),
+          item.getPspReference());
+      adyenDao.parkNotification(toJson(item), now, now.plusSeconds(1));
+      parked.increment();
+      parkedCount++;
+    }
+    size = parkedCount;
+  }
+
+  public synchronized void start(final Matcher matcher) {
+    if (!isEnabled() || executor != null) {
+      return;
+    }
+
+    running = true;
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("adyen-notification-parking-%d")
+                .setDaemon(true)
+                .build());
+    executor.scheduleWithFixedDelay(
+        () -> retryDue(matcher), pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() throws InterruptedException {
+    if (executor == null) {
+      return;
+    }
+
+    running = false;
+    executor.shutdown();
+    if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+      // Interrupted entries are retried once their claim lease is over
+      executor.shutdownNow();
+    }
+    executor = null;
+  }
+
+  /** Matches the parked items which are due; run every {@code pollIntervalMs} once started. */
+  public void retryDue(final Matcher matcher) {
+    // An exception escaping a scheduled task would silently cancel all its future runs
+    try {
+      List<AdyenNotificationsInboxRecord> batch;
+      do {
+        final DateTime now = clock.getUTCNow();
+        batch =
+            adyenDao.claimParkedNotifications(
+                BATCH_SIZE, now, now.plusSeconds(CLAIM_LEASE_SECONDS));
+        for (final AdyenNotificationsInboxRecord entry : batch) {
+          retry(matcher, entry);
+        }
+      } while (batch.size() == BATCH_SIZE && running);
+      size = adyenDao.countParkedNotifications();
+    } catch (final Throwable t) {
+      logger.warn("[Adyen] Unable to retry parked notifications", t);
+    }
+  }
+
+  private void retry(final Matcher matcher, final AdyenNotificationsInboxRecord entry)
+      throws SQLException {
+    String error = null;
+    try {
+      if (matcher.apply(entry.getNotification())) {
+        adyenDao.deleteNotificationFromInbox(entry.getRecordId());
+        matched.increment();
+        return;
+      }
+    } catch (final Exception e) {
+      error = String.valueOf(e.getMessage());
+    }
+
+    final DateTime now = clock.getUTCNow();
+    final LocalDateTime nowUtc =
+        LocalDateTime.ofInstant(Instant.ofEpochMilli(now.getMillis()), ZoneOffset.UTC);
+    if (entry.getCreatedDate().plusSeconds(maxAgeSeconds).isBefore(nowUtc)) {
+      logger.error(
+          "[Adyen] No payment found after {} attempts, dropping parked notification {}",
+          entry.getAttempts(),
+          entry.getNotification());
+      adyenDao.deleteNotificationFromInbox(entry.getRecordId());
+      expired.increment();
+      return;
+    }
+
+    final long backoffSeconds =
+        Math.min(MAX_BACKOFF_SECONDS, 1L << Math.min(entry.getAttempts(), 20));
+    adyenDao.rescheduleParkedNotification(
+        entry.getRecordId(), error, now, now.plusSeconds((int) backoffSeconds));
+  }
+
+  // In the webhook format, so that parked items go through the same parsing as live ones
+  static String toJson(final NotificationRequestItem item) {
+    final Map<String, Object> itemJson = new LinkedHashMap<>();
+    if (item.getAdditionalData() != null) {
+      itemJson.put("additionalData", item.getAdditionalData());
+    }
+    if (item.getAmount() != null) {
+      final Map<String, Object> amount = new LinkedHashMap<>();
+      amount.put("currency", item.getAmount().getCurrency());
+      amount.put("value", item.getAmount().getValue());
+      itemJson.put("amount", amount);
+    }
+    itemJson.put("eventCode", item.getEventCode());
+    itemJson.put("merchantAccountCode", item.getMerchantAccountCode());
+    itemJson.put("merchantReference", item.getMerchantReference());
+    itemJson.put("operations", item.getOperations());
+    itemJson.put("originalReference", item.getOriginalReference());
+    itemJson.put("paymentMethod", item.getPaymentMethod());
+    itemJson.put("pspReference", item.getPspReference());
+    itemJson.put("reason", item.getReason());
+    itemJson.put("success", String.valueOf(item.isSuccess()));
+    try {
+      return objectMapper.writeValueAsString(
+          ImmutableMap.of(
+              "live",
+              "false",
+              "notificationItems",
+              ImmutableList.of(ImmutableMap.of("NotificationRequestItem", itemJson))));
+    } catch (final JsonProcessingException e) {
+      // Cannot happen: strings, numbers, lists and maps only
+      throw new IllegalStateException(e);
+    }
+  }
+}
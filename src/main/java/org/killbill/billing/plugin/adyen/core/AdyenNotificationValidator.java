@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import com.adyen.model.notification.NotificationRequest;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.notification.WebhookHandler;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import org.killbill.billing.plugin.adyen.api.exceptions.NotificationRejectedException;
+import org.killbill.billing.plugin.adyen.api.exceptions.NotificationRejectedException.Reason;
+
+/**
+ * Checks run on incoming webhooks before anything touches the database: payload structure, basic
+ * authentication credentials and HMAC signatures, using the configurations of the tenants owning
+ * each item's merchant account. Items for a merchant account no configuration uses are rejected.
+ */
+public class AdyenNotificationValidator {
+
+  private static final String BASIC_PREFIX = "Basic ";
+
+  private final AdyenConfigurationHandler adyenConfigurationHandler;
+  private final AdyenHmacValidator hmacValidator;
+  private final WebhookHandler webhookHandler = new WebhookHandler();
+
+  private final Map<Reason, LongAdder> rejected = new EnumMap<>(Reason.class);
+  private final LongAdder verified;
+
+  public AdyenNotificationValidator(
+      final AdyenConfigurationHandler adyenConfigurationHandler,
+      final AdyenHmacValidator hmacValidator,
+      final AdyenMetrics metrics) {
+    this.adyenConfigurationHandler = adyenConfigurationHandler;
+    this.hmacValidator = hmacValidator;
+    for (final Reason reason : Reason.values()) {
+      rejected.put(
+          reason,
+          metrics.counter(
+              "adyen_notification_rejected_total", "reason", reason.name().toLowerCase()));
+    }
+    this.verified = metrics.counter("adyen_notification_items_verified_total");
+  }
+
+  public NotificationRequest validate(final String body, @Nullable final String authorization)
+      throws NotificationRejectedException {
+    return validate(body, authorization, true);
+  }
+
+  /**
+   * Same as {@link #validate(String, String)} for payloads delivered through Kill Bill's own
+   * notification route: the request has already been authenticated by Kill Bill, and Adyen's
+   * credentials are not forwarded to the plugin, so only signatures are checked.
+   */
+  public NotificationRequest validateSignatures(final String body)
+      throws NotificationRejectedException {
+    return validate(body, null, false);
+  }
+
+  private NotificationRequest validate(
+      final String body, @Nullable final String authorization, final boolean checkCredentials)
+      throws NotificationRejectedException {
+    final NotificationRequest notificationRequest;
+    try {
+      notificationRequest = webhookHandler.handleNotificationJson(body);
+    } catch (final Exception e) {
+      throw reject(Reason.MALFORMED, "Unable to parse payload: " + e.getMessage());
+    }
+    if (notificationRequest == null
+        || notificationRequest.getNotificationItems() == null
+        || notificationRequest.getNotificationItems().isEmpty()) {
+      throw reject(Reason.MALFORMED, "No notification items");
+    }
+
+    final List<NotificationRequestItem> items = notificationRequest.getNotificationItems();
+    for (final NotificationRequestItem item : items) {
+      final List<AdyenConfigProperties> configurations =
+          adyenConfigurationHandler.getConfigurablesForMerchantAccount(
+              item.getMerchantAccountCode());
+      if (configurations.isEmpty()) {
+        throw reject(
+            Reason.UNKNOWN_MERCHANT_ACCOUNT,
+            "Unknown merchant account " + item.getMerchantAccountCode());
+      }
+
+      // Tenants sharing a merchant account: any of their configurations may have sent it
+      Reason reason = Reason.UNAUTHORIZED;
+      boolean valid = false;
+      for (final AdyenConfigProperties configuration : configurations) {
+        if (checkCredentials
+            && hasCredentials(configuration)
+            && !credentialsMatch(configuration, authorization)) {
+          continue;
+        }
+        if (hmacValidator.isValid(item, configuration.getHmacSecretKey())) {
+          valid = true;
+          break;
+        }
+        reason = Reason.INVALID_HMAC;
+      }
+      if (!valid) {
+        throw reject(
+            reason,
+            reason == Reason.UNAUTHORIZED
+                ? "Invalid credentials for merchant account " + item.getMerchantAccountCode()
+                : "Invalid signature for pspReference " + item.getPspReference());
+      }
+      verified.increment();
+    }
+
+    return notificationRequest;
+  }
+
+  private NotificationRejectedException reject(final Reason reason, final String message) {
+    rejected.get(reason).increment();
+    return new NotificationRejectedException(reason, message);
+  }
+
+  private static boolean hasCredentials(final AdyenConfigProperties configuration) {
+    return configuration.getUsername() != null
+        && !configuration.getUsername().isEmpty()
+        && configuration.getPassword() != null;
+  }
+
+  private static boolean credentialsMatch(
+      final AdyenConfigProperties configuration, @Nullable final String authorization) {
+    if (authorization == null || !authorization.startsWith(BASIC_PREFIX)) {
+      return false;
+    }
+
+    final byte[] provided;
+    try {
+      provided = Base64.getDecoder().decode(authorization.substring(BASIC_PREFIX.length()).trim());
+    } catch (final IllegalArgumentException e) {
+      return false;
+    }
+    final byte[] expected =
+        (configuration.getUsername() + ":" + configuration.getPassword())
+            .getBytes(StandardCharsets.UTF_8);
+    return MessageDigest.isEqual(provided, expected);
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core.resources;
+
+import com.google.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
+import javax.inject.Singleton;
+import org.jooby.MediaType;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.mvc.GET;
+import org.jooby.mvc.Path;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.killbill.billing.plugin.core.PluginServlet;
+
+@Singleton
+@Path("/metrics")
+public class AdyenMetricsServlet extends PluginServlet {
+
+  private final AdyenMetrics metrics;
+
+  @Inject
+  public AdyenMetricsServlet(final AdyenMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @GET
+  public Map<String, Object> getMetrics() {
+    final Map<String, Object> result = new HashMap<>();
+    result.put("counters", metrics.getCounters());
+    result.put("gauges", metrics.getGauges());
+    result.put("histograms", metrics.getHistograms());
+    return result;
+  }
+
+  /** Same metrics, in the Prometheus text format, e.g. for a scrape job. */
+  @GET
+  @Path("/prometheus")
+  public Result getPrometheusMetrics() {
+    return Results.ok(metrics.toPrometheusText()).type(MediaType.plain);
+  }
+}
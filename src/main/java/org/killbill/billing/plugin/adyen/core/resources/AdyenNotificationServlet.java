@@ -17,22 +17,23 @@
 
 package org.killbill.billing.plugin.adyen.core.resources;
 
+import com.adyen.model.notification.NotificationRequest;
 import com.google.inject.Inject;
-import java.util.UUID;
+import java.util.Optional;
 import javax.inject.Singleton;
 import org.jooby.Result;
 import org.jooby.Results;
 import org.jooby.Status;
 import org.jooby.mvc.Body;
+import org.jooby.mvc.Header;
 import org.jooby.mvc.POST;
 import org.jooby.mvc.Path;
-import org.killbill.billing.osgi.libs.killbill.OSGIKillbillClock;
-import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
-import org.killbill.billing.plugin.adyen.core.AdyenActivator;
-import org.killbill.billing.plugin.api.PluginCallContext;
+import org.killbill.billing.plugin.adyen.api.exceptions.NotificationRejectedException;
+import org.killbill.billing.plugin.adyen.api.exceptions.NotificationRejectedException.Reason;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationInbox;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationValidator;
 import org.killbill.billing.plugin.core.resources.PluginHealthcheck;
-import org.killbill.billing.util.callcontext.CallContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,35 +41,55 @@ import org.slf4j.LoggerFactory;
 @Path("/notification")
 public class AdyenNotificationServlet extends PluginHealthcheck {
   private static final Logger logger = LoggerFactory.getLogger(AdyenNotificationServlet.class);
-  private final OSGIKillbillClock clock;
   private final AdyenPaymentPluginApi adyenPaymentPluginApi;
+  private final AdyenNotificationInbox notificationInbox;
+  private final AdyenNotificationValidator notificationValidator;
 
   @Inject
   public AdyenNotificationServlet(
-      final OSGIKillbillClock clock, final AdyenPaymentPluginApi adyenPaymentPluginApi) {
-    this.clock = clock;
+      final AdyenPaymentPluginApi adyenPaymentPluginApi,
+      final AdyenNotificationInbox notificationInbox,
+      final AdyenNotificationValidator notificationValidator) {
     this.adyenPaymentPluginApi = adyenPaymentPluginApi;
+    this.notificationInbox = notificationInbox;
+    this.notificationValidator = notificationValidator;
   }
 
   @POST
-  public Result notification(@Body String body) {
+  public Result notification(
+      @Body String body, @Header("Authorization") Optional<String> authorization) {
     logger.info("[Adyen] Start notification");
+    final NotificationRequest notificationRequest;
+    try {
+      notificationRequest = notificationValidator.validate(body, authorization.orElse(null));
+    } catch (final NotificationRejectedException e) {
+      logger.warn("[Adyen] Rejecting notification ({}): {}", e.getReason(), e.getMessage());
+      return Results.with(
+          e.getReason() == Reason.MALFORMED ? Status.BAD_REQUEST : Status.UNAUTHORIZED);
+    }
+
+    if (notificationInbox.isEnabled()) {
+      return enqueue(body);
+    }
+
     try {
-      final CallContext context =
-          new PluginCallContext(
-              AdyenActivator.PLUGIN_NAME,
-              clock.getClock().getUTCNow(),
-              UUID.randomUUID(),
-              UUID.randomUUID());
       logger.info("[Adyen] Start result of notification");
 
-      return Results.ok(adyenPaymentPluginApi.processNotification(body, null, context).getEntity());
-    } catch (final PaymentPluginApiException e) {
-      logger.error("[Adyen] Error processing notification", e);
-      return Results.with(e, Status.SERVER_ERROR);
+      return Results.ok(
+          adyenPaymentPluginApi.processNotification(notificationRequest, null).getEntity());
     } catch (final Exception e) {
       logger.error("[Adyen] Unexpected error processing notification", e);
       return Results.with(e, Status.SERVER_ERROR);
     }
   }
+
+  private Result enqueue(final String body) {
+    try {
+      notificationInbox.enqueue(body);
+      return Results.ok("[accepted]");
+    } catch (final Exception e) {
+      logger.error("[Adyen] Unable to persist notification", e);
+      return Results.with(e, Status.SERVER_ERROR);
+    }
+  }
 }
@@ -29,7 +29,8 @@ import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
 import org.killbill.billing.plugin.adyen.api.SessionInputDTO;
 import org.killbill.billing.plugin.adyen.api.SessionOutputDTO;
 import org.killbill.billing.plugin.adyen.client.GatewayProcessor;
-import org.killbill.billing.plugin.adyen.client.GatewayProcessorFactory;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
 import org.killbill.billing.util.callcontext.CallContext;
 import org.slf4j.Logger;
@@ -44,11 +45,15 @@ public class AdyenSessionService {
 
     private OSGIKillbillAPI killbillAPI;
     private AdyenConfigurationHandler adyenConfigurationHandler;
+    private GatewayProcessorRegistry gatewayProcessorRegistry;
 
     public AdyenSessionService(
-            OSGIKillbillAPI killbillAPI, AdyenConfigurationHandler adyenConfigurationHandler) {
+            OSGIKillbillAPI killbillAPI,
+            AdyenConfigurationHandler adyenConfigurationHandler,
+            GatewayProcessorRegistry gatewayProcessorRegistry) {
         this.killbillAPI = killbillAPI;
         this.adyenConfigurationHandler = adyenConfigurationHandler;
+        this.gatewayProcessorRegistry = gatewayProcessorRegistry;
     }
 
     /**
@@ -72,19 +77,17 @@ public class AdyenSessionService {
         
         try {
             // Authenticate with Kill Bill
+            final AdyenConfigProperties configuration =
+                    adyenConfigurationHandler.getConfigurable(tenantId);
             killbillAPI
                     .getSecurityApi()
-                    .login(
-                            adyenConfigurationHandler.getConfigurable(tenantId).getUsername(),
-                            adyenConfigurationHandler.getConfigurable(tenantId).getPassword());
+                    .login(configuration.getUsername(), configuration.getPassword());
     
             final SessionInputDTO sessionInputDTO = new SessionInputDTO();
             sessionInputDTO.setSessionId(sessionId);
             sessionInputDTO.setSessionResult(sessionResult);
     
-            GatewayProcessor gatewayProcessor =
-                    GatewayProcessorFactory.get(
-                            adyenConfigurationHandler.getConfigurable(context.getTenantId()));
+            GatewayProcessor gatewayProcessor = gatewayProcessorRegistry.get(context.getTenantId());
     
             final SessionOutputDTO sessionResultDTO = gatewayProcessor.getSessionResult(sessionInputDTO);
             
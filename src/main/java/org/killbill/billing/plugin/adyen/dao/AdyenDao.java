@@ -18,32 +18,51 @@
 package org.killbill.billing.plugin.adyen.dao;
 
 import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications.ADYEN_NOTIFICATIONS;
+import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX;
 import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS;
 import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES;
 
 import com.adyen.model.notification.NotificationRequestItem;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import javax.sql.DataSource;
 import org.joda.time.DateTime;
 import org.jooq.DSLContext;
+import org.jooq.InsertReturningStep;
+import org.jooq.Query;
+import org.jooq.Record2;
+import org.jooq.Record3;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
+import org.jooq.types.ULong;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.payment.api.TransactionType;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
 import org.killbill.billing.plugin.adyen.client.exceptions.FormaterException;
+import org.killbill.billing.plugin.adyen.core.AdyenMinorUnits;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsInboxRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
@@ -53,10 +72,44 @@ public class AdyenDao
     extends PluginPaymentDao<
         AdyenResponsesRecord, AdyenResponses, AdyenPaymentMethodsRecord, AdyenPaymentMethods> {
 
+  public static final String INBOX_PENDING = "PENDING";
+  public static final String INBOX_PROCESSING = "PROCESSING";
+  public static final String INBOX_FAILED = "FAILED";
+  // Notification items waiting for their payment, see parkNotification
+  public static final String INBOX_PARKED = "PARKED";
+
+  // Null when disabled
+  @Nullable private final Cache<String, AdyenPaymentMethodsRecord> paymentMethodsCache;
+
   public AdyenDao(final DataSource dataSource) throws SQLException {
+    this(dataSource, 0, 0);
+  }
+
+  /**
+   * @param paymentMethodsCacheMaxSize maximum number of payment methods kept in memory by {@link
+   *     #getPaymentMethod(UUID, UUID)}, 0 to disable caching
+   * @param paymentMethodsCacheTtlSeconds how long a cached payment method can be served, 0 for no
+   *     limit. Bounds the staleness of entries updated by another Kill Bill node
+   */
+  public AdyenDao(
+      final DataSource dataSource,
+      final long paymentMethodsCacheMaxSize,
+      final long paymentMethodsCacheTtlSeconds)
+      throws SQLException {
     super(ADYEN_RESPONSES, ADYEN_PAYMENT_METHODS, dataSource);
     // Save space in the database
     objectMapper.setSerializationInclusion(Include.NON_EMPTY);
+
+    if (paymentMethodsCacheMaxSize > 0) {
+      final CacheBuilder<Object, Object> builder =
+          CacheBuilder.newBuilder().maximumSize(paymentMethodsCacheMaxSize).recordStats();
+      if (paymentMethodsCacheTtlSeconds > 0) {
+        builder.expireAfterWrite(paymentMethodsCacheTtlSeconds, TimeUnit.SECONDS);
+      }
+      this.paymentMethodsCache = builder.build();
+    } else {
+      this.paymentMethodsCache = null;
+    }
   }
 
   // Payment methods
@@ -103,6 +156,7 @@ public class AdyenDao
             return null;
           }
         });
+    invalidatePaymentMethod(kbPaymentMethodId, kbTenantId);
   }
 
   public void updateIsDeletePaymentMethod(final UUID kbPaymentMethodId, final UUID kbTenantId)
@@ -125,47 +179,26 @@ public class AdyenDao
             return null;
           }
         });
+    invalidatePaymentMethod(kbPaymentMethodId, kbTenantId);
   }
 
   public void updateRecurringDetailsPaymentMethod(
       final UUID kbPaymentMethodId, final UUID kbTenantId, final String recurringData)
       throws SQLException {
-    execute(
-        dataSource.getConnection(),
-        new WithConnectionCallback<AdyenPaymentMethodsRecord>() {
-          @Override
-          public AdyenPaymentMethodsRecord withConnection(final Connection conn)
-              throws SQLException {
-
-            DSL.using(conn, dialect, settings)
-                .update(ADYEN_PAYMENT_METHODS)
-                .set(ADYEN_PAYMENT_METHODS.RECURRING_DETAIL_REFERENCE, recurringData)
-                .where(
-                    ADYEN_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(kbPaymentMethodId.toString()))
-                .and(ADYEN_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString()))
-                .execute();
-            return null;
-          }
+    inTransaction(
+        unitOfWork -> {
+          unitOfWork.updateRecurringDetailsPaymentMethod(
+              kbPaymentMethodId, kbTenantId, recurringData);
+          return null;
         });
   }
 
   public void updateResponse(UUID kbPaymentId, ProcessorOutputDTO outputDTO, UUID tenantId)
       throws SQLException {
-    execute(
-        dataSource.getConnection(),
-        new WithConnectionCallback<AdyenResponsesRecord>() {
-          @Override
-          public AdyenResponsesRecord withConnection(final Connection conn) throws SQLException {
-
-            DSL.using(conn, dialect, settings)
-                .update(ADYEN_RESPONSES)
-                .set(ADYEN_RESPONSES.PSP_REFERENCE, outputDTO.getPspReferenceCode())
-                .set(ADYEN_RESPONSES.TRANSACTION_STATUS, outputDTO.getStatus().name())
-                .where(ADYEN_RESPONSES.KB_PAYMENT_ID.equal(kbPaymentId.toString()))
-                .and(ADYEN_RESPONSES.KB_TENANT_ID.equal(tenantId.toString()))
-                .execute();
-            return null;
-          }
+    inTransaction(
+        unitOfWork -> {
+          unitOfWork.updateResponse(kbPaymentId, outputDTO, tenantId);
+          return null;
         });
   }
 
@@ -207,58 +240,80 @@ public class AdyenDao
       ProcessorOutputDTO outputDTO,
       UUID tenantId)
       throws SQLException {
+    return addResponse(
+        kbAccountId,
+        kbPaymentId,
+        kbTransactionId,
+        null,
+        transactionType,
+        amount,
+        currency,
+        status,
+        sessionId,
+        outputDTO,
+        tenantId);
+  }
+
+  /**
+   * @param kbPaymentMethodId stored so that notifications can update the payment method without
+   *     loading the payment from Kill Bill
+   */
+  public AdyenResponsesRecord addResponse(
+      UUID kbAccountId,
+      UUID kbPaymentId,
+      UUID kbTransactionId,
+      @Nullable UUID kbPaymentMethodId,
+      TransactionType transactionType,
+      BigDecimal amount,
+      Currency currency,
+      PaymentPluginStatus status,
+      String sessionId,
+      ProcessorOutputDTO outputDTO,
+      UUID tenantId)
+      throws SQLException {
     String tempCurrency = (currency != null) ? currency.name() : null;
 
     final BigDecimal dbAmount = (amount != null) ? new BigDecimal(amount.toString()) : null;
     final String dbCurrency = tempCurrency;
 
+    // RETURNING on PostgreSQL, generated keys on MySQL: no lastID() lookup, no transaction needed
     return execute(
         dataSource.getConnection(),
         conn ->
             DSL.using(conn, dialect, settings)
-                .transactionResult(
-                    configuration -> {
-                      final DSLContext dslContext = DSL.using(conn, dialect, settings);
-                      dslContext
-                          .insertInto(
-                              ADYEN_RESPONSES,
-                              ADYEN_RESPONSES.KB_ACCOUNT_ID,
-                              ADYEN_RESPONSES.KB_PAYMENT_ID,
-                              ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID,
-                              ADYEN_RESPONSES.TRANSACTION_TYPE,
-                              ADYEN_RESPONSES.TRANSACTION_STATUS,
-                              ADYEN_RESPONSES.SESSION_ID,
-                              ADYEN_RESPONSES.REFERENCE,
-                              ADYEN_RESPONSES.AMOUNT,
-                              ADYEN_RESPONSES.CURRENCY,
-                              ADYEN_RESPONSES.ADDITIONAL_DATA,
-                              ADYEN_RESPONSES.CREATED_DATE,
-                              ADYEN_RESPONSES.KB_TENANT_ID)
-                          .values(
-                              kbAccountId.toString(),
-                              kbPaymentId.toString(),
-                              kbTransactionId.toString(),
-                              transactionType.toString(),
-                              status.toString(),
-                              sessionId,
-                              outputDTO.getSecondPaymentReferenceId(),
-                              dbAmount,
-                              dbCurrency,
-                              outputDTO.getAdditionalData() != null
-                                  ? (asString(outputDTO.getAdditionalData()))
-                                  : null,
-                              toLocalDateTime(DateTime.now()),
-                              tenantId.toString())
-                          .execute();
-
-                      return dslContext.fetchOne(
-                          ADYEN_RESPONSES,
-                          ADYEN_RESPONSES.RECORD_ID.eq(
-                              ADYEN_RESPONSES
-                                  .RECORD_ID
-                                  .getDataType()
-                                  .convert(dslContext.lastID())));
-                    }));
+                .insertInto(
+                    ADYEN_RESPONSES,
+                    ADYEN_RESPONSES.KB_ACCOUNT_ID,
+                    ADYEN_RESPONSES.KB_PAYMENT_ID,
+                    ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID,
+                    ADYEN_RESPONSES.TRANSACTION_TYPE,
+                    ADYEN_RESPONSES.TRANSACTION_STATUS,
+                    ADYEN_RESPONSES.SESSION_ID,
+                    ADYEN_RESPONSES.REFERENCE,
+                    ADYEN_RESPONSES.AMOUNT,
+                    ADYEN_RESPONSES.CURRENCY,
+                    ADYEN_RESPONSES.ADDITIONAL_DATA,
+                    ADYEN_RESPONSES.CREATED_DATE,
+                    ADYEN_RESPONSES.KB_TENANT_ID,
+                    ADYEN_RESPONSES.KB_PAYMENT_METHOD_ID)
+                .values(
+                    kbAccountId.toString(),
+                    kbPaymentId.toString(),
+                    kbTransactionId.toString(),
+                    transactionType.toString(),
+                    status.toString(),
+                    sessionId,
+                    outputDTO.getSecondPaymentReferenceId(),
+                    dbAmount,
+                    dbCurrency,
+                    outputDTO.getAdditionalData() != null
+                        ? (asString(outputDTO.getAdditionalData()))
+                        : null,
+                    toLocalDateTime(DateTime.now()),
+                    tenantId.toString(),
+                    kbPaymentMethodId != null ? kbPaymentMethodId.toString() : null)
+                .returning()
+                .fetchOne());
   }
 
   public AdyenNotificationsRecord addNotification(
@@ -268,69 +323,89 @@ public class AdyenDao
       NotificationRequestItem item,
       UUID tenantId)
       throws SQLException {
-    String tempCurrency =
+    return inTransaction(
+        unitOfWork ->
+            unitOfWork.addNotification(kbAccountId, kbPaymentId, kbTransactionId, item, tenantId));
+  }
+
+  /**
+   * Records the notifications of a webhook: each item updates the status of its matching response
+   * and is stored in the notifications table. Both sets of statements are sent as JDBC batches,
+   * on a single connection and in a single transaction.
+   *
+   * @param responses the response matching each item, in the same order as {@code items}
+   */
+  public void addNotifications(
+      final List<AdyenResponsesRecord> responses, final List<NotificationRequestItem> items)
+      throws SQLException {
+    inTransaction(
+        unitOfWork -> {
+          unitOfWork.addNotifications(responses, items);
+          return null;
+        });
+  }
+
+  private InsertReturningStep<AdyenNotificationsRecord> insertNotification(
+      final DSLContext dslContext,
+      final String kbAccountId,
+      final String kbPaymentId,
+      final String kbTransactionId,
+      final NotificationRequestItem item,
+      final String tenantId) {
+    final String dbCurrency =
         (item.getAmount().getCurrency() != null)
             ? Currency.fromCode(item.getAmount().getCurrency()).toString()
             : null;
-
     final BigDecimal dbAmount =
-        (item.getAmount().getDecimalValue() != null)
-            ? new BigDecimal(item.getAmount().getDecimalValue().toString())
+        (item.getAmount().getValue() != null)
+            ? AdyenMinorUnits.fromMinorUnits(
+                item.getAmount().getValue(), item.getAmount().getCurrency())
             : null;
-    final String dbCurrency = tempCurrency;
-    Short success = (short) (item.isSuccess() ? 1 : 0);
-    return execute(
-        dataSource.getConnection(),
-        conn ->
-            DSL.using(conn, dialect, settings)
-                .transactionResult(
-                    configuration -> {
-                      final DSLContext dslContext = DSL.using(conn, dialect, settings);
-                      dslContext
-                          .insertInto(
-                              ADYEN_NOTIFICATIONS,
-                              ADYEN_NOTIFICATIONS.KB_ACCOUNT_ID,
-                              ADYEN_NOTIFICATIONS.KB_PAYMENT_ID,
-                              ADYEN_NOTIFICATIONS.KB_PAYMENT_TRANSACTION_ID,
-                              ADYEN_NOTIFICATIONS.SUCCESS,
-                              ADYEN_NOTIFICATIONS.EVENT_CODE,
-                              ADYEN_NOTIFICATIONS.MERCHANT_ACCOUNT_CODE,
-                              ADYEN_NOTIFICATIONS.MERCHANT_REFERENCE,
-                              ADYEN_NOTIFICATIONS.ORIGINAL_REFERENCE,
-                              ADYEN_NOTIFICATIONS.REASON,
-                              ADYEN_NOTIFICATIONS.PSP_REFERENCE,
-                              ADYEN_NOTIFICATIONS.AMOUNT,
-                              ADYEN_NOTIFICATIONS.CURRENCY,
-                              ADYEN_NOTIFICATIONS.CREATED_DATE,
-                              ADYEN_NOTIFICATIONS.ADDITIONAL_DATA,
-                              ADYEN_NOTIFICATIONS.KB_TENANT_ID)
-                          .values(
-                              kbAccountId.toString(),
-                              kbPaymentId.toString(),
-                              kbTransactionId.toString(),
-                              success,
-                              item.getEventCode(),
-                              item.getMerchantAccountCode(),
-                              item.getMerchantReference(),
-                              item.getOriginalReference(),
-                              item.getReason(),
-                              item.getPspReference(),
-                              dbAmount,
-                              dbCurrency,
-                              toLocalDateTime(DateTime.now()),
-                              item.getAdditionalData() != null
-                                  ? (asString(item.getAdditionalData()))
-                                  : null,
-                              tenantId.toString())
-                          .execute();
-                      return dslContext.fetchOne(
-                          ADYEN_NOTIFICATIONS,
-                          ADYEN_NOTIFICATIONS.RECORD_ID.eq(
-                              ADYEN_RESPONSES
-                                  .RECORD_ID
-                                  .getDataType()
-                                  .convert(dslContext.lastID())));
-                    }));
+    final Short success = (short) (item.isSuccess() ? 1 : 0);
+
+    return dslContext
+        .insertInto(
+            ADYEN_NOTIFICATIONS,
+            ADYEN_NOTIFICATIONS.KB_ACCOUNT_ID,
+            ADYEN_NOTIFICATIONS.KB_PAYMENT_ID,
+            ADYEN_NOTIFICATIONS.KB_PAYMENT_TRANSACTION_ID,
+            ADYEN_NOTIFICATIONS.SUCCESS,
+            ADYEN_NOTIFICATIONS.EVENT_CODE,
+            ADYEN_NOTIFICATIONS.MERCHANT_ACCOUNT_CODE,
+            ADYEN_NOTIFICATIONS.MERCHANT_REFERENCE,
+            ADYEN_NOTIFICATIONS.ORIGINAL_REFERENCE,
+            ADYEN_NOTIFICATIONS.REASON,
+            ADYEN_NOTIFICATIONS.PSP_REFERENCE,
+            ADYEN_NOTIFICATIONS.AMOUNT,
+            ADYEN_NOTIFICATIONS.CURRENCY,
+            ADYEN_NOTIFICATIONS.CREATED_DATE,
+            ADYEN_NOTIFICATIONS.ADDITIONAL_DATA,
+            ADYEN_NOTIFICATIONS.KB_TENANT_ID)
+        .values(
+            kbAccountId,
+            kbPaymentId,
+            kbTransactionId,
+            success,
+            item.getEventCode(),
+            item.getMerchantAccountCode(),
+            item.getMerchantReference(),
+            item.getOriginalReference(),
+            item.getReason(),
+            item.getPspReference(),
+            dbAmount,
+            dbCurrency,
+            toLocalDateTime(DateTime.now()),
+            item.getAdditionalData() != null ? (asString(item.getAdditionalData())) : null,
+            tenantId);
+  }
+
+  /**
+   * Identifies a notification item across Adyen redeliveries, see {@link
+   * UnitOfWork#getNotificationKeys}.
+   */
+  public static String notificationKey(
+      final String pspReference, @Nullable final String eventCode, final boolean success) {
+    return pspReference + ":" + eventCode + ":" + success;
   }
 
   public AdyenResponsesRecord getSuccessfulPurchaseResponse(
@@ -358,16 +433,78 @@ public class AdyenDao
         new WithConnectionCallback<AdyenResponsesRecord>() {
           @Override
           public AdyenResponsesRecord withConnection(final Connection conn) throws SQLException {
-            return DSL.using(conn, dialect, settings)
-                .selectFrom(ADYEN_RESPONSES)
-                .where(
-                    DSL.field(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID).equal(merchantReference))
-                .orderBy(ADYEN_RESPONSES.RECORD_ID)
-                .fetchOne();
+            return new UnitOfWork(DSL.using(conn, dialect, settings), new HashSet<>())
+                .getResponseFromMerchantReference(merchantReference);
           }
         });
   }
 
+  /**
+   * Batched version of {@link #getResponseFromMerchantReference}: returns the first response for
+   * each merchant reference that has one.
+   */
+  public Map<String, AdyenResponsesRecord> getResponsesFromMerchantReferences(
+      final Collection<String> merchantReferences) throws SQLException {
+    if (merchantReferences.isEmpty()) {
+      return ImmutableMap.of();
+    }
+
+    return execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<Map<String, AdyenResponsesRecord>>() {
+          @Override
+          public Map<String, AdyenResponsesRecord> withConnection(final Connection conn)
+              throws SQLException {
+            return new UnitOfWork(DSL.using(conn, dialect, settings), new HashSet<>())
+                .getResponsesFromMerchantReferences(merchantReferences);
+          }
+        });
+  }
+
+  /**
+   * Cached version of the parent lookup, for payment methods charged again and again (e.g. by
+   * billing runs). Entries are invalidated by the writes of this DAO; missing payment methods are
+   * not cached.
+   */
+  @Override
+  public AdyenPaymentMethodsRecord getPaymentMethod(
+      final UUID kbPaymentMethodId, final UUID kbTenantId) throws SQLException {
+    if (paymentMethodsCache == null) {
+      return super.getPaymentMethod(kbPaymentMethodId, kbTenantId);
+    }
+
+    final String key = paymentMethodKey(kbPaymentMethodId, kbTenantId);
+    AdyenPaymentMethodsRecord record = paymentMethodsCache.getIfPresent(key);
+    if (record == null) {
+      record = super.getPaymentMethod(kbPaymentMethodId, kbTenantId);
+      if (record != null) {
+        paymentMethodsCache.put(key, record);
+      }
+    }
+    // Records are mutable: callers get their own copy
+    return record != null ? record.into(ADYEN_PAYMENT_METHODS) : null;
+  }
+
+  public CacheStats getPaymentMethodsCacheStats() {
+    return paymentMethodsCache != null
+        ? paymentMethodsCache.stats()
+        : new CacheStats(0, 0, 0, 0, 0, 0);
+  }
+
+  public long getPaymentMethodsCacheSize() {
+    return paymentMethodsCache != null ? paymentMethodsCache.size() : 0;
+  }
+
+  private void invalidatePaymentMethod(final UUID kbPaymentMethodId, final UUID kbTenantId) {
+    if (paymentMethodsCache != null) {
+      paymentMethodsCache.invalidate(paymentMethodKey(kbPaymentMethodId, kbTenantId));
+    }
+  }
+
+  private static String paymentMethodKey(final UUID kbPaymentMethodId, final UUID kbTenantId) {
+    return kbTenantId + "/" + kbPaymentMethodId;
+  }
+
   public AdyenPaymentMethodsRecord getPaymentMethod(final String kbPaymentMethodId)
       throws SQLException {
     return execute(
@@ -403,6 +540,523 @@ public class AdyenDao
         });
   }
 
+  // Unit of work
+
+  /**
+   * Runs {@code callback} on a single connection and in a single transaction: the operations of
+   * the {@link UnitOfWork} it receives are committed together, or rolled back together if the
+   * callback throws.
+   */
+  public <T, E extends Exception> T inTransaction(final UnitOfWorkCallback<T, E> callback)
+      throws SQLException, E {
+    final Set<String> updatedPaymentMethods = new HashSet<>();
+    try {
+      return execute(
+          dataSource.getConnection(),
+          conn ->
+              DSL.using(conn, dialect, settings)
+                  .transactionResult(
+                      configuration -> {
+                        try {
+                          return callback.doInTransaction(
+                              new UnitOfWork(DSL.using(configuration), updatedPaymentMethods));
+                        } catch (final RuntimeException e) {
+                          throw e;
+                        } catch (final Exception e) {
+                          // jOOQ would wrap it in a DataAccessException
+                          throw new UnitOfWorkException(e);
+                        }
+                      }));
+    } catch (final UnitOfWorkException e) {
+      throw e.<E>unwrap();
+    } finally {
+      // Once committed, so that a concurrent read cannot cache the previous version again
+      if (paymentMethodsCache != null) {
+        paymentMethodsCache.invalidateAll(updatedPaymentMethods);
+      }
+    }
+  }
+
+  @FunctionalInterface
+  public interface UnitOfWorkCallback<T, E extends Exception> {
+
+    T doInTransaction(UnitOfWork unitOfWork) throws E;
+  }
+
+  /** DAO operations bound to the connection (and transaction) of {@link #inTransaction}. */
+  public final class UnitOfWork {
+
+    private final DSLContext dslContext;
+    private final Set<String> updatedPaymentMethods;
+
+    private UnitOfWork(final DSLContext dslContext, final Set<String> updatedPaymentMethods) {
+      this.dslContext = dslContext;
+      this.updatedPaymentMethods = updatedPaymentMethods;
+    }
+
+    public AdyenResponsesRecord getResponseFromMerchantReference(final String merchantReference) {
+      return dslContext
+          .selectFrom(ADYEN_RESPONSES)
+          .where(DSL.field(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID).equal(merchantReference))
+          .orderBy(ADYEN_RESPONSES.RECORD_ID)
+          .fetchOne();
+    }
+
+    /** Returns the first response for each merchant reference that has one. */
+    public Map<String, AdyenResponsesRecord> getResponsesFromMerchantReferences(
+        final Collection<String> merchantReferences) {
+      if (merchantReferences.isEmpty()) {
+        return ImmutableMap.of();
+      }
+
+      final Map<String, AdyenResponsesRecord> responses = new HashMap<>();
+      for (final AdyenResponsesRecord response :
+          dslContext
+              .selectFrom(ADYEN_RESPONSES)
+              .where(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID.in(merchantReferences))
+              .orderBy(ADYEN_RESPONSES.RECORD_ID)
+              .fetch()) {
+        responses.putIfAbsent(response.getKbPaymentTransactionId(), response);
+      }
+      return responses;
+    }
+
+    public void updateResponse(
+        final UUID kbPaymentId, final ProcessorOutputDTO outputDTO, final UUID tenantId) {
+      dslContext
+          .update(ADYEN_RESPONSES)
+          .set(ADYEN_RESPONSES.PSP_REFERENCE, outputDTO.getPspReferenceCode())
+          .set(ADYEN_RESPONSES.TRANSACTION_STATUS, outputDTO.getStatus().name())
+          .where(ADYEN_RESPONSES.KB_PAYMENT_ID.equal(kbPaymentId.toString()))
+          .and(ADYEN_RESPONSES.KB_TENANT_ID.equal(tenantId.toString()))
+          .execute();
+    }
+
+    public AdyenNotificationsRecord addNotification(
+        final UUID kbAccountId,
+        final UUID kbPaymentId,
+        final UUID kbTransactionId,
+        final NotificationRequestItem item,
+        final UUID tenantId) {
+      return insertNotification(
+              dslContext,
+              kbAccountId.toString(),
+              kbPaymentId.toString(),
+              kbTransactionId.toString(),
+              item,
+              tenantId.toString())
+          .returning()
+          .fetchOne();
+    }
+
+    /**
+     * Updates the status of the response matching each item and stores the items in the
+     * notifications table, as two JDBC batches.
+     *
+     * @param responses the response matching each item, in the same order as {@code items}
+     */
+    public void addNotifications(
+        final List<AdyenResponsesRecord> responses, final List<NotificationRequestItem> items) {
+      final List<Query> updates = new ArrayList<>(items.size());
+      final List<Query> inserts = new ArrayList<>(items.size());
+      for (int i = 0; i < items.size(); i++) {
+        final AdyenResponsesRecord response = responses.get(i);
+        final NotificationRequestItem item = items.get(i);
+        updates.add(
+            dslContext
+                .update(ADYEN_RESPONSES)
+                .set(ADYEN_RESPONSES.PSP_REFERENCE, item.getPspReference())
+                .set(
+                    ADYEN_RESPONSES.TRANSACTION_STATUS,
+                    item.isSuccess()
+                        ? PaymentPluginStatus.PROCESSED.name()
+                        : PaymentPluginStatus.ERROR.name())
+                .where(ADYEN_RESPONSES.KB_PAYMENT_ID.equal(response.getKbPaymentId()))
+                .and(ADYEN_RESPONSES.KB_TENANT_ID.equal(response.getKbTenantId())));
+        inserts.add(
+            insertNotification(
+                dslContext,
+                response.getKbAccountId(),
+                response.getKbPaymentId(),
+                response.getKbPaymentTransactionId(),
+                item,
+                response.getKbTenantId()));
+      }
+      dslContext.batch(updates).execute();
+      dslContext.batch(inserts).execute();
+    }
+
+    /**
+     * Returns the {@link #notificationKey keys} of the notifications already stored for these PSP
+     * references.
+     */
+    public Set<String> getNotificationKeys(final Collection<String> pspReferences) {
+      if (pspReferences.isEmpty()) {
+        return ImmutableSet.of();
+      }
+
+      final Set<String> keys = new HashSet<>();
+      for (final Record3<String, String, Short> record :
+          dslContext
+              .selectDistinct(
+                  ADYEN_NOTIFICATIONS.PSP_REFERENCE,
+                  ADYEN_NOTIFICATIONS.EVENT_CODE,
+                  ADYEN_NOTIFICATIONS.SUCCESS)
+              .from(ADYEN_NOTIFICATIONS)
+              .where(ADYEN_NOTIFICATIONS.PSP_REFERENCE.in(pspReferences))
+              .fetch()) {
+        keys.add(notificationKey(record.value1(), record.value2(), record.value3() == 1));
+      }
+      return keys;
+    }
+
+    public void updateRecurringDetailsPaymentMethod(
+        final UUID kbPaymentMethodId, final UUID kbTenantId, final String recurringData) {
+      dslContext
+          .update(ADYEN_PAYMENT_METHODS)
+          .set(ADYEN_PAYMENT_METHODS.RECURRING_DETAIL_REFERENCE, recurringData)
+          .where(ADYEN_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(kbPaymentMethodId.toString()))
+          .and(ADYEN_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString()))
+          .execute();
+      updatedPaymentMethods.add(paymentMethodKey(kbPaymentMethodId, kbTenantId));
+    }
+  }
+
+  // Carries checked exceptions thrown by a unit of work callback through jOOQ
+  private static final class UnitOfWorkException extends RuntimeException {
+
+    private UnitOfWorkException(final Exception cause) {
+      super(cause);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends Exception> E unwrap() {
+      return (E) getCause();
+    }
+  }
+
+  // Notification inbox
+
+  public void enqueueNotification(final String notification, final DateTime utcNow)
+      throws SQLException {
+    final LocalDateTime now = toLocalDateTime(utcNow);
+    execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<Void>() {
+          @Override
+          public Void withConnection(final Connection conn) throws SQLException {
+            DSL.using(conn, dialect, settings)
+                .insertInto(
+                    ADYEN_NOTIFICATIONS_INBOX,
+                    ADYEN_NOTIFICATIONS_INBOX.NOTIFICATION,
+                    ADYEN_NOTIFICATIONS_INBOX.STATUS,
+                    ADYEN_NOTIFICATIONS_INBOX.ATTEMPTS,
+                    ADYEN_NOTIFICATIONS_INBOX.NEXT_ATTEMPT_DATE,
+                    ADYEN_NOTIFICATIONS_INBOX.CREATED_DATE,
+                    ADYEN_NOTIFICATIONS_INBOX.UPDATED_DATE)
+                .values(notification, INBOX_PENDING, 0, now, now, now)
+                .execute();
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Claims up to {@code limit} due entries for processing. A row is only returned if this caller
+   * moved it out of {@link #INBOX_PENDING}, so several workers (or nodes) can poll concurrently.
+   */
+  public List<AdyenNotificationsInboxRecord> claimNotifications(
+      final int limit, final DateTime utcNow) throws SQLException {
+    final LocalDateTime now = toLocalDateTime(utcNow);
+    return execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<List<AdyenNotificationsInboxRecord>>() {
+          @Override
+          public List<AdyenNotificationsInboxRecord> withConnection(final Connection conn)
+              throws SQLException {
+            final DSLContext dslContext = DSL.using(conn, dialect, settings);
+            final List<AdyenNotificationsInboxRecord> candidates =
+                dslContext
+                    .selectFrom(ADYEN_NOTIFICATIONS_INBOX)
+                    .where(ADYEN_NOTIFICATIONS_INBOX.STATUS.equal(INBOX_PENDING))
+                    .and(ADYEN_NOTIFICATIONS_INBOX.NEXT_ATTEMPT_DATE.lessOrEqual(now))
+                    .orderBy(ADYEN_NOTIFICATIONS_INBOX.RECORD_ID)
+                    .limit(limit)
+                    .fetch();
+
+            final List<AdyenNotificationsInboxRecord> claimed = new ArrayList<>(candidates.size());
+            for (final AdyenNotificationsInboxRecord candidate : candidates) {
+              final int updated =
+                  dslContext
+                      .update(ADYEN_NOTIFICATIONS_INBOX)
+                      .set(ADYEN_NOTIFICATIONS_INBOX.STATUS, INBOX_PROCESSING)
+                      .set(ADYEN_NOTIFICATIONS_INBOX.ATTEMPTS, candidate.getAttempts() + 1)
+                      .set(ADYEN_NOTIFICATIONS_INBOX.UPDATED_DATE, now)
+                      .where(ADYEN_NOTIFICATIONS_INBOX.RECORD_ID.equal(candidate.getRecordId()))
+                      .and(ADYEN_NOTIFICATIONS_INBOX.STATUS.equal(INBOX_PENDING))
+                      .execute();
+              if (updated == 1) {
+                candidate.setStatus(INBOX_PROCESSING);
+                candidate.setAttempts(candidate.getAttempts() + 1);
+                claimed.add(candidate);
+              }
+            }
+            return claimed;
+          }
+        });
+  }
+
+  public void deleteNotificationFromInbox(final ULong recordId) throws SQLException {
+    execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<Void>() {
+          @Override
+          public Void withConnection(final Connection conn) throws SQLException {
+            DSL.using(conn, dialect, settings)
+                .deleteFrom(ADYEN_NOTIFICATIONS_INBOX)
+                .where(ADYEN_NOTIFICATIONS_INBOX.RECORD_ID.equal(recordId))
+                .execute();
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Releases a claimed entry: it goes back to {@link #INBOX_PENDING} until {@code nextAttempt}, or
+   * to {@link #INBOX_FAILED} if {@code nextAttempt} is null.
+   */
+  public void releaseNotification(
+      final ULong recordId,
+      final String error,
+      final DateTime utcNow,
+      @Nullable final DateTime nextAttempt)
+      throws SQLException {
+    final LocalDateTime now = toLocalDateTime(utcNow);
+    execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<Void>() {
+          @Override
+          public Void withConnection(final Connection conn) throws SQLException {
+            DSL.using(conn, dialect, settings)
+                .update(ADYEN_NOTIFICATIONS_INBOX)
+                .set(
+                    ADYEN_NOTIFICATIONS_INBOX.STATUS,
+                    nextAttempt != null ? INBOX_PENDING : INBOX_FAILED)
+                .set(
+                    ADYEN_NOTIFICATIONS_INBOX.NEXT_ATTEMPT_DATE,
+                    nextAttempt != null ? toLocalDateTime(nextAttempt) : now)
+                .set(ADYEN_NOTIFICATIONS_INBOX.LAST_ERROR, error)
+                .set(ADYEN_NOTIFICATIONS_INBOX.UPDATED_DATE, now)
+                .where(ADYEN_NOTIFICATIONS_INBOX.RECORD_ID.equal(recordId))
+                .execute();
+            return null;
+          }
+        });
+  }
+
+  /** Puts back entries claimed before {@code claimedBefore}, e.g. by a node that went away. */
+  public int releaseStaleNotifications(final DateTime utcNow, final DateTime claimedBefore)
+      throws SQLException {
+    final LocalDateTime now = toLocalDateTime(utcNow);
+    return execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<Integer>() {
+          @Override
+          public Integer withConnection(final Connection conn) throws SQLException {
+            return DSL.using(conn, dialect, settings)
+                .update(ADYEN_NOTIFICATIONS_INBOX)
+                .set(ADYEN_NOTIFICATIONS_INBOX.STATUS, INBOX_PENDING)
+                .set(ADYEN_NOTIFICATIONS_INBOX.UPDATED_DATE, now)
+                .where(ADYEN_NOTIFICATIONS_INBOX.STATUS.equal(INBOX_PROCESSING))
+                .and(
+                    ADYEN_NOTIFICATIONS_INBOX.UPDATED_DATE.lessThan(
+                        toLocalDateTime(claimedBefore)))
+                .execute();
+          }
+        });
+  }
+
+  /** Returns the number of unprocessed entries and the creation date of the oldest one. */
+  public Record2<Integer, LocalDateTime> getNotificationInboxStats() throws SQLException {
+    return execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<Record2<Integer, LocalDateTime>>() {
+          @Override
+          public Record2<Integer, LocalDateTime> withConnection(final Connection conn)
+              throws SQLException {
+            return DSL.using(conn, dialect, settings)
+                .select(DSL.count(), DSL.min(ADYEN_NOTIFICATIONS_INBOX.CREATED_DATE))
+                .from(ADYEN_NOTIFICATIONS_INBOX)
+                .where(ADYEN_NOTIFICATIONS_INBOX.STATUS.in(INBOX_PENDING, INBOX_PROCESSING))
+                .fetchOne();
+          }
+        });
+  }
+
+  // Tenants
+
+  /**
+   * Returns the tenants with a configuration for this plugin in Kill Bill's {@code tenant_kvs}
+   * table, along with the tenants which already have responses or payment methods (the only ones
+   * found when the plugin tables live in their own database).
+   */
+  public Set<UUID> getKnownTenantIds(final String pluginName) throws SQLException {
+    return execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<Set<UUID>>() {
+          @Override
+          public Set<UUID> withConnection(final Connection conn) throws SQLException {
+            final DSLContext dslContext = DSL.using(conn, dialect, settings);
+            final Set<UUID> kbTenantIds = new HashSet<>();
+            for (final String kbTenantId :
+                dslContext
+                    .selectDistinct(ADYEN_RESPONSES.KB_TENANT_ID)
+                    .from(ADYEN_RESPONSES)
+                    .union(
+                        dslContext
+                            .selectDistinct(ADYEN_PAYMENT_METHODS.KB_TENANT_ID)
+                            .from(ADYEN_PAYMENT_METHODS))
+                    .fetch(0, String.class)) {
+              kbTenantIds.add(UUID.fromString(kbTenantId));
+            }
+
+            try {
+              for (final String kbTenantId :
+                  dslContext
+                      .resultQuery(
+                          "select t.id from tenants t"
+                              + " join tenant_kvs k on k.tenant_record_id = t.record_id"
+                              + " where k.tenant_key = ? and k.is_active = ?",
+                          "PLUGIN_CONFIG_" + pluginName,
+                          true)
+                      .fetch(0, String.class)) {
+                kbTenantIds.add(UUID.fromString(kbTenantId));
+              }
+            } catch (final DataAccessException e) {
+              // Kill Bill tables not in this database
+            }
+            return kbTenantIds;
+          }
+        });
+  }
+
+  // Parked notifications
+
+  /**
+   * Stores a notification whose payment is not known (yet) in the inbox table, as {@link
+   * #INBOX_PARKED}, to be matched again from {@code nextAttempt}.
+   */
+  public void parkNotification(
+      final String notification, final DateTime utcNow, final DateTime nextAttempt)
+      throws SQLException {
+    final LocalDateTime now = toLocalDateTime(utcNow);
+    execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<Void>() {
+          @Override
+          public Void withConnection(final Connection conn) throws SQLException {
+            DSL.using(conn, dialect, settings)
+                .insertInto(
+                    ADYEN_NOTIFICATIONS_INBOX,
+                    ADYEN_NOTIFICATIONS_INBOX.NOTIFICATION,
+                    ADYEN_NOTIFICATIONS_INBOX.STATUS,
+                    ADYEN_NOTIFICATIONS_INBOX.ATTEMPTS,
+                    ADYEN_NOTIFICATIONS_INBOX.NEXT_ATTEMPT_DATE,
+                    ADYEN_NOTIFICATIONS_INBOX.CREATED_DATE,
+                    ADYEN_NOTIFICATIONS_INBOX.UPDATED_DATE)
+                .values(notification, INBOX_PARKED, 0, toLocalDateTime(nextAttempt), now, now)
+                .execute();
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Claims up to {@code limit} due parked notifications. Claimed entries stay parked but are not
+   * due again before {@code leaseUntil}, so that those of a node which went away are retried.
+   */
+  public List<AdyenNotificationsInboxRecord> claimParkedNotifications(
+      final int limit, final DateTime utcNow, final DateTime leaseUntil) throws SQLException {
+    final LocalDateTime now = toLocalDateTime(utcNow);
+    final LocalDateTime lease = toLocalDateTime(leaseUntil);
+    return execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<List<AdyenNotificationsInboxRecord>>() {
+          @Override
+          public List<AdyenNotificationsInboxRecord> withConnection(final Connection conn)
+              throws SQLException {
+            final DSLContext dslContext = DSL.using(conn, dialect, settings);
+            final List<AdyenNotificationsInboxRecord> candidates =
+                dslContext
+                    .selectFrom(ADYEN_NOTIFICATIONS_INBOX)
+                    .where(ADYEN_NOTIFICATIONS_INBOX.STATUS.equal(INBOX_PARKED))
+                    .and(ADYEN_NOTIFICATIONS_INBOX.NEXT_ATTEMPT_DATE.lessOrEqual(now))
+                    .orderBy(ADYEN_NOTIFICATIONS_INBOX.RECORD_ID)
+                    .limit(limit)
+                    .fetch();
+
+            final List<AdyenNotificationsInboxRecord> claimed = new ArrayList<>(candidates.size());
+            for (final AdyenNotificationsInboxRecord candidate : candidates) {
+              final int updated =
+                  dslContext
+                      .update(ADYEN_NOTIFICATIONS_INBOX)
+                      .set(ADYEN_NOTIFICATIONS_INBOX.NEXT_ATTEMPT_DATE, lease)
+                      .set(ADYEN_NOTIFICATIONS_INBOX.ATTEMPTS, candidate.getAttempts() + 1)
+                      .set(ADYEN_NOTIFICATIONS_INBOX.UPDATED_DATE, now)
+                      .where(ADYEN_NOTIFICATIONS_INBOX.RECORD_ID.equal(candidate.getRecordId()))
+                      .and(
+                          ADYEN_NOTIFICATIONS_INBOX.NEXT_ATTEMPT_DATE.equal(
+                              candidate.getNextAttemptDate()))
+                      .execute();
+              if (updated == 1) {
+                candidate.setAttempts(candidate.getAttempts() + 1);
+                claimed.add(candidate);
+              }
+            }
+            return claimed;
+          }
+        });
+  }
+
+  public void rescheduleParkedNotification(
+      final ULong recordId,
+      @Nullable final String error,
+      final DateTime utcNow,
+      final DateTime nextAttempt)
+      throws SQLException {
+    final LocalDateTime now = toLocalDateTime(utcNow);
+    execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<Void>() {
+          @Override
+          public Void withConnection(final Connection conn) throws SQLException {
+            DSL.using(conn, dialect, settings)
+                .update(ADYEN_NOTIFICATIONS_INBOX)
+                .set(ADYEN_NOTIFICATIONS_INBOX.NEXT_ATTEMPT_DATE, toLocalDateTime(nextAttempt))
+                .set(ADYEN_NOTIFICATIONS_INBOX.LAST_ERROR, error)
+                .set(ADYEN_NOTIFICATIONS_INBOX.UPDATED_DATE, now)
+                .where(ADYEN_NOTIFICATIONS_INBOX.RECORD_ID.equal(recordId))
+                .execute();
+            return null;
+          }
+        });
+  }
+
+  public int countParkedNotifications() throws SQLException {
+    return execute(
+        dataSource.getConnection(),
+        new WithConnectionCallback<Integer>() {
+          @Override
+          public Integer withConnection(final Connection conn) throws SQLException {
+            return DSL.using(conn, dialect, settings)
+                .selectCount()
+                .from(ADYEN_NOTIFICATIONS_INBOX)
+                .where(ADYEN_NOTIFICATIONS_INBOX.STATUS.equal(INBOX_PARKED))
+                .fetchOne(0, Integer.class);
+          }
+        });
+  }
+
   @SuppressWarnings("rawtypes")
   public static Map mapFromAdditionalDataString(@Nullable final String additionalData) {
     if (additionalData == null) {
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.dao;
+
+import com.google.common.collect.ImmutableList;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Brings existing schemas up to date with {@code ddl.sql} when the plugin starts.
+ *
+ * <p>Applied versions are recorded in {@code adyen_schema_migrations}. Each step checks the
+ * database metadata before changing anything, so a migration interrupted half-way (MySQL does not
+ * roll back DDL) or run concurrently by another node can safely be run again.
+ */
+public class AdyenSchemaMigrator {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenSchemaMigrator.class);
+
+  public static final String MIGRATIONS_TABLE = "adyen_schema_migrations";
+
+  private static final List<Migration> MIGRATIONS =
+      ImmutableList.of(
+          new Migration(
+              1,
+              "Composite tenant-aware indexes",
+              // getSuccessfulPurchaseResponse(List): filter on both ids, ordered by record_id
+              new CreateIndex(
+                  "adyen_responses",
+                  "adyen_responses_kb_payment_id_kb_tenant_id_record_id",
+                  "kb_payment_id",
+                  "kb_tenant_id",
+                  "record_id"),
+              // Payment methods listing
+              new CreateIndex(
+                  "adyen_payment_methods",
+                  "adyen_payment_methods_kb_account_id_kb_tenant_id",
+                  "kb_account_id",
+                  "kb_tenant_id"),
+              // Notification deduplication
+              new CreateIndex(
+                  "adyen_notifications",
+                  "adyen_notifications_psp_reference_event_code",
+                  "psp_reference",
+                  "event_code")),
+          new Migration(
+              2,
+              "Payment method id on responses",
+              // Read by notifications instead of loading the payment from Kill Bill
+              new AddColumn("adyen_responses", "kb_payment_method_id", "char(36) default null"),
+              new BackfillPaymentMethodIds()),
+          new Migration(
+              3,
+              "Notification inbox",
+              // Used by the notification inbox and to park notifications
+              new CreateTable(
+                  "adyen_notifications_inbox",
+                  "record_id serial"
+                      + ", notification longtext not null"
+                      + ", status varchar(32) not null"
+                      + ", attempts integer not null default 0"
+                      + ", next_attempt_date datetime not null"
+                      + ", last_error text"
+                      + ", created_date datetime not null"
+                      + ", updated_date datetime not null"
+                      + ", primary key(record_id)"),
+              new CreateIndex(
+                  "adyen_notifications_inbox",
+                  "adyen_notifications_inbox_status_next_attempt_date",
+                  "status",
+                  "next_attempt_date")));
+
+  private final DataSource dataSource;
+
+  public AdyenSchemaMigrator(final DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  /** Applies the pending migrations and returns how many were applied. */
+  public int migrate() throws SQLException {
+    try (final Connection connection = dataSource.getConnection()) {
+      try (final Statement statement = connection.createStatement()) {
+        statement.execute(
+            "create table if not exists "
+                + MIGRATIONS_TABLE
+                + " (version integer not null, description varchar(255) not null,"
+                + " installed_date datetime not null, primary key(version))");
+      }
+
+      final Set<Integer> appliedVersions = getAppliedVersions(connection);
+      int applied = 0;
+      for (final Migration migration : MIGRATIONS) {
+        if (appliedVersions.contains(migration.version)) {
+          continue;
+        }
+        logger.info(
+            "[Adyen] Applying schema migration {}: {}", migration.version, migration.description);
+        for (final Step step : migration.steps) {
+          if (step.isApplied(connection)) {
+            continue;
+          }
+          try {
+            step.apply(connection);
+          } catch (final SQLException e) {
+            // Lost a race against another node?
+            if (!step.isApplied(connection)) {
+              throw e;
+            }
+          }
+        }
+        if (record(connection, migration)) {
+          applied++;
+        }
+      }
+      return applied;
+    }
+  }
+
+  private static Set<Integer> getAppliedVersions(final Connection connection)
+      throws SQLException {
+    final Set<Integer> versions = new HashSet<>();
+    try (final Statement statement = connection.createStatement();
+        final ResultSet resultSet =
+            statement.executeQuery("select version from " + MIGRATIONS_TABLE)) {
+      while (resultSet.next()) {
+        versions.add(resultSet.getInt(1));
+      }
+    }
+    return versions;
+  }
+
+  private static boolean record(final Connection connection, final Migration migration)
+      throws SQLException {
+    try (final PreparedStatement statement =
+        connection.prepareStatement(
+            "insert into "
+                + MIGRATIONS_TABLE
+                + " (version, description, installed_date) values (?, ?, ?)")) {
+      statement.setInt(1, migration.version);
+      statement.setString(2, migration.description);
+      statement.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now(ZoneOffset.UTC)));
+      statement.executeUpdate();
+      return true;
+    } catch (final SQLException e) {
+      if (getAppliedVersions(connection).contains(migration.version)) {
+        // Recorded concurrently by another node
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  // Identifiers are stored lower-case by MySQL and PostgreSQL, upper-case by H2
+  private static String toStoredCase(final DatabaseMetaData metaData, final String identifier)
+      throws SQLException {
+    return metaData.storesUpperCaseIdentifiers() ? identifier.toUpperCase() : identifier;
+  }
+
+  private static final class Migration {
+
+    private final int version;
+    private final String description;
+    private final List<Step> steps;
+
+    private Migration(final int version, final String description, final Step... steps) {
+      this.version = version;
+      this.description = description;
+      this.steps = ImmutableList.copyOf(steps);
+    }
+  }
+
+  private interface Step {
+
+    boolean isApplied(Connection connection) throws SQLException;
+
+    void apply(Connection connection) throws SQLException;
+  }
+
+  private static final class CreateTable implements Step {
+
+    private final String table;
+    private final String definition;
+
+    private CreateTable(final String table, final String definition) {
+      this.table = table;
+      this.definition = definition;
+    }
+
+    @Override
+    public boolean isApplied(final Connection connection) throws SQLException {
+      final DatabaseMetaData metaData = connection.getMetaData();
+      try (final ResultSet tables =
+          metaData.getTables(
+              connection.getCatalog(),
+              connection.getSchema(),
+              toStoredCase(metaData, table),
+              null)) {
+        return tables.next();
+      }
+    }
+
+    @Override
+    public void apply(final Connection connection) throws SQLException {
+      try (final Statement statement = connection.createStatement()) {
+        // Same character set as ddl.sql on MySQL, a comment elsewhere
+        statement.execute(
+            "create table "
+                + table
+                + " ("
+                + definition
+                + ") /*! CHARACTER SET utf8 COLLATE utf8_bin */");
+      }
+    }
+  }
+
+  private static final class AddColumn implements Step {
+
+    private final String table;
+    private final String column;
+    private final String definition;
+
+    private AddColumn(final String table, final String column, final String definition) {
+      this.table = table;
+      this.column = column;
+      this.definition = definition;
+    }
+
+    @Override
+    public boolean isApplied(final Connection connection) throws SQLException {
+      return columnExists(connection, table, column);
+    }
+
+    @Override
+    public void apply(final Connection connection) throws SQLException {
+      try (final Statement statement = connection.createStatement()) {
+        statement.execute("alter table " + table + " add column " + column + " " + definition);
+      }
+    }
+  }
+
+  /**
+   * Copies the payment method of existing responses from the Kill Bill {@code payments} table, in
+   * chunks of record ids so as not to lock the whole table. Skipped when the plugin tables live in
+   * their own database: notifications then load the payment from Kill Bill for these responses.
+   */
+  private static final class BackfillPaymentMethodIds implements Step {
+
+    private static final int CHUNK_SIZE = 10000;
+
+    @Override
+    public boolean isApplied(final Connection connection) throws SQLException {
+      if (!columnExists(connection, "payments", "payment_method_id")) {
+        logger.warn(
+            "[Adyen] Kill Bill payments table not found, not backfilling kb_payment_method_id");
+        return true;
+      }
+      // Idempotent: only rows still missing it are updated
+      return false;
+    }
+
+    @Override
+    public void apply(final Connection connection) throws SQLException {
+      final long maxRecordId;
+      try (final Statement statement = connection.createStatement();
+          final ResultSet resultSet =
+              statement.executeQuery("select max(record_id) from adyen_responses")) {
+        resultSet.next();
+        maxRecordId = resultSet.getLong(1);
+      }
+
+      long updated = 0;
+      try (final PreparedStatement statement =
+          connection.prepareStatement(
+              "update adyen_responses set kb_payment_method_id ="
+                  + " (select p.payment_method_id from payments p"
+                  + " where p.id = adyen_responses.kb_payment_id)"
+                  + " where kb_payment_method_id is null and record_id > ? and record_id <= ?")) {
+        for (long from = 0; from < maxRecordId; from += CHUNK_SIZE) {
+          statement.setLong(1, from);
+          statement.setLong(2, from + CHUNK_SIZE);
+          updated += statement.executeUpdate();
+        }
+      }
+      logger.info("[Adyen] Backfilled kb_payment_method_id of {} responses", updated);
+    }
+  }
+
+  private static boolean columnExists(
+      final Connection connection, final String table, final String column) throws SQLException {
+    final DatabaseMetaData metaData = connection.getMetaData();
+    try (final ResultSet columns =
+        metaData.getColumns(
+            connection.getCatalog(),
+            connection.getSchema(),
+            toStoredCase(metaData, table),
+            toStoredCase(metaData, column))) {
+      return columns.next();
+    }
+  }
+
+  private static final class CreateIndex implements Step {
+
+    private final String table;
+    private final String name;
+    private final String[] columns;
+
+    private CreateIndex(final String table, final String name, final String... columns) {
+      this.table = table;
+      this.name = name;
+      this.columns = columns;
+    }
+
+    @Override
+    public boolean isApplied(final Connection connection) throws SQLException {
+      final DatabaseMetaData metaData = connection.getMetaData();
+      try (final ResultSet indexes =
+          metaData.getIndexInfo(
+              connection.getCatalog(),
+              connection.getSchema(),
+              toStoredCase(metaData, table),
+              false,
+              true)) {
+        while (indexes.next()) {
+          if (name.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void apply(final Connection connection) throws SQLException {
+      try (final Statement statement = connection.createStatement()) {
+        statement.execute(
+            "create index " + name + " on " + table + "(" + String.join(", ", columns) + ")");
+      }
+    }
+  }
+}
@@ -9,6 +9,7 @@ import org.jooq.impl.DSL;
 import org.jooq.impl.Internal;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationsInbox;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
 
 /** A class modelling indexes of tables in killbill. */
@@ -55,6 +56,16 @@ public class Indexes {
           AdyenNotifications.ADYEN_NOTIFICATIONS,
           new OrderField[] {AdyenNotifications.ADYEN_NOTIFICATIONS.PSP_REFERENCE},
           false);
+  public static final Index
+      ADYEN_NOTIFICATIONS_INBOX_ADYEN_NOTIFICATIONS_INBOX_STATUS_NEXT_ATTEMPT_DATE =
+          Internal.createIndex(
+              DSL.name("adyen_notifications_inbox_status_next_attempt_date"),
+              AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX,
+              new OrderField[] {
+                AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX.STATUS,
+                AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX.NEXT_ATTEMPT_DATE
+              },
+              false);
   public static final Index ADYEN_RESPONSES_ADYEN_RESPONSES_KB_PAYMENT_ID =
       Internal.createIndex(
           DSL.name("adyen_responses_kb_payment_id"),
@@ -9,9 +9,11 @@ import org.jooq.impl.DSL;
 import org.jooq.impl.Internal;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationsInbox;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsInboxRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
@@ -48,6 +50,20 @@ public class Keys {
           DSL.name("KEY_adyen_notifications_record_id"),
           new TableField[] {AdyenNotifications.ADYEN_NOTIFICATIONS.RECORD_ID},
           true);
+  public static final UniqueKey<AdyenNotificationsInboxRecord>
+      KEY_ADYEN_NOTIFICATIONS_INBOX_PRIMARY =
+          Internal.createUniqueKey(
+              AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX,
+              DSL.name("KEY_adyen_notifications_inbox_PRIMARY"),
+              new TableField[] {AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX.RECORD_ID},
+              true);
+  public static final UniqueKey<AdyenNotificationsInboxRecord>
+      KEY_ADYEN_NOTIFICATIONS_INBOX_RECORD_ID =
+          Internal.createUniqueKey(
+              AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX,
+              DSL.name("KEY_adyen_notifications_inbox_record_id"),
+              new TableField[] {AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX.RECORD_ID},
+              true);
   public static final UniqueKey<AdyenPaymentMethodsRecord>
       KEY_ADYEN_PAYMENT_METHODS_ADYEN_PAYMENT_METHODS_KB_PAYMENT_ID =
           Internal.createUniqueKey(
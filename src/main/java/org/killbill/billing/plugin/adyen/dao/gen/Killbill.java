@@ -10,6 +10,7 @@ import org.jooq.Table;
 import org.jooq.impl.SchemaImpl;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationsInbox;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
 
@@ -28,6 +29,10 @@ public class Killbill extends SchemaImpl {
   /** The table <code>killbill.adyen_notifications</code>. */
   public final AdyenNotifications ADYEN_NOTIFICATIONS = AdyenNotifications.ADYEN_NOTIFICATIONS;
 
+  /** The table <code>killbill.adyen_notifications_inbox</code>. */
+  public final AdyenNotificationsInbox ADYEN_NOTIFICATIONS_INBOX =
+      AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX;
+
   /** The table <code>killbill.adyen_payment_methods</code>. */
   public final AdyenPaymentMethods ADYEN_PAYMENT_METHODS =
       AdyenPaymentMethods.ADYEN_PAYMENT_METHODS;
@@ -50,6 +55,7 @@ public class Killbill extends SchemaImpl {
     return Arrays.<Table<?>>asList(
         AdyenHppRequests.ADYEN_HPP_REQUESTS,
         AdyenNotifications.ADYEN_NOTIFICATIONS,
+        AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX,
         AdyenPaymentMethods.ADYEN_PAYMENT_METHODS,
         AdyenResponses.ADYEN_RESPONSES);
   }
@@ -5,6 +5,7 @@ package org.killbill.billing.plugin.adyen.dao.gen;
 
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationsInbox;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
 
@@ -19,6 +20,10 @@ public class Tables {
   public static final AdyenNotifications ADYEN_NOTIFICATIONS =
       AdyenNotifications.ADYEN_NOTIFICATIONS;
 
+  /** The table <code>killbill.adyen_notifications_inbox</code>. */
+  public static final AdyenNotificationsInbox ADYEN_NOTIFICATIONS_INBOX =
+      AdyenNotificationsInbox.ADYEN_NOTIFICATIONS_INBOX;
+
   /** The table <code>killbill.adyen_payment_methods</code>. */
   public static final AdyenPaymentMethods ADYEN_PAYMENT_METHODS =
       AdyenPaymentMethods.ADYEN_PAYMENT_METHODS;
@@ -232,6 +232,14 @@ public class AdyenResponses extends TableImpl<AdyenResponsesRecord> {
   public final TableField<AdyenResponsesRecord, String> KB_TENANT_ID =
       createField(DSL.name("kb_tenant_id"), SQLDataType.CHAR(36).nullable(false), this, "");
 
+  /** The column <code>killbill.adyen_responses.kb_payment_method_id</code>. */
+  public final TableField<AdyenResponsesRecord, String> KB_PAYMENT_METHOD_ID =
+      createField(
+          DSL.name("kb_payment_method_id"),
+          SQLDataType.CHAR(36).defaultValue(DSL.inline("NULL", SQLDataType.CHAR)),
+          this,
+          "");
+
   private AdyenResponses(Name alias, Table<AdyenResponsesRecord> aliased) {
     this(alias, aliased, null);
   }
@@ -62,9 +62,11 @@ create table adyen_responses (
 , additional_data longtext default null
 , created_date datetime not null
 , kb_tenant_id char(36) not null
+, kb_payment_method_id char(36) default null
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
 create index adyen_responses_kb_payment_id on adyen_responses(kb_payment_id);
+create index adyen_responses_kb_payment_id_kb_tenant_id_record_id on adyen_responses(kb_payment_id, kb_tenant_id, record_id);
 create index adyen_responses_kb_payment_transaction_id on adyen_responses(kb_payment_transaction_id);
 create index psp_reference_idx on adyen_responses(psp_reference);
 
@@ -94,9 +96,26 @@ create table adyen_notifications (
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
 -- Not unique to handle retries
 create index adyen_notifications_psp_reference on adyen_notifications(psp_reference);
+create index adyen_notifications_psp_reference_event_code on adyen_notifications(psp_reference, event_code);
 create index adyen_notifications_kb_payment_id on adyen_notifications(kb_payment_id);
 create index adyen_notifications_kb_payment_transaction_id on adyen_notifications(kb_payment_transaction_id);
 
+-- Raw webhook payloads acknowledged to Adyen but not yet applied, and notification items
+-- waiting for their payment (PARKED)
+drop table if exists adyen_notifications_inbox;
+create table adyen_notifications_inbox (
+  record_id serial
+, notification longtext not null
+, status varchar(32) not null
+, attempts integer not null default 0
+, next_attempt_date datetime not null
+, last_error text
+, created_date datetime not null
+, updated_date datetime not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+create index adyen_notifications_inbox_status_next_attempt_date on adyen_notifications_inbox(status, next_attempt_date);
+
 drop table if exists adyen_payment_methods;
 create table adyen_payment_methods (
   record_id serial
@@ -112,4 +131,14 @@ create table adyen_payment_methods (
 , kb_tenant_id char(36) not null
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
-create unique index adyen_payment_methods_kb_payment_id on adyen_payment_methods(kb_payment_method_id);
\ No newline at end of file
+create unique index adyen_payment_methods_kb_payment_id on adyen_payment_methods(kb_payment_method_id);
+create index adyen_payment_methods_kb_account_id_kb_tenant_id on adyen_payment_methods(kb_account_id, kb_tenant_id);
+
+-- Versions applied by AdyenSchemaMigrator, which upgrades existing schemas on startup
+drop table if exists adyen_schema_migrations;
+create table adyen_schema_migrations (
+  version integer not null
+, description varchar(255) not null
+, installed_date datetime not null
+, primary key(version)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
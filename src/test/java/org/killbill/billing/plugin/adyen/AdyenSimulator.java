@@ -0,0 +1,432 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local stand-in for the Adyen Checkout API endpoints used by the plugin, for load and latency
+ * tests that must not depend on Adyen's test environment. Point the plugin at it with the {@code
+ * checkoutEndpoint} property set to {@link #getCheckoutEndpoint()}.
+ *
+ * <p>Each endpoint can be given a latency distribution and an error rate. Accepted payments,
+ * refunds and reversals can be followed by a signed notification, delivered to a {@link
+ * WebhookSink} (e.g. the plugin's notification servlet). Random draws come from a seeded
+ * generator, so that runs are reproducible.
+ */
+public class AdyenSimulator implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenSimulator.class);
+
+  public enum Endpoint {
+    SESSIONS,
+    SESSION_RESULT,
+    PAYMENTS,
+    REFUNDS,
+    REVERSALS
+  }
+
+  /** Latency of a simulated call, in milliseconds. */
+  @FunctionalInterface
+  public interface LatencyDistribution {
+
+    long nextMillis(Random random);
+
+    static LatencyDistribution none() {
+      return random -> 0;
+    }
+
+    static LatencyDistribution fixed(final long millis) {
+      return random -> millis;
+    }
+
+    static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+      return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+    }
+
+    /** Long-tailed, like WAN latency: {@code sigma} of 0.5 puts the p99 at ~3.2x the median. */
+    static LatencyDistribution logNormal(final double medianMillis, final double sigma) {
+      return random -> Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+    }
+  }
+
+  /** Receives the JSON body of each notification the simulator sends. */
+  @FunctionalInterface
+  public interface WebhookSink {
+
+    void deliver(String notificationJson) throws Exception;
+
+    static WebhookSink http(final URI url) {
+      final HttpClient httpClient = HttpClient.newHttpClient();
+      return notificationJson -> {
+        final HttpResponse<String> response =
+            httpClient.send(
+                HttpRequest.newBuilder(url)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(notificationJson))
+                    .build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+          throw new IOException("Webhook rejected with HTTP " + response.statusCode());
+        }
+      };
+    }
+  }
+
+  private static final Pattern SESSIONS = Pattern.compile(".*/sessions");
+  private static final Pattern SESSION_RESULT = Pattern.compile(".*/sessions/([^/]+)");
+  private static final Pattern PAYMENTS = Pattern.compile(".*/payments");
+  private static final Pattern REFUNDS = Pattern.compile(".*/payments/([^/]+)/refunds");
+  private static final Pattern REVERSALS = Pattern.compile(".*/payments/([^/]+)/reversals");
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final Random random;
+  private final Map<Endpoint, LatencyDistribution> latencies = new EnumMap<>(Endpoint.class);
+  private final Map<Endpoint, double[]> errors = new EnumMap<>(Endpoint.class);
+  private final Map<Endpoint, LongAdder> requests = new EnumMap<>(Endpoint.class);
+  private final AtomicLong pspReferences = new AtomicLong(8815000000000000L);
+  private final LongAdder webhooksDelivered = new LongAdder();
+  private final LongAdder webhooksFailed = new LongAdder();
+
+  private HttpServer server;
+  private ExecutorService handlers;
+  private ScheduledExecutorService webhooks;
+  @Nullable private volatile WebhookSink webhookSink;
+  private volatile String hmacKey;
+  private volatile long webhookDelayMs;
+
+  public AdyenSimulator() {
+    this(0L);
+  }
+
+  public AdyenSimulator(final long seed) {
+    this.random = new Random(seed);
+    for (final Endpoint endpoint : Endpoint.values()) {
+      latencies.put(endpoint, LatencyDistribution.none());
+      errors.put(endpoint, new double[] {0, 0});
+      requests.put(endpoint, new LongAdder());
+    }
+  }
+
+  public synchronized AdyenSimulator start() throws IOException {
+    handlers =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("adyen-simulator-%d").setDaemon(true).build());
+    webhooks =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("adyen-simulator-webhooks")
+                .setDaemon(true)
+                .build());
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+    server.setExecutor(handlers);
+    server.createContext("/", this::handle);
+    server.start();
+    return this;
+  }
+
+  /** Base URL to use as the plugin's {@code checkoutEndpoint}. */
+  public String getCheckoutEndpoint() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/v71";
+  }
+
+  public synchronized AdyenSimulator withLatency(final LatencyDistribution latency) {
+    for (final Endpoint endpoint : Endpoint.values()) {
+      latencies.put(endpoint, latency);
+    }
+    return this;
+  }
+
+  public synchronized AdyenSimulator withLatency(
+      final Endpoint endpoint, final LatencyDistribution latency) {
+    latencies.put(endpoint, latency);
+    return this;
+  }
+
+  /** Fails a share of the calls to {@code endpoint} with the given HTTP status. */
+  public synchronized AdyenSimulator withErrors(
+      final Endpoint endpoint, final double rate, final int statusCode) {
+    errors.put(endpoint, new double[] {rate, statusCode});
+    return this;
+  }
+
+  public AdyenSimulator withWebhooks(
+      final WebhookSink sink, final String hmacKey, final long delayMs) {
+    this.hmacKey = hmacKey;
+    this.webhookDelayMs = delayMs;
+    this.webhookSink = sink;
+    return this;
+  }
+
+  public long getRequestCount(final Endpoint endpoint) {
+    return requests.get(endpoint).sum();
+  }
+
+  public long getWebhooksDelivered() {
+    return webhooksDelivered.sum();
+  }
+
+  public long getWebhooksFailed() {
+    return webhooksFailed.sum();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (server != null) {
+      server.stop(0);
+      handlers.shutdownNow();
+      webhooks.shutdownNow();
+      server = null;
+    }
+  }
+
+  private void handle(final HttpExchange exchange) throws IOException {
+    try {
+      final String path = exchange.getRequestURI().getPath();
+      final boolean post = "POST".equals(exchange.getRequestMethod());
+      Matcher matcher;
+      if (exchange.getRequestHeaders().getFirst("x-api-key") == null) {
+        respond(exchange, 401, error(401, "000", "Unauthorized", "security"));
+      } else if (post && SESSIONS.matcher(path).matches()) {
+        simulate(exchange, Endpoint.SESSIONS, null);
+      } else if (!post && (matcher = SESSION_RESULT.matcher(path)).matches()) {
+        simulate(exchange, Endpoint.SESSION_RESULT, matcher.group(1));
+      } else if (post && PAYMENTS.matcher(path).matches()) {
+        simulate(exchange, Endpoint.PAYMENTS, null);
+      } else if (post && (matcher = REFUNDS.matcher(path)).matches()) {
+        simulate(exchange, Endpoint.REFUNDS, matcher.group(1));
+      } else if (post && (matcher = REVERSALS.matcher(path)).matches()) {
+        simulate(exchange, Endpoint.REVERSALS, matcher.group(1));
+      } else {
+        respond(exchange, 404, error(404, "000", "Not found: " + path, "validation"));
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final RuntimeException e) {
+      logger.warn("Simulator failure", e);
+      respond(exchange, 500, error(500, "905", e.toString(), "internal"));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void simulate(
+      final HttpExchange exchange, final Endpoint endpoint, @Nullable final String pathParameter)
+      throws IOException, InterruptedException {
+    requests.get(endpoint).increment();
+    final JsonNode request = readBody(exchange);
+
+    final long latencyMs;
+    final boolean fail;
+    final int errorStatus;
+    synchronized (this) {
+      latencyMs = Math.max(0, latencies.get(endpoint).nextMillis(random));
+      fail = random.nextDouble() < errors.get(endpoint)[0];
+      errorStatus = (int) errors.get(endpoint)[1];
+    }
+    if (latencyMs > 0) {
+      Thread.sleep(latencyMs);
+    }
+    if (fail) {
+      respond(
+          exchange,
+          errorStatus,
+          error(
+              errorStatus,
+              errorStatus >= 500 ? "905" : "702",
+              "Injected error",
+              errorStatus >= 500 ? "internal" : "validation"));
+      return;
+    }
+
+    final String pspReference = String.valueOf(pspReferences.incrementAndGet());
+    final String reference = request.path("reference").asText(null);
+    final Map<String, Object> response = new LinkedHashMap<>();
+    switch (endpoint) {
+      case SESSIONS:
+        response.put("id", "CS" + pspReference);
+        response.put("sessionData", "Ab02b4c0!" + pspReference);
+        response.put("merchantAccount", request.path("merchantAccount").asText(null));
+        response.put("reference", reference);
+        response.put("returnUrl", request.path("returnUrl").asText(null));
+        response.put("amount", request.path("amount"));
+        response.put("expiresAt", Instant.now().plusSeconds(3600).toString());
+        break;
+      case SESSION_RESULT:
+        response.put("id", pathParameter);
+        response.put("status", "completed");
+        break;
+      case PAYMENTS:
+        response.put("pspReference", pspReference);
+        response.put("resultCode", "Authorised");
+        response.put("merchantReference", reference);
+        response.put("amount", request.path("amount"));
+        scheduleWebhook("AUTHORISATION", pspReference, null, reference, request);
+        break;
+      case REFUNDS:
+      case REVERSALS:
+        response.put("pspReference", pspReference);
+        response.put("paymentPspReference", pathParameter);
+        response.put("merchantAccount", request.path("merchantAccount").asText(null));
+        response.put("reference", reference);
+        response.put("status", "received");
+        if (endpoint == Endpoint.REFUNDS) {
+          response.put("amount", request.path("amount"));
+        }
+        scheduleWebhook(
+            endpoint == Endpoint.REFUNDS ? "REFUND" : "CANCEL_OR_REFUND",
+            pspReference,
+            pathParameter,
+            reference,
+            request);
+        break;
+      default:
+        throw new IllegalStateException("Unexpected endpoint " + endpoint);
+    }
+    respond(exchange, 200, response);
+  }
+
+  private void scheduleWebhook(
+      final String eventCode,
+      final String pspReference,
+      @Nullable final String originalReference,
+      @Nullable final String merchantReference,
+      final JsonNode request) {
+    final WebhookSink sink = webhookSink;
+    if (sink == null) {
+      return;
+    }
+
+    final NotificationRequestItem item = new NotificationRequestItem();
+    item.setEventCode(eventCode);
+    item.setPspReference(pspReference);
+    item.setOriginalReference(originalReference);
+    item.setMerchantReference(merchantReference);
+    item.setMerchantAccountCode(request.path("merchantAccount").asText(null));
+    item.setSuccess(true);
+    final JsonNode amount = request.path("amount");
+    if (!amount.isMissingNode()) {
+      final Amount itemAmount = new Amount();
+      itemAmount.setCurrency(amount.path("currency").asText(null));
+      itemAmount.setValue(amount.path("value").asLong());
+      item.setAmount(itemAmount);
+    }
+
+    webhooks.schedule(
+        () -> {
+          try {
+            sink.deliver(toNotificationJson(item));
+            webhooksDelivered.increment();
+          } catch (final Exception e) {
+            webhooksFailed.increment();
+            logger.warn("Unable to deliver {} notification for {}", eventCode, pspReference, e);
+          }
+        },
+        webhookDelayMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private String toNotificationJson(final NotificationRequestItem item) throws Exception {
+    final Map<String, String> additionalData = new HashMap<>();
+    additionalData.put("hmacSignature", new HMACValidator().calculateHMAC(item, hmacKey));
+
+    final Map<String, Object> itemJson = new LinkedHashMap<>();
+    itemJson.put("additionalData", additionalData);
+    if (item.getAmount() != null) {
+      itemJson.put(
+          "amount",
+          ImmutableMap.of(
+              "currency", item.getAmount().getCurrency(), "value", item.getAmount().getValue()));
+    }
+    itemJson.put("eventCode", item.getEventCode());
+    itemJson.put("eventDate", Instant.now().toString());
+    itemJson.put("merchantAccountCode", item.getMerchantAccountCode());
+    itemJson.put("merchantReference", item.getMerchantReference());
+    if (item.getOriginalReference() != null) {
+      itemJson.put("originalReference", item.getOriginalReference());
+    }
+    itemJson.put("pspReference", item.getPspReference());
+    itemJson.put("reason", "");
+    itemJson.put("success", String.valueOf(item.isSuccess()));
+
+    return objectMapper.writeValueAsString(
+        ImmutableMap.of(
+            "live",
+            "false",
+            "notificationItems",
+            ImmutableList.of(ImmutableMap.of("NotificationRequestItem", itemJson))));
+  }
+
+  private JsonNode readBody(final HttpExchange exchange) throws IOException {
+    try (final InputStream in = exchange.getRequestBody()) {
+      final byte[] body = in.readAllBytes();
+      return body.length == 0 ? objectMapper.createObjectNode() : objectMapper.readTree(body);
+    }
+  }
+
+  private static Map<String, Object> error(
+      final int status, final String errorCode, final String message, final String errorType) {
+    return ImmutableMap.of(
+        "status", status, "errorCode", errorCode, "message", message, "errorType", errorType);
+  }
+
+  private void respond(final HttpExchange exchange, final int status, final Object body)
+      throws IOException {
+    final byte[] json = objectMapper.writeValueAsBytes(body);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, json.length);
+    try (final OutputStream out = exchange.getResponseBody()) {
+      out.write(json);
+    }
+  }
+}
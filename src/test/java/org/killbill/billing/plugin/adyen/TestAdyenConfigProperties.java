@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.enums.Environment;
+import java.util.Properties;
+import org.killbill.billing.plugin.TestUtils;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenConfigProperties {
+
+  private static final String PREFIX = "org.killbill.billing.plugin.adyen.";
+
+  @Test(groups = "fast")
+  public void testValuesAreParsedOnLoad() throws Exception {
+    final Properties properties = TestUtils.loadProperties(TestBase.PROPERTIES_FILE_NAME);
+    properties.setProperty(PREFIX + "captureDelayHours", "24");
+    properties.setProperty(PREFIX + "enviroment", "live");
+
+    final AdyenConfigProperties configuration = new AdyenConfigProperties(properties, "");
+    Assert.assertEquals(configuration.getCaptureDelayHours(), Integer.valueOf(24));
+    Assert.assertEquals(configuration.getEnvironment(), Environment.LIVE);
+    Assert.assertNotNull(configuration.getHmacSecretKey());
+    Assert.assertEquals(configuration.getHmacSecretKey().getEncoded().length, 32);
+  }
+
+  @Test(groups = "fast")
+  public void testInvalidValuesAreRejectedOnLoad() throws Exception {
+    assertInvalid("captureDelayHours", "169");
+    assertInvalid("captureDelayHours", "soon");
+    assertInvalid("enviroment", "STAGING");
+    assertInvalid("hcmaKey", "test");
+    assertInvalid("gateway.maxInFlight", "0");
+    assertInvalid("gateway.maxQueued", "-1");
+    assertInvalid("notificationExecutor.queueCapacity", "0");
+  }
+
+  private static void assertInvalid(final String property, final String value) throws Exception {
+    final Properties properties = TestUtils.loadProperties(TestBase.PROPERTIES_FILE_NAME);
+    properties.setProperty(PREFIX + property, value);
+    try {
+      new AdyenConfigProperties(properties, "");
+      Assert.fail(property + "=" + value + " should have been rejected");
+    } catch (final IllegalArgumentException e) {
+      Assert.assertTrue(e.getMessage().contains(property), e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationDeduplicator;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenDao extends TestBase {
+
+  @Test(groups = "slow")
+  public void testAddNotificationsForSeveralItems() throws Exception {
+    final UUID tenantId = UUID.randomUUID();
+    final AdyenResponsesRecord first = addPendingResponse(tenantId);
+    final AdyenResponsesRecord second = addPendingResponse(tenantId);
+
+    final Map<String, AdyenResponsesRecord> responses =
+        dao.getResponsesFromMerchantReferences(
+            ImmutableList.of(
+                first.getKbPaymentTransactionId(),
+                second.getKbPaymentTransactionId(),
+                UUID.randomUUID().toString()));
+    Assert.assertEquals(responses.size(), 2);
+
+    dao.addNotifications(
+        ImmutableList.of(
+            responses.get(first.getKbPaymentTransactionId()),
+            responses.get(second.getKbPaymentTransactionId())),
+        ImmutableList.of(
+            buildItem(first.getKbPaymentTransactionId(), true),
+            buildItem(second.getKbPaymentTransactionId(), false)));
+
+    Assert.assertEquals(
+        dao.getResponseFromMerchantReference(first.getKbPaymentTransactionId())
+            .getTransactionStatus(),
+        PaymentPluginStatus.PROCESSED.name());
+    Assert.assertEquals(
+        dao.getResponseFromMerchantReference(second.getKbPaymentTransactionId())
+            .getTransactionStatus(),
+        PaymentPluginStatus.ERROR.name());
+  }
+
+  @Test(groups = "slow")
+  public void testUnitOfWorkIsRolledBackOnFailure() throws Exception {
+    final AdyenResponsesRecord response = addPendingResponse(UUID.randomUUID());
+    final NotificationRequestItem item = buildItem(response.getKbPaymentTransactionId(), true);
+
+    try {
+      dao.inTransaction(
+          unitOfWork -> {
+            unitOfWork.addNotifications(ImmutableList.of(response), ImmutableList.of(item));
+            throw new IOException("Kill Bill is unavailable");
+          });
+      Assert.fail("Unit of work should have failed");
+    } catch (final IOException e) {
+      Assert.assertEquals(e.getMessage(), "Kill Bill is unavailable");
+    }
+
+    Assert.assertEquals(
+        dao.getResponseFromMerchantReference(response.getKbPaymentTransactionId())
+            .getTransactionStatus(),
+        PaymentPluginStatus.PENDING.name());
+  }
+
+  @Test(groups = "slow")
+  public void testPaymentMethodsCacheIsInvalidatedOnWrites() throws Exception {
+    final AdyenDao cachingDao = new AdyenDao(EmbeddedDbHelper.instance().getDataSource(), 10, 0);
+    final UUID kbPaymentMethodId = UUID.randomUUID();
+    final UUID tenantId = UUID.randomUUID();
+    Assert.assertNull(cachingDao.getPaymentMethod(kbPaymentMethodId, tenantId));
+
+    cachingDao.addPaymentMethod(
+        UUID.randomUUID(), kbPaymentMethodId, ImmutableMap.of(), true, tenantId, true);
+    Assert.assertNull(
+        cachingDao.getPaymentMethod(kbPaymentMethodId, tenantId).getRecurringDetailReference());
+    Assert.assertNull(
+        cachingDao.getPaymentMethod(kbPaymentMethodId, tenantId).getRecurringDetailReference());
+    Assert.assertEquals(cachingDao.getPaymentMethodsCacheStats().hitCount(), 1);
+
+    cachingDao.updateRecurringDetailsPaymentMethod(kbPaymentMethodId, tenantId, "8315");
+    Assert.assertEquals(
+        cachingDao.getPaymentMethod(kbPaymentMethodId, tenantId).getRecurringDetailReference(),
+        "8315");
+
+    cachingDao.updateIsDeletePaymentMethod(kbPaymentMethodId, tenantId);
+    Assert.assertNull(cachingDao.getPaymentMethod(kbPaymentMethodId, tenantId));
+  }
+
+  @Test(groups = "slow")
+  public void testRedeliveredNotificationsAreRecognised() throws Exception {
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final AdyenNotificationDeduplicator deduplicator =
+        new AdyenNotificationDeduplicator(new AdyenConfigProperties(new Properties(), ""), metrics);
+    final AdyenResponsesRecord response = addPendingResponse(UUID.randomUUID());
+    final NotificationRequestItem item = buildItem(response.getKbPaymentTransactionId(), true);
+    // Applied by another node: only the database knows about it
+    dao.addNotifications(ImmutableList.of(response), ImmutableList.of(item));
+
+    Assert.assertEquals(
+        deduplicator.withoutKnownDuplicates(ImmutableList.of(item, item)).size(), 1);
+    final Set<String> storedKeys =
+        dao.inTransaction(
+            unitOfWork -> unitOfWork.getNotificationKeys(ImmutableList.of(item.getPspReference())));
+    Assert.assertTrue(deduplicator.isStored(item, storedKeys));
+
+    // Another outcome for the same PSP reference is not a redelivery
+    final NotificationRequestItem failure =
+        buildItem(response.getKbPaymentTransactionId(), false);
+    failure.setPspReference(item.getPspReference());
+    Assert.assertFalse(deduplicator.isStored(failure, storedKeys));
+
+    // Remembered in memory from now on
+    Assert.assertTrue(deduplicator.withoutKnownDuplicates(ImmutableList.of(item)).isEmpty());
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_notification_duplicates_total{source=\"memory\"}"),
+        Long.valueOf(2));
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_notification_duplicates_total{source=\"database\"}"),
+        Long.valueOf(1));
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_notification_items_total"), Long.valueOf(3));
+  }
+
+  @Test(groups = "slow")
+  public void testKnownTenantIds() throws Exception {
+    final UUID tenantId = UUID.randomUUID();
+    addPendingResponse(tenantId);
+
+    // No Kill Bill tables in the embedded database: tenants with responses only
+    Assert.assertEquals(dao.getKnownTenantIds("adyen-plugin"), ImmutableSet.of(tenantId));
+  }
+
+  private AdyenResponsesRecord addPendingResponse(final UUID tenantId) throws Exception {
+    return dao.addResponse(
+        UUID.randomUUID(),
+        UUID.randomUUID(),
+        UUID.randomUUID(),
+        TransactionType.PURCHASE,
+        BigDecimal.TEN,
+        DEFAULT_CURRENCY,
+        PaymentPluginStatus.PENDING,
+        null,
+        new ProcessorOutputDTO(),
+        tenantId);
+  }
+
+  private NotificationRequestItem buildItem(final String merchantReference, final boolean success) {
+    final Amount amount = new Amount();
+    amount.setCurrency(DEFAULT_CURRENCY.name());
+    amount.setValue(1000L);
+
+    final NotificationRequestItem item = new NotificationRequestItem();
+    item.setMerchantReference(merchantReference);
+    item.setPspReference(UUID.randomUUID().toString().substring(0, 16));
+    item.setEventCode("AUTHORISATION");
+    item.setSuccess(success);
+    item.setAmount(amount);
+    return item;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import java.util.HashMap;
+import org.killbill.billing.plugin.adyen.core.AdyenHmacValidator;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenHmacValidator {
+
+  public static final String HMAC_KEY =
+      "44782DEF547AAA06C910C43932B1EB0C71FC68D9D0C057550C48EC2ACF6BA056";
+
+  @Test(groups = "fast")
+  public void testMatchesSdkSignature() throws Exception {
+    final AdyenHmacValidator validator = new AdyenHmacValidator();
+    final NotificationRequestItem item = buildSignedItem(HMAC_KEY);
+
+    Assert.assertTrue(new HMACValidator().validateHMAC(item, HMAC_KEY));
+    Assert.assertTrue(validator.isValid(item, HMAC_KEY));
+    // Cached Mac is reused
+    Assert.assertTrue(validator.isValid(item, HMAC_KEY));
+
+    item.setSuccess(false);
+    Assert.assertFalse(validator.isValid(item, HMAC_KEY));
+  }
+
+  @Test(groups = "fast")
+  public void testMissingFieldsAreSignedAsEmptyStrings() throws Exception {
+    final NotificationRequestItem item = buildSignedItem(HMAC_KEY);
+    item.setOriginalReference(null);
+    item.getAdditionalData()
+        .put(
+            AdyenHmacValidator.HMAC_SIGNATURE,
+            new HMACValidator()
+                .calculateHMAC(
+                    "7914073381342284::TestMerchant:TestPayment-1407325143704:"
+                        + "1130:EUR:AUTHORISATION:true",
+                    HMAC_KEY));
+
+    Assert.assertTrue(new AdyenHmacValidator().isValid(item, HMAC_KEY));
+  }
+
+  @Test(groups = "fast")
+  public void testRejectsInvalidKeysAndSignatures() throws Exception {
+    final AdyenHmacValidator validator = new AdyenHmacValidator();
+    final NotificationRequestItem item = buildSignedItem(HMAC_KEY);
+
+    Assert.assertFalse(validator.isValid(item, null));
+    Assert.assertFalse(validator.isValid(item, "test"));
+    Assert.assertFalse(validator.isValid(item, HMAC_KEY.replace('4', '5')));
+
+    item.getAdditionalData().remove(AdyenHmacValidator.HMAC_SIGNATURE);
+    Assert.assertFalse(validator.isValid(item, HMAC_KEY));
+  }
+
+  public static NotificationRequestItem buildSignedItem(final String hmacKey) throws Exception {
+    final Amount amount = new Amount();
+    amount.setCurrency("EUR");
+    amount.setValue(1130L);
+
+    final NotificationRequestItem item = new NotificationRequestItem();
+    item.setPspReference("7914073381342284");
+    item.setOriginalReference("8313842560770001");
+    item.setMerchantAccountCode("TestMerchant");
+    item.setMerchantReference("TestPayment-1407325143704");
+    item.setAmount(amount);
+    item.setEventCode("AUTHORISATION");
+    item.setSuccess(true);
+    item.setAdditionalData(new HashMap<>());
+    item.getAdditionalData()
+        .put(
+            AdyenHmacValidator.HMAC_SIGNATURE,
+            new HMACValidator().calculateHMAC(item, hmacKey));
+    return item;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import org.killbill.billing.plugin.adyen.core.AdyenMinorUnits;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenMinorUnits {
+
+  private static final String[] CURRENCIES = {"EUR", "USD", "JPY", "KWD", "IDR", "XXX", null};
+  private static final int RUNS = 100000;
+
+  @Test(groups = "fast")
+  public void testExamples() {
+    Assert.assertEquals(AdyenMinorUnits.toMinorUnits(new BigDecimal("10.5"), "EUR"), 1050);
+    Assert.assertEquals(AdyenMinorUnits.toMinorUnits(new BigDecimal("10.000000000"), "EUR"), 1000);
+    Assert.assertEquals(AdyenMinorUnits.toMinorUnits(new BigDecimal("1000"), "JPY"), 1000);
+    Assert.assertEquals(AdyenMinorUnits.toMinorUnits(new BigDecimal("1000.00"), "JPY"), 1000);
+    Assert.assertEquals(AdyenMinorUnits.toMinorUnits(new BigDecimal("1.234"), "KWD"), 1234);
+    Assert.assertEquals(AdyenMinorUnits.toMinorUnits(new BigDecimal("10.005"), "EUR"), 1001);
+    Assert.assertEquals(AdyenMinorUnits.toMinorUnits(new BigDecimal("1E+3"), "EUR"), 100000);
+
+    Assert.assertEquals(AdyenMinorUnits.fromMinorUnits(1050, "EUR"), new BigDecimal("10.50"));
+    Assert.assertEquals(AdyenMinorUnits.fromMinorUnits(1000, "JPY"), new BigDecimal("1000"));
+    Assert.assertEquals(AdyenMinorUnits.fromMinorUnits(1234, "KWD"), new BigDecimal("1.234"));
+  }
+
+  @Test(groups = "fast", expectedExceptions = ArithmeticException.class)
+  public void testOverflow() {
+    AdyenMinorUnits.toMinorUnits(BigDecimal.valueOf(Long.MAX_VALUE), "EUR");
+  }
+
+  @Test(groups = "fast")
+  public void testMatchesBigDecimalRounding() {
+    final Random random = new Random(0);
+    for (int i = 0; i < RUNS; i++) {
+      final BigDecimal amount = randomAmount(random);
+      final String currency = CURRENCIES[random.nextInt(CURRENCIES.length)];
+      Assert.assertEquals(
+          toMinorUnitsOrNull(amount, currency),
+          expected(amount, currency),
+          amount + " " + currency);
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testTrailingZerosDoNotMatter() {
+    final Random random = new Random(1);
+    for (int i = 0; i < RUNS; i++) {
+      final BigDecimal amount = randomAmount(random);
+      final String currency = CURRENCIES[random.nextInt(CURRENCIES.length)];
+      final BigDecimal rescaled = amount.setScale(amount.scale() + random.nextInt(10));
+      Assert.assertEquals(
+          toMinorUnitsOrNull(rescaled, currency),
+          toMinorUnitsOrNull(amount, currency),
+          rescaled + " " + currency);
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testRoundTrip() {
+    final Random random = new Random(2);
+    for (int i = 0; i < RUNS; i++) {
+      final long minorUnits = random.nextBoolean() ? random.nextInt() : random.nextLong();
+      final String currency = CURRENCIES[random.nextInt(CURRENCIES.length)];
+      Assert.assertEquals(
+          AdyenMinorUnits.toMinorUnits(
+              AdyenMinorUnits.fromMinorUnits(minorUnits, currency), currency),
+          minorUnits,
+          minorUnits + " " + currency);
+    }
+  }
+
+  // Mostly amounts within the allocation-free range, some beyond it
+  private static BigDecimal randomAmount(final Random random) {
+    final long unscaled =
+        random.nextInt(4) == 0
+            ? random.nextLong() / (1 + random.nextInt(1000))
+            : (long) ((random.nextDouble() - 0.5) * 2e15);
+    return BigDecimal.valueOf(unscaled, random.nextInt(24) - 2);
+  }
+
+  private static Long expected(final BigDecimal amount, final String currency) {
+    try {
+      return amount
+          .setScale(AdyenMinorUnits.exponent(currency), RoundingMode.HALF_UP)
+          .unscaledValue()
+          .longValueExact();
+    } catch (final ArithmeticException e) {
+      return null;
+    }
+  }
+
+  private static Long toMinorUnitsOrNull(final BigDecimal amount, final String currency) {
+    try {
+      return AdyenMinorUnits.toMinorUnits(amount, currency);
+    } catch (final ArithmeticException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationExecutor;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenNotificationExecutor {
+
+  @Test(groups = "fast")
+  public void testEventsOfAPaymentAreAppliedInOrder() throws Exception {
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final AdyenNotificationExecutor executor = new AdyenNotificationExecutor(4, 10, metrics);
+    final List<String> applied = new CopyOnWriteArrayList<>();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      final CompletableFuture<Void> authorisation =
+          CompletableFuture.runAsync(
+              () ->
+                  execute(
+                      executor,
+                      buildItem("AUTHORISATION", "8815", null),
+                      () -> {
+                        started.countDown();
+                        release.await();
+                      },
+                      applied));
+      Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+      // Same payment: waits for the authorisation
+      final CompletableFuture<Void> capture =
+          CompletableFuture.runAsync(
+              () -> execute(executor, buildItem("CAPTURE", "8816", "8815"), () -> {}, applied));
+      Thread.sleep(200);
+      Assert.assertEquals(applied, ImmutableList.of());
+
+      release.countDown();
+      authorisation.get(5, TimeUnit.SECONDS);
+      capture.get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(applied, ImmutableList.of("AUTHORISATION", "CAPTURE"));
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testFailuresArePropagated() throws Exception {
+    final AdyenNotificationExecutor executor =
+        new AdyenNotificationExecutor(2, 10, new AdyenMetrics());
+    try {
+      executor.execute(
+          ImmutableList.of(buildItem("AUTHORISATION", "8815", null)),
+          items -> {
+            throw new IOException("Kill Bill is unavailable");
+          });
+      Assert.fail("Failure should have been propagated");
+    } catch (final IOException e) {
+      Assert.assertEquals(e.getMessage(), "Kill Bill is unavailable");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testFullStripeRejectsTheNotification() throws Exception {
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final AdyenNotificationExecutor executor = new AdyenNotificationExecutor(1, 1, metrics);
+    final List<String> applied = new CopyOnWriteArrayList<>();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      final CompletableFuture<Void> authorisation =
+          CompletableFuture.runAsync(
+              () ->
+                  execute(
+                      executor,
+                      buildItem("AUTHORISATION", "8815", null),
+                      () -> {
+                        started.countDown();
+                        release.await();
+                      },
+                      applied));
+      Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+      final CompletableFuture<Void> capture =
+          CompletableFuture.runAsync(
+              () -> execute(executor, buildItem("CAPTURE", "8816", "8815"), () -> {}, applied));
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (metrics.getGauges().get("adyen_notification_stripe_queued{stripe=\"0\"}").intValue()
+              == 0
+          && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+
+      try {
+        execute(executor, buildItem("REFUND", "8817", "8815"), () -> {}, applied);
+        Assert.fail("Notification should have been rejected");
+      } catch (final RuntimeException e) {
+        Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+      }
+      Assert.assertEquals(
+          metrics.getCounters().get("adyen_notification_stripe_rejected_total"), Long.valueOf(1));
+
+      release.countDown();
+      authorisation.get(5, TimeUnit.SECONDS);
+      capture.get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(applied, ImmutableList.of("AUTHORISATION", "CAPTURE"));
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @FunctionalInterface
+  private interface Step {
+
+    void run() throws Exception;
+  }
+
+  private static void execute(
+      final AdyenNotificationExecutor executor,
+      final NotificationRequestItem item,
+      final Step step,
+      final List<String> applied) {
+    try {
+      executor.execute(
+          ImmutableList.of(item),
+          items -> {
+            step.run();
+            applied.add(items.get(0).getEventCode());
+          });
+    } catch (final Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static NotificationRequestItem buildItem(
+      final String eventCode, final String pspReference, final String originalReference) {
+    final NotificationRequestItem item = new NotificationRequestItem();
+    item.setEventCode(eventCode);
+    item.setPspReference(pspReference);
+    item.setOriginalReference(originalReference);
+    return item;
+  }
+}
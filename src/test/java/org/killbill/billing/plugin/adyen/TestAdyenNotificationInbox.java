@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.notification.WebhookHandler;
+import com.google.common.collect.ImmutableList;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenHmacValidator;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationInbox;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationParking;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsInboxRecord;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenNotificationInbox extends TestBase {
+
+  private static final String EMPTY_NOTIFICATION = "{\"live\":\"false\",\"notificationItems\":[]}";
+  private static final DateTime START = new DateTime(2026, 1, 1, 0, 0, DateTimeZone.UTC);
+
+  @Test(groups = "slow")
+  public void testClaimAndRelease() throws Exception {
+    dao.enqueueNotification(EMPTY_NOTIFICATION, clock.getUTCNow());
+    Assert.assertEquals(dao.getNotificationInboxStats().value1(), Integer.valueOf(1));
+
+    final List<AdyenNotificationsInboxRecord> claimed =
+        dao.claimNotifications(10, clock.getUTCNow());
+    Assert.assertEquals(claimed.size(), 1);
+    Assert.assertEquals(claimed.get(0).getStatus(), AdyenDao.INBOX_PROCESSING);
+    Assert.assertEquals(claimed.get(0).getAttempts(), Integer.valueOf(1));
+    // Already claimed
+    Assert.assertTrue(dao.claimNotifications(10, clock.getUTCNow()).isEmpty());
+
+    dao.releaseNotification(
+        claimed.get(0).getRecordId(),
+        "boom",
+        clock.getUTCNow(),
+        clock.getUTCNow().minusSeconds(1));
+    final List<AdyenNotificationsInboxRecord> reclaimed =
+        dao.claimNotifications(10, clock.getUTCNow());
+    Assert.assertEquals(reclaimed.size(), 1);
+    Assert.assertEquals(reclaimed.get(0).getAttempts(), Integer.valueOf(2));
+
+    dao.deleteNotificationFromInbox(reclaimed.get(0).getRecordId());
+    Assert.assertEquals(dao.getNotificationInboxStats().value1(), Integer.valueOf(0));
+  }
+
+  @Test(groups = "slow")
+  public void testParkedNotificationsAreKeptApartAndStillSigned() throws Exception {
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final Properties properties = new Properties();
+    properties.put("org.killbill.billing.plugin.adyen.notificationParking.maxSize", "10");
+    final AdyenNotificationParking parking =
+        new AdyenNotificationParking(
+            dao, clock, new AdyenConfigProperties(properties, ""), metrics);
+    parking.park(
+        ImmutableList.of(TestAdyenHmacValidator.buildSignedItem(TestAdyenHmacValidator.HMAC_KEY)));
+    Assert.assertEquals(dao.countParkedNotifications(), 1);
+    // Not picked up by the inbox
+    Assert.assertEquals(dao.getNotificationInboxStats().value1(), Integer.valueOf(0));
+    Assert.assertTrue(dao.claimNotifications(10, clock.getUTCNow()).isEmpty());
+
+    // Due after a second
+    final DateTime now = clock.getUTCNow().plusSeconds(2);
+    final List<AdyenNotificationsInboxRecord> claimed =
+        dao.claimParkedNotifications(10, now, now.plusMinutes(5));
+    Assert.assertEquals(claimed.size(), 1);
+    Assert.assertEquals(claimed.get(0).getAttempts(), Integer.valueOf(1));
+    // Leased
+    Assert.assertTrue(dao.claimParkedNotifications(10, now, now.plusMinutes(5)).isEmpty());
+
+    final NotificationRequestItem item =
+        new WebhookHandler()
+            .handleNotificationJson(claimed.get(0).getNotification())
+            .getNotificationItems()
+            .get(0);
+    Assert.assertTrue(new AdyenHmacValidator().isValid(item, TestAdyenHmacValidator.HMAC_KEY));
+
+    dao.rescheduleParkedNotification(claimed.get(0).getRecordId(), null, now, now);
+    Assert.assertEquals(
+        dao.claimParkedNotifications(10, now, now.plusMinutes(5)).get(0).getAttempts(),
+        Integer.valueOf(2));
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_notification_parked_total"), Long.valueOf(1));
+  }
+
+  @Test(groups = "slow")
+  public void testFailuresAreRetriedWithBackoff() throws Exception {
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final AdyenPaymentPluginApi pluginApi = Mockito.mock(AdyenPaymentPluginApi.class);
+    Mockito.doThrow(new SQLException("boom"))
+        .when(pluginApi)
+        .handleNotification(Mockito.anyString(), Mockito.any());
+    final AdyenNotificationInbox inbox = inbox(pluginApi, 3, metrics);
+    at(0);
+    inbox.enqueue(EMPTY_NOTIFICATION);
+
+    inbox.drain();
+    assertAttempts(pluginApi, 1);
+    // 2s after the first attempt, then 4s
+    at(1);
+    inbox.drain();
+    assertAttempts(pluginApi, 1);
+    at(3);
+    inbox.drain();
+    assertAttempts(pluginApi, 2);
+    at(6);
+    inbox.drain();
+    assertAttempts(pluginApi, 2);
+    at(8);
+    inbox.drain();
+    assertAttempts(pluginApi, 3);
+
+    // Given up after maxAttempts
+    at(3600);
+    inbox.drain();
+    assertAttempts(pluginApi, 3);
+    Assert.assertEquals(dao.getNotificationInboxStats().value1(), Integer.valueOf(0));
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_notification_inbox_retried_total"), Long.valueOf(2));
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_notification_inbox_failed_total"), Long.valueOf(1));
+  }
+
+  @Test(groups = "slow")
+  public void testStaleClaimsAreReleased() throws Exception {
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final AdyenPaymentPluginApi pluginApi = Mockito.mock(AdyenPaymentPluginApi.class);
+    final AdyenNotificationInbox inbox = inbox(pluginApi, 3, metrics);
+    at(0);
+    inbox.enqueue(EMPTY_NOTIFICATION);
+    // Claimed by a node which then went away
+    Assert.assertEquals(dao.claimNotifications(10, clock.getUTCNow()).size(), 1);
+
+    at(5 * 60);
+    inbox.refreshStats();
+    inbox.drain();
+    assertAttempts(pluginApi, 0);
+
+    at(11 * 60);
+    inbox.refreshStats();
+    inbox.drain();
+    assertAttempts(pluginApi, 1);
+    Assert.assertEquals(dao.getNotificationInboxStats().value1(), Integer.valueOf(0));
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_notification_inbox_processed_total"), Long.valueOf(1));
+  }
+
+  private AdyenNotificationInbox inbox(
+      final AdyenPaymentPluginApi pluginApi, final int maxAttempts, final AdyenMetrics metrics) {
+    final Properties properties = new Properties();
+    properties.put(
+        "org.killbill.billing.plugin.adyen.notificationInbox.maxAttempts",
+        String.valueOf(maxAttempts));
+    return new AdyenNotificationInbox(
+        dao, pluginApi, clock, new AdyenConfigProperties(properties, ""), metrics);
+  }
+
+  // Whole seconds from START: the clock then moves on by the milliseconds the test takes
+  private void at(final int seconds) {
+    clock.setTime(START.plusSeconds(seconds));
+  }
+
+  private static void assertAttempts(final AdyenPaymentPluginApi pluginApi, final int attempts)
+      throws Exception {
+    Mockito.verify(pluginApi, Mockito.times(attempts))
+        .handleNotification(Mockito.anyString(), Mockito.any());
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.notification.WebhookHandler;
+import com.google.common.collect.ImmutableList;
+import java.math.BigDecimal;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.osgi.libs.killbill.OSGIConfigPropertiesService;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenHmacValidator;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationDeduplicator;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationParking;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationValidator;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestAdyenNotificationParking extends TestBase {
+
+  private static final DateTime START = new DateTime(2026, 1, 1, 0, 0, DateTimeZone.UTC);
+
+  private AdyenMetrics metrics;
+  // Calls to the matcher
+  private AtomicInteger attempts;
+
+  @BeforeMethod(groups = "slow")
+  public void setUpParking() {
+    metrics = new AdyenMetrics();
+    attempts = new AtomicInteger();
+  }
+
+  @Test(groups = "slow")
+  public void testItemIsMatchedOnceItsPaymentIsStored() throws Exception {
+    final AdyenNotificationParking parking = parking(10, 600);
+    final UUID kbTransactionId = UUID.randomUUID();
+    at(0);
+    parking.park(ImmutableList.of(buildItem(kbTransactionId.toString())));
+
+    at(2);
+    parking.retryDue(this::isStored);
+    Assert.assertEquals(attempts.get(), 1);
+    Assert.assertEquals(dao.countParkedNotifications(), 1);
+
+    // The call which created the payment commits its response
+    dao.addResponse(
+        UUID.randomUUID(),
+        UUID.randomUUID(),
+        kbTransactionId,
+        TransactionType.PURCHASE,
+        new BigDecimal("10.00"),
+        Currency.EUR,
+        PaymentPluginStatus.PENDING,
+        null,
+        new ProcessorOutputDTO(),
+        UUID.randomUUID());
+    at(5);
+    parking.retryDue(this::isStored);
+    Assert.assertEquals(attempts.get(), 2);
+    Assert.assertEquals(dao.countParkedNotifications(), 0);
+    Assert.assertEquals(counter("adyen_notification_parked_matched_total"), 1);
+  }
+
+  @Test(groups = "slow")
+  public void testRetriesBackOff() throws Exception {
+    final AdyenNotificationParking parking = parking(10, 3600);
+    at(0);
+    parking.park(ImmutableList.of(buildItem(UUID.randomUUID().toString())));
+
+    int now = 2;
+    at(now);
+    parking.retryDue(this::isStored);
+    Assert.assertEquals(attempts.get(), 1);
+    // 2s after the first attempt, then doubling up to a minute
+    for (final int backoff : new int[] {2, 4, 8, 16, 32, 60, 60}) {
+      final int attempted = attempts.get();
+      at(now + backoff - 1);
+      parking.retryDue(this::isStored);
+      Assert.assertEquals(attempts.get(), attempted, "Retried before " + backoff + "s");
+
+      now += backoff + 1;
+      at(now);
+      parking.retryDue(this::isStored);
+      Assert.assertEquals(attempts.get(), attempted + 1, "Not retried after " + backoff + "s");
+    }
+    Assert.assertEquals(dao.countParkedNotifications(), 1);
+  }
+
+  @Test(groups = "slow")
+  public void testItemExpiresAfterMaxAge() throws Exception {
+    final AdyenNotificationParking parking = parking(10, 10);
+    at(0);
+    parking.park(ImmutableList.of(buildItem(UUID.randomUUID().toString())));
+
+    at(5);
+    parking.retryDue(this::isStored);
+    Assert.assertEquals(dao.countParkedNotifications(), 1);
+
+    at(12);
+    parking.retryDue(this::isStored);
+    Assert.assertEquals(attempts.get(), 2);
+    Assert.assertEquals(dao.countParkedNotifications(), 0);
+    Assert.assertEquals(counter("adyen_notification_parked_expired_total"), 1);
+  }
+
+  @Test(groups = "slow")
+  public void testItemsAreDroppedPastMaxSize() throws Exception {
+    final AdyenNotificationParking parking = parking(2, 600);
+    at(0);
+    parking.park(
+        ImmutableList.of(
+            buildItem(UUID.randomUUID().toString()),
+            buildItem(UUID.randomUUID().toString()),
+            buildItem(UUID.randomUUID().toString())));
+    parking.park(ImmutableList.of(buildItem(UUID.randomUUID().toString())));
+
+    Assert.assertEquals(dao.countParkedNotifications(), 2);
+    Assert.assertEquals(counter("adyen_notification_parked_total"), 2);
+    Assert.assertEquals(counter("adyen_notification_parked_dropped_total"), 2);
+    Assert.assertEquals(metrics.getGauges().get("adyen_notification_parked").longValue(), 2);
+  }
+
+  @Test(groups = "slow")
+  public void testOnlySignedItemsAreParked() throws Exception {
+    final Properties properties = new Properties();
+    properties.setProperty("org.killbill.billing.plugin.adyen.merchantAccount", "TestMerchant");
+    properties.setProperty(
+        "org.killbill.billing.plugin.adyen.hcmaKey", TestAdyenHmacValidator.HMAC_KEY);
+    final AdyenConfigProperties configuration = new AdyenConfigProperties(properties, "");
+    adyenConfigPropertiesConfigurationHandler.setDefaultConfigurable(configuration);
+    final AdyenPaymentPluginApi pluginApi =
+        new AdyenPaymentPluginApi(
+            adyenConfigPropertiesConfigurationHandler,
+            killbillApi,
+            Mockito.mock(OSGIConfigPropertiesService.class),
+            clock,
+            dao,
+            new GatewayProcessorRegistry(adyenConfigPropertiesConfigurationHandler, metrics),
+            new AdyenNotificationDeduplicator(configuration, metrics),
+            new AdyenNotificationValidator(
+                adyenConfigPropertiesConfigurationHandler, new AdyenHmacValidator(), metrics),
+            null,
+            parking(10, 600));
+
+    final NotificationRequestItem forged =
+        TestAdyenHmacValidator.buildSignedItem(TestAdyenHmacValidator.HMAC_KEY);
+    forged.setPspReference("7914073381342285");
+    pluginApi.handleNotification(
+        TestAdyenNotificationValidator.toJson(forged), ImmutableList.of());
+    final NotificationRequestItem unknown =
+        TestAdyenHmacValidator.buildSignedItem(TestAdyenHmacValidator.HMAC_KEY);
+    unknown.setMerchantAccountCode("OtherMerchant");
+    pluginApi.handleNotification(
+        TestAdyenNotificationValidator.toJson(unknown), ImmutableList.of());
+    Assert.assertEquals(dao.countParkedNotifications(), 0);
+
+    // Its payment is not stored yet
+    pluginApi.handleNotification(
+        TestAdyenNotificationValidator.toJson(
+            TestAdyenHmacValidator.buildSignedItem(TestAdyenHmacValidator.HMAC_KEY)),
+        ImmutableList.of());
+    Assert.assertEquals(dao.countParkedNotifications(), 1);
+  }
+
+  private AdyenNotificationParking parking(final int maxSize, final int maxAgeSeconds) {
+    final Properties properties = new Properties();
+    properties.put(
+        "org.killbill.billing.plugin.adyen.notificationParking.maxSize", String.valueOf(maxSize));
+    properties.put(
+        "org.killbill.billing.plugin.adyen.notificationParking.maxAgeSeconds",
+        String.valueOf(maxAgeSeconds));
+    return new AdyenNotificationParking(
+        dao, clock, new AdyenConfigProperties(properties, ""), metrics);
+  }
+
+  // Whole seconds from START: the clock then moves on by the milliseconds the test takes
+  private void at(final int seconds) {
+    clock.setTime(START.plusSeconds(seconds));
+  }
+
+  private boolean isStored(final String notification) throws Exception {
+    attempts.incrementAndGet();
+    final String merchantReference =
+        new WebhookHandler()
+            .handleNotificationJson(notification)
+            .getNotificationItems()
+            .get(0)
+            .getMerchantReference();
+    return !dao.getResponsesFromMerchantReferences(ImmutableList.of(merchantReference)).isEmpty();
+  }
+
+  private long counter(final String name) {
+    return metrics.getCounters().getOrDefault(name, 0L);
+  }
+
+  private static NotificationRequestItem buildItem(final String merchantReference) {
+    final NotificationRequestItem item = new NotificationRequestItem();
+    item.setEventCode("AUTHORISATION");
+    item.setPspReference(String.valueOf(System.nanoTime()));
+    item.setMerchantReference(merchantReference);
+    item.setSuccess(true);
+    return item;
+  }
+}
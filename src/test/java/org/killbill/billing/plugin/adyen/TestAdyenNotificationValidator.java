@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.notification.NotificationRequest;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.google.common.collect.ImmutableList;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.UUID;
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.plugin.adyen.api.exceptions.NotificationRejectedException;
+import org.killbill.billing.plugin.adyen.api.exceptions.NotificationRejectedException.Reason;
+import org.killbill.billing.plugin.adyen.core.AdyenActivator;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
+import org.killbill.billing.plugin.adyen.core.AdyenHmacValidator;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationValidator;
+import org.killbill.billing.tenant.api.TenantUserApi;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestAdyenNotificationValidator {
+
+  private static final String PREFIX = "org.killbill.billing.plugin.adyen.";
+  private static final String AUTHORIZATION =
+      "Basic " + Base64.getEncoder().encodeToString("kb:secret".getBytes(StandardCharsets.UTF_8));
+
+  private AdyenMetrics metrics;
+  private AdyenNotificationValidator validator;
+
+  @BeforeMethod(groups = "fast")
+  public void setUp() {
+    final Properties properties = new Properties();
+    properties.setProperty(PREFIX + "merchantAccount", "TestMerchant");
+    properties.setProperty(PREFIX + "hcmaKey", TestAdyenHmacValidator.HMAC_KEY);
+    properties.setProperty(PREFIX + "username", "kb");
+    properties.setProperty(PREFIX + "password", "secret");
+
+    final AdyenConfigurationHandler configurationHandler =
+        new AdyenConfigurationHandler(
+            null, AdyenActivator.PLUGIN_NAME, Mockito.mock(OSGIKillbillAPI.class));
+    configurationHandler.setDefaultConfigurable(new AdyenConfigProperties(properties, ""));
+
+    metrics = new AdyenMetrics();
+    validator =
+        new AdyenNotificationValidator(configurationHandler, new AdyenHmacValidator(), metrics);
+  }
+
+  @Test(groups = "fast")
+  public void testAcceptsSignedNotification() throws Exception {
+    final NotificationRequestItem item =
+        TestAdyenHmacValidator.buildSignedItem(TestAdyenHmacValidator.HMAC_KEY);
+
+    final NotificationRequest notificationRequest = validator.validate(toJson(item), AUTHORIZATION);
+    Assert.assertEquals(notificationRequest.getNotificationItems().size(), 1);
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_notification_items_verified_total"), Long.valueOf(1));
+  }
+
+  @Test(groups = "fast")
+  public void testRejectsForgedNotifications() throws Exception {
+    final NotificationRequestItem item =
+        TestAdyenHmacValidator.buildSignedItem(TestAdyenHmacValidator.HMAC_KEY);
+
+    assertRejected("{", AUTHORIZATION, Reason.MALFORMED);
+    assertRejected("{\"notificationItems\":[]}", AUTHORIZATION, Reason.MALFORMED);
+    assertRejected(toJson(item), null, Reason.UNAUTHORIZED);
+    assertRejected(toJson(item), "Basic a2I6d3Jvbmc=", Reason.UNAUTHORIZED);
+
+    item.setSuccess(false);
+    assertRejected(toJson(item), AUTHORIZATION, Reason.INVALID_HMAC);
+
+    item.setMerchantAccountCode("OtherMerchant");
+    assertRejected(toJson(item), null, Reason.UNKNOWN_MERCHANT_ACCOUNT);
+    // Even with the global credentials
+    assertRejected(toJson(item), AUTHORIZATION, Reason.UNKNOWN_MERCHANT_ACCOUNT);
+  }
+
+  @Test(groups = "fast")
+  public void testKillbillRouteOnlyChecksSignatures() throws Exception {
+    final NotificationRequestItem item =
+        TestAdyenHmacValidator.buildSignedItem(TestAdyenHmacValidator.HMAC_KEY);
+    // Authenticated by Kill Bill, which does not forward Adyen's credentials
+    Assert.assertEquals(
+        validator.validateSignatures(toJson(item)).getNotificationItems().size(), 1);
+
+    item.setSuccess(false);
+    try {
+      validator.validateSignatures(toJson(item));
+      Assert.fail("Notification should have been rejected");
+    } catch (final NotificationRejectedException e) {
+      Assert.assertEquals(e.getReason(), Reason.INVALID_HMAC);
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testAcceptsAnyTenantSharingTheMerchantAccount() throws Exception {
+    final String otherHmacKey = TestAdyenHmacValidator.HMAC_KEY.replace('4', '5');
+    final UUID firstTenantId = UUID.randomUUID();
+    final UUID secondTenantId = UUID.randomUUID();
+    final TenantUserApi tenantUserApi = Mockito.mock(TenantUserApi.class);
+    mockTenantConfiguration(tenantUserApi, firstTenantId, TestAdyenHmacValidator.HMAC_KEY);
+    mockTenantConfiguration(tenantUserApi, secondTenantId, otherHmacKey);
+    final OSGIKillbillAPI killbillApi = Mockito.mock(OSGIKillbillAPI.class);
+    Mockito.when(killbillApi.getTenantUserApi()).thenReturn(tenantUserApi);
+    final AdyenConfigurationHandler configurationHandler =
+        new AdyenConfigurationHandler(null, AdyenActivator.PLUGIN_NAME, killbillApi);
+    configurationHandler.index(ImmutableList.of(firstTenantId, secondTenantId));
+    final AdyenNotificationValidator sharedValidator =
+        new AdyenNotificationValidator(configurationHandler, new AdyenHmacValidator(), metrics);
+
+    Assert.assertEquals(
+        configurationHandler.getConfigurablesForMerchantAccount("TestMerchant").size(), 2);
+    sharedValidator.validate(
+        toJson(TestAdyenHmacValidator.buildSignedItem(TestAdyenHmacValidator.HMAC_KEY)), null);
+    sharedValidator.validate(toJson(TestAdyenHmacValidator.buildSignedItem(otherHmacKey)), null);
+    try {
+      sharedValidator.validate(
+          toJson(
+              TestAdyenHmacValidator.buildSignedItem(
+                  TestAdyenHmacValidator.HMAC_KEY.replace('4', '6'))),
+          null);
+      Assert.fail("Notification should have been rejected");
+    } catch (final NotificationRejectedException e) {
+      Assert.assertEquals(e.getReason(), Reason.INVALID_HMAC);
+    }
+  }
+
+  private static void mockTenantConfiguration(
+      final TenantUserApi tenantUserApi, final UUID kbTenantId, final String hmacKey)
+      throws Exception {
+    Mockito.when(
+            tenantUserApi.getTenantValuesForKey(
+                Mockito.eq("PLUGIN_CONFIG_" + AdyenActivator.PLUGIN_NAME),
+                Mockito.argThat(context -> kbTenantId.equals(context.getTenantId()))))
+        .thenReturn(
+            ImmutableList.of(
+                PREFIX + "merchantAccount=TestMerchant\n" + PREFIX + "hcmaKey=" + hmacKey));
+  }
+
+  private void assertRejected(final String body, final String authorization, final Reason reason) {
+    try {
+      validator.validate(body, authorization);
+      Assert.fail("Notification should have been rejected");
+    } catch (final NotificationRejectedException e) {
+      Assert.assertEquals(e.getReason(), reason);
+    }
+  }
+
+  static String toJson(final NotificationRequestItem item) {
+    return "{\"live\":\"false\",\"notificationItems\":[{\"NotificationRequestItem\":{"
+        + "\"additionalData\":{\"hmacSignature\":\""
+        + item.getAdditionalData().get(AdyenHmacValidator.HMAC_SIGNATURE)
+        + "\"},\"amount\":{\"currency\":\""
+        + item.getAmount().getCurrency()
+        + "\",\"value\":"
+        + item.getAmount().getValue()
+        + "},\"eventCode\":\""
+        + item.getEventCode()
+        + "\",\"merchantAccountCode\":\""
+        + item.getMerchantAccountCode()
+        + "\",\"merchantReference\":\""
+        + item.getMerchantReference()
+        + "\",\"originalReference\":\""
+        + item.getOriginalReference()
+        + "\",\"pspReference\":\""
+        + item.getPspReference()
+        + "\",\"success\":\""
+        + item.isSuccess()
+        + "\"}}]}";
+  }
+}
@@ -17,16 +17,28 @@
 
 package org.killbill.billing.plugin.adyen;
 
+import com.adyen.model.notification.NotificationRequest;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.notification.WebhookHandler;
 import com.google.common.collect.ImmutableList;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import org.jooby.Result;
+import org.jooby.Status;
+import org.killbill.billing.ErrorCode;
+import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.osgi.api.Healthcheck;
+import org.killbill.billing.osgi.libs.killbill.OSGIConfigPropertiesService;
 import org.killbill.billing.payment.api.Payment;
 import org.killbill.billing.payment.api.PaymentApiException;
 import org.killbill.billing.payment.api.PaymentMethodPlugin;
 import org.killbill.billing.payment.api.PaymentTransaction;
+import org.killbill.billing.payment.api.TransactionStatus;
 import org.killbill.billing.payment.api.TransactionType;
 import org.killbill.billing.payment.plugin.api.PaymentMethodInfoPlugin;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
@@ -35,8 +47,25 @@ import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
 import org.killbill.billing.plugin.TestUtils;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentMethodInfoPlugin;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentMethodPlugin;
+import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.api.exceptions.NotificationRejectedException;
+import org.killbill.billing.plugin.adyen.client.AsyncGatewayProcessor;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessor;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 import org.killbill.billing.plugin.adyen.core.AdyenHealthcheck;
+import org.killbill.billing.plugin.adyen.core.AdyenHmacValidator;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationDeduplicator;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationExecutor;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationInbox;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationValidator;
+import org.killbill.billing.plugin.adyen.core.resources.AdyenNotificationServlet;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -265,6 +294,216 @@ public class TestAdyenPaymentPluginApi extends TestBase {
     Assert.assertEquals(AdyenPaymentMethodInfoPlugin.build(methodRecord).getAccountId(), account.getId());
   }
 
+  @Test(groups = "slow")
+  public void testKillbillIsNotifiedAgainAfterAFailure() throws Exception {
+    final Properties properties = new Properties();
+    properties.setProperty(
+        "org.killbill.billing.plugin.adyen.hcmaKey", TestAdyenHmacValidator.HMAC_KEY);
+    adyenConfigPropertiesConfigurationHandler.setDefaultConfigurable(
+        new AdyenConfigProperties(properties, ""));
+    final WebhookLoadGenerator generator =
+        new WebhookLoadGenerator("TestMerchant", TestAdyenHmacValidator.HMAC_KEY, 0L);
+    final String notification = generator.seed(dao, UUID.randomUUID(), 1, 1).get(0);
+
+    final PaymentTransaction transaction = Mockito.mock(PaymentTransaction.class);
+    Mockito.when(transaction.getId())
+        .thenReturn(UUID.fromString(generator.getMerchantReferences().get(0)));
+    Mockito.when(transaction.getTransactionStatus()).thenReturn(TransactionStatus.PENDING);
+    final Payment payment = Mockito.mock(Payment.class);
+    Mockito.when(payment.getTransactions()).thenReturn(ImmutableList.of(transaction));
+    Mockito.when(
+            paymentApi.getPayment(
+                Mockito.any(UUID.class),
+                Mockito.anyBoolean(),
+                Mockito.anyBoolean(),
+                Mockito.any(),
+                Mockito.any(TenantContext.class)))
+        .thenReturn(payment);
+    Mockito.when(
+            paymentApi.notifyPendingTransactionOfStateChanged(
+                Mockito.any(), Mockito.any(UUID.class), Mockito.anyBoolean(), Mockito.any()))
+        .thenThrow(new PaymentApiException(ErrorCode.PAYMENT_PLUGIN_EXCEPTION, "Unavailable"))
+        .thenReturn(payment);
+
+    try {
+      adyenPaymentPluginApi.handleNotification(notification, ImmutableList.of());
+      Assert.fail("Kill Bill failure should have been propagated");
+    } catch (final PaymentApiException e) {
+      // Retried by the inbox, or redelivered by Adyen
+    }
+    // Already stored: only Kill Bill is notified
+    adyenPaymentPluginApi.handleNotification(notification, ImmutableList.of());
+    // Remembered as applied from now on
+    adyenPaymentPluginApi.handleNotification(notification, ImmutableList.of());
+
+    Mockito.verify(paymentApi, Mockito.times(2))
+        .notifyPendingTransactionOfStateChanged(
+            Mockito.any(), Mockito.any(UUID.class), Mockito.anyBoolean(), Mockito.any());
+  }
+
+  @Test(groups = "slow")
+  public void testKillbillFailureIsNotAccepted() throws Exception {
+    final Properties properties = new Properties();
+    properties.setProperty("org.killbill.billing.plugin.adyen.merchantAccount", "TestMerchant");
+    properties.setProperty(
+        "org.killbill.billing.plugin.adyen.hcmaKey", TestAdyenHmacValidator.HMAC_KEY);
+    final AdyenConfigProperties configuration = new AdyenConfigProperties(properties, "");
+    adyenConfigPropertiesConfigurationHandler.setDefaultConfigurable(configuration);
+    final WebhookLoadGenerator generator =
+        new WebhookLoadGenerator("TestMerchant", TestAdyenHmacValidator.HMAC_KEY, 0L);
+    final String notification = generator.seed(dao, UUID.randomUUID(), 1, 1).get(0);
+
+    final PaymentTransaction transaction = Mockito.mock(PaymentTransaction.class);
+    Mockito.when(transaction.getId())
+        .thenReturn(UUID.fromString(generator.getMerchantReferences().get(0)));
+    Mockito.when(transaction.getTransactionStatus()).thenReturn(TransactionStatus.PENDING);
+    final Payment payment = Mockito.mock(Payment.class);
+    Mockito.when(payment.getTransactions()).thenReturn(ImmutableList.of(transaction));
+    Mockito.when(
+            paymentApi.getPayment(
+                Mockito.any(UUID.class),
+                Mockito.anyBoolean(),
+                Mockito.anyBoolean(),
+                Mockito.any(),
+                Mockito.any(TenantContext.class)))
+        .thenReturn(payment);
+    Mockito.when(
+            paymentApi.notifyPendingTransactionOfStateChanged(
+                Mockito.any(), Mockito.any(UUID.class), Mockito.anyBoolean(), Mockito.any()))
+        .thenThrow(new PaymentApiException(ErrorCode.PAYMENT_PLUGIN_EXCEPTION, "Unavailable"));
+
+    // Through Kill Bill's notification route
+    try {
+      adyenPaymentPluginApi.processNotification(notification, ImmutableList.of(), context);
+      Assert.fail("Kill Bill failure should have been propagated");
+    } catch (final PaymentPluginApiException e) {
+      Assert.assertTrue(e.getCause() instanceof PaymentApiException);
+    }
+
+    // Through the plugin's own servlet: a 5xx, so that Adyen delivers it again
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final AdyenNotificationServlet servlet =
+        new AdyenNotificationServlet(
+            adyenPaymentPluginApi,
+            new AdyenNotificationInbox(dao, adyenPaymentPluginApi, clock, configuration, metrics),
+            new AdyenNotificationValidator(
+                adyenConfigPropertiesConfigurationHandler, new AdyenHmacValidator(), metrics));
+    final Result result = servlet.notification(notification, Optional.empty());
+    Assert.assertEquals(result.status().orElse(Status.OK), Status.SERVER_ERROR);
+  }
+
+  @Test(groups = "slow")
+  public void testRejectedNotificationIsNotAccepted() throws Exception {
+    final AdyenConfigProperties configuration = new AdyenConfigProperties(new Properties(), "");
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final AdyenNotificationExecutor notificationExecutor =
+        Mockito.mock(AdyenNotificationExecutor.class);
+    Mockito.doThrow(new RejectedExecutionException("Stripe queue full"))
+        .when(notificationExecutor)
+        .execute(Mockito.anyList(), Mockito.any());
+    final AdyenPaymentPluginApi pluginApi =
+        new AdyenPaymentPluginApi(
+            adyenConfigPropertiesConfigurationHandler,
+            killbillApi,
+            Mockito.mock(OSGIConfigPropertiesService.class),
+            clock,
+            dao,
+            new GatewayProcessorRegistry(adyenConfigPropertiesConfigurationHandler, metrics),
+            new AdyenNotificationDeduplicator(configuration, metrics),
+            new AdyenNotificationValidator(
+                adyenConfigPropertiesConfigurationHandler, new AdyenHmacValidator(), metrics),
+            notificationExecutor,
+            null);
+
+    final String notification =
+        new WebhookLoadGenerator("TestMerchant", TestAdyenHmacValidator.HMAC_KEY, 0L)
+            .seed(dao, UUID.randomUUID(), 1, 1)
+            .get(0);
+    final NotificationRequest notificationRequest =
+        new WebhookHandler().handleNotificationJson(notification);
+
+    // Answered with a 5xx by the servlet, so that Adyen delivers it again
+    try {
+      pluginApi.processNotification(notificationRequest, null);
+      Assert.fail("Rejection should have been propagated");
+    } catch (final RejectedExecutionException e) {
+      Assert.assertEquals(e.getMessage(), "Stripe queue full");
+    }
+  }
+
+  @Test(groups = "slow")
+  public void testForgedNotificationIsRejected() throws Exception {
+    final Properties properties = new Properties();
+    properties.setProperty("org.killbill.billing.plugin.adyen.merchantAccount", "TestMerchant");
+    properties.setProperty(
+        "org.killbill.billing.plugin.adyen.hcmaKey", TestAdyenHmacValidator.HMAC_KEY);
+    adyenConfigPropertiesConfigurationHandler.setDefaultConfigurable(
+        new AdyenConfigProperties(properties, ""));
+    final NotificationRequestItem item =
+        TestAdyenHmacValidator.buildSignedItem(TestAdyenHmacValidator.HMAC_KEY);
+    item.setSuccess(false);
+
+    try {
+      adyenPaymentPluginApi.processNotification(
+          TestAdyenNotificationValidator.toJson(item), ImmutableList.of(), context);
+      Assert.fail("Forged notification should have been rejected");
+    } catch (final PaymentPluginApiException e) {
+      Assert.assertTrue(e.getCause() instanceof NotificationRejectedException);
+    }
+  }
+
+  @Test(groups = "slow")
+  public void testSynchronousVoidIsNotQueued() throws Exception {
+    final GatewayProcessor processor = Mockito.mock(GatewayProcessor.class);
+    Mockito.when(
+            processor.validateData(Mockito.any(), Mockito.anyMap(), Mockito.any(), Mockito.any()))
+        .thenReturn(new ProcessorInputDTO());
+    final ProcessorOutputDTO output = new ProcessorOutputDTO();
+    output.setFirstPaymentReferenceId("psp-void");
+    Mockito.when(processor.voidPayment(Mockito.any())).thenReturn(output);
+    // The gateway executor is full
+    final GatewayProcessorRegistry registry = Mockito.mock(GatewayProcessorRegistry.class);
+    Mockito.when(registry.getAsync(Mockito.any()))
+        .thenReturn(
+            new AsyncGatewayProcessor(
+                processor,
+                command -> {
+                  throw new RejectedExecutionException("Gateway executor full");
+                }));
+    final AdyenPaymentPluginApi pluginApi =
+        new AdyenPaymentPluginApi(
+            adyenConfigPropertiesConfigurationHandler,
+            killbillApi,
+            Mockito.mock(OSGIConfigPropertiesService.class),
+            clock,
+            dao,
+            registry);
+
+    final UUID kbAccountId = UUID.randomUUID();
+    final UUID kbPaymentId = UUID.randomUUID();
+    final ProcessorOutputDTO purchase = new ProcessorOutputDTO();
+    purchase.setPspReferenceCode("psp-purchase");
+    dao.addResponse(
+        kbAccountId,
+        kbPaymentId,
+        UUID.randomUUID(),
+        TransactionType.PURCHASE,
+        new BigDecimal("10.00"),
+        Currency.EUR,
+        PaymentPluginStatus.PROCESSED,
+        null,
+        purchase,
+        context.getTenantId());
+
+    // Sent from Kill Bill's thread rather than queued behind fan-out calls
+    final PaymentTransactionInfoPlugin info =
+        pluginApi.voidPayment(
+            kbAccountId, kbPaymentId, UUID.randomUUID(), null, ImmutableList.of(), context);
+    Assert.assertEquals(info.getStatus(), PaymentPluginStatus.PENDING);
+    Assert.assertEquals(info.getFirstPaymentReferenceId(), "psp-void");
+    Mockito.verify(processor, Mockito.times(1)).voidPayment(Mockito.any());
+  }
+
   private List<PaymentMethodInfoPlugin> syncPaymentMethods(UUID kbAccountId)
       throws PaymentPluginApiException {
     return adyenPaymentPluginApi.getPaymentMethods(kbAccountId, true, ImmutableList.of(), context);
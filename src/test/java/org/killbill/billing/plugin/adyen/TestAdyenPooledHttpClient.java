@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.Config;
+import com.adyen.constants.ApiConstants;
+import com.adyen.httpclient.HTTPClientException;
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+import org.killbill.billing.plugin.adyen.client.AdyenPooledHttpClient;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestAdyenPooledHttpClient {
+
+  private final AtomicReference<String> lastApiKey = new AtomicReference<>();
+  private final AtomicReference<String> lastQuery = new AtomicReference<>();
+
+  private HttpServer server;
+  private String baseUrl;
+  private AdyenPooledHttpClient client;
+
+  @BeforeMethod(groups = "fast")
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          lastApiKey.set(exchange.getRequestHeaders().getFirst("x-api-key"));
+          lastQuery.set(exchange.getRequestURI().getQuery());
+          final boolean fail = exchange.getRequestURI().getPath().endsWith("/fail");
+          final byte[] body =
+              (fail ? "{\"status\":500}" : "{\"pspReference\":\"8515\"}")
+                  .getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().add("Content-Type", "application/json");
+          exchange.sendResponseHeaders(fail ? 500 : 200, body.length);
+          try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        });
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+    final Properties properties = new Properties();
+    properties.put("org.killbill.billing.plugin.adyen.http.maxConnectionsPerRoute", "4");
+    client = new AdyenPooledHttpClient(new AdyenConfigProperties(properties, ""));
+  }
+
+  @AfterMethod(groups = "fast")
+  public void tearDown() {
+    client.close();
+    server.stop(0);
+  }
+
+  @Test(groups = "fast")
+  public void testConnectionsAreReused() throws Exception {
+    final Config config = new Config();
+    config.setApiKey("test-key");
+
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(
+          client.request(
+              baseUrl + "/v71/payments",
+              "{}",
+              config,
+              true,
+              null,
+              ApiConstants.HttpMethod.POST,
+              null),
+          "{\"pspReference\":\"8515\"}");
+    }
+    Assert.assertEquals(lastApiKey.get(), "test-key");
+    Assert.assertEquals(client.getPoolStats().getLeased(), 0);
+    Assert.assertEquals(client.getPoolStats().getAvailable(), 1);
+    Assert.assertEquals(client.getPoolStats().getMax(), 4);
+
+    client.request(
+        baseUrl + "/v71/sessions/1",
+        null,
+        config,
+        true,
+        null,
+        ApiConstants.HttpMethod.GET,
+        ImmutableMap.of("sessionResult", "abc"));
+    Assert.assertEquals(lastQuery.get(), "sessionResult=abc");
+  }
+
+  @Test(groups = "fast")
+  public void testErrorsKeepTheStatusCode() throws Exception {
+    try {
+      client.request(
+          baseUrl + "/v71/fail",
+          "{}",
+          new Config(),
+          true,
+          null,
+          ApiConstants.HttpMethod.POST,
+          null);
+      Assert.fail("Request should have failed");
+    } catch (final HTTPClientException e) {
+      Assert.assertEquals(e.getCode(), 500);
+      Assert.assertEquals(e.getResponseBody(), "{\"status\":500}");
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.checkout.CreateCheckoutSessionRequest;
+import com.adyen.model.checkout.PaymentRequest;
+import java.math.BigDecimal;
+import java.util.Properties;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.plugin.adyen.client.AdyenRequestTemplates;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenRequestTemplates {
+
+  @Test(groups = "fast")
+  public void testTenantFieldsAreFilledIn() {
+    final Properties properties = new Properties();
+    properties.put("org.killbill.billing.plugin.adyen.merchantAccount", "TestMerchant");
+    properties.put("org.killbill.billing.plugin.adyen.returnUrl", "http://localhost/return");
+    properties.put("org.killbill.billing.plugin.adyen.captureDelayHours", "24");
+    final AdyenRequestTemplates templates =
+        new AdyenRequestTemplates(new AdyenConfigProperties(properties, ""));
+
+    final CreateCheckoutSessionRequest session =
+        templates.session(
+            templates.amount(Currency.JPY, new BigDecimal("1000.000000000")),
+            "tx-1",
+            "account-1",
+            true);
+    Assert.assertEquals(session.getMerchantAccount(), "TestMerchant");
+    Assert.assertEquals(session.getReturnUrl(), "http://localhost/return");
+    Assert.assertEquals(session.getCaptureDelayHours(), (Integer) 24);
+    Assert.assertEquals(session.getAmount().getValue(), (Long) 1000L);
+    Assert.assertEquals(session.getReference(), "tx-1");
+    Assert.assertEquals(session.getStorePaymentMethod(), Boolean.TRUE);
+    Assert.assertNull(
+        templates
+            .session(templates.amount(Currency.EUR, BigDecimal.ONE), "tx-2", "account-1", false)
+            .getRecurringProcessingModel());
+
+    final PaymentRequest payment =
+        templates.payment(
+            templates.amount(Currency.EUR, new BigDecimal("10.5")), "tx-3", "account-1", "8315");
+    Assert.assertEquals(payment.getMerchantAccount(), "TestMerchant");
+    Assert.assertEquals(payment.getAmount().getValue(), (Long) 1050L);
+    Assert.assertEquals(payment.getShopperReference(), "account-1");
+    Assert.assertEquals(
+        payment.getRecurringProcessingModel(),
+        PaymentRequest.RecurringProcessingModelEnum.UNSCHEDULEDCARDONFILE);
+
+    Assert.assertEquals(templates.reversal("tx-4").getMerchantAccount(), "TestMerchant");
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.checkout.PaymentRefundResponse;
+import com.adyen.model.checkout.PaymentResponse;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.notification.WebhookHandler;
+import com.adyen.service.exception.ApiException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.plugin.adyen.AdyenSimulator.Endpoint;
+import org.killbill.billing.plugin.adyen.AdyenSimulator.LatencyDistribution;
+import org.killbill.billing.plugin.adyen.api.SessionInputDTO;
+import org.killbill.billing.plugin.adyen.client.AdyenPooledHttpClient;
+import org.killbill.billing.plugin.adyen.client.AdyenSDKClientImpl;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenHmacValidator;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestAdyenSDKClientImpl {
+
+  private static final String HMAC_KEY = TestAdyenHmacValidator.HMAC_KEY;
+
+  private final List<String> notifications = new CopyOnWriteArrayList<>();
+
+  private AdyenSimulator simulator;
+  private AdyenPooledHttpClient httpClient;
+  private AdyenSDKClientImpl client;
+
+  @BeforeMethod(groups = "fast")
+  public void setUp() throws Exception {
+    notifications.clear();
+    simulator =
+        new AdyenSimulator(42L)
+            .withLatency(LatencyDistribution.uniform(1, 5))
+            .withWebhooks(notifications::add, HMAC_KEY, 0)
+            .start();
+
+    final Properties properties = new Properties();
+    properties.put("org.killbill.billing.plugin.adyen.apiKey", "test-key");
+    properties.put("org.killbill.billing.plugin.adyen.merchantAccount", "TestMerchant");
+    properties.put("org.killbill.billing.plugin.adyen.returnUrl", "http://localhost/return");
+    properties.put(
+        "org.killbill.billing.plugin.adyen.checkoutEndpoint", simulator.getCheckoutEndpoint());
+    final AdyenConfigProperties configuration = new AdyenConfigProperties(properties, "");
+    httpClient = new AdyenPooledHttpClient(configuration);
+    client = new AdyenSDKClientImpl(configuration, httpClient);
+  }
+
+  @AfterMethod(groups = "fast")
+  public void tearDown() {
+    httpClient.close();
+    simulator.close();
+  }
+
+  @Test(groups = "fast")
+  public void testCallsAgainstTheSimulator() throws Exception {
+    Assert.assertNotNull(
+        client
+            .checkoutsessions(Currency.EUR, new BigDecimal("10.00"), "tx-1", "account-1", true)
+            .getSessionData());
+
+    final PaymentResponse payment =
+        client.purchase(Currency.EUR, new BigDecimal("10.00"), "tx-2", "account-1", "8315");
+    Assert.assertEquals(payment.getResultCode(), PaymentResponse.ResultCodeEnum.AUTHORISED);
+
+    final PaymentRefundResponse refund =
+        client.refund(Currency.EUR, new BigDecimal("4.00"), "tx-3", payment.getPspReference());
+    Assert.assertEquals(refund.getPaymentPspReference(), payment.getPspReference());
+    Assert.assertEquals(refund.getAmount().getValue(), (Long) 400L);
+
+    Assert.assertEquals(
+        client.reversal("tx-4", payment.getPspReference()).getPaymentPspReference(),
+        payment.getPspReference());
+
+    final SessionInputDTO sessionInputDTO = new SessionInputDTO();
+    sessionInputDTO.setSessionId("CS8315");
+    sessionInputDTO.setSessionResult("result");
+    Assert.assertEquals(
+        client.getResultOfPaymentSession(sessionInputDTO).getSessionStatus(), "completed");
+
+    for (final Endpoint endpoint : Endpoint.values()) {
+      Assert.assertEquals(simulator.getRequestCount(endpoint), 1, endpoint.name());
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testNotificationsAreSigned() throws Exception {
+    final PaymentResponse payment =
+        client.purchase(Currency.EUR, new BigDecimal("11.30"), "tx-1", "account-1", "8315");
+    client.refund(Currency.EUR, new BigDecimal("11.30"), "tx-2", payment.getPspReference());
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (notifications.size() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(notifications.size(), 2);
+
+    final AdyenHmacValidator validator = new AdyenHmacValidator();
+    final WebhookHandler webhookHandler = new WebhookHandler();
+    final NotificationRequestItem authorisation =
+        webhookHandler.handleNotificationJson(notifications.get(0)).getNotificationItems().get(0);
+    Assert.assertEquals(authorisation.getEventCode(), "AUTHORISATION");
+    Assert.assertEquals(authorisation.getMerchantReference(), "tx-1");
+    Assert.assertEquals(authorisation.getAmount().getValue(), (Long) 1130L);
+    Assert.assertTrue(validator.isValid(authorisation, HMAC_KEY));
+
+    final NotificationRequestItem refund =
+        webhookHandler.handleNotificationJson(notifications.get(1)).getNotificationItems().get(0);
+    Assert.assertEquals(refund.getEventCode(), "REFUND");
+    Assert.assertEquals(refund.getOriginalReference(), payment.getPspReference());
+    Assert.assertTrue(validator.isValid(refund, HMAC_KEY));
+  }
+
+  @Test(groups = "fast")
+  public void testInjectedErrors() throws Exception {
+    simulator.withErrors(Endpoint.PAYMENTS, 1.0, 500);
+    try {
+      client.purchase(Currency.EUR, BigDecimal.TEN, "tx-1", "account-1", "8315");
+      Assert.fail("Payment should have failed");
+    } catch (final ApiException e) {
+      Assert.assertEquals(e.getStatusCode(), 500);
+    }
+    Assert.assertTrue(notifications.isEmpty());
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.UUID;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.dao.AdyenSchemaMigrator;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenSchemaMigrator extends TestBase {
+
+  @Test(groups = "slow")
+  public void testMigrationsAreOnlyRecordedOnce() throws Exception {
+    final AdyenSchemaMigrator migrator =
+        new AdyenSchemaMigrator(EmbeddedDbHelper.instance().getDataSource());
+
+    // A response stored before kb_payment_method_id, and its Kill Bill payment
+    final UUID kbPaymentId = UUID.randomUUID();
+    final UUID kbPaymentMethodId = UUID.randomUUID();
+    final AdyenResponsesRecord response =
+        dao.addResponse(
+            UUID.randomUUID(),
+            kbPaymentId,
+            UUID.randomUUID(),
+            TransactionType.PURCHASE,
+            BigDecimal.TEN,
+            DEFAULT_CURRENCY,
+            PaymentPluginStatus.PENDING,
+            null,
+            new ProcessorOutputDTO(),
+            UUID.randomUUID());
+    Assert.assertNull(response.getKbPaymentMethodId());
+    try (final Connection connection =
+            EmbeddedDbHelper.instance().getDataSource().getConnection();
+        final Statement statement = connection.createStatement()) {
+      statement.execute(
+          "create table if not exists payments (id char(36), payment_method_id char(36))");
+      statement.execute(
+          "insert into payments values ('" + kbPaymentId + "', '" + kbPaymentMethodId + "')");
+    }
+
+    // The indexes, column and table already exist in ddl.sql: the migrations are only recorded,
+    // and the payment method backfilled
+    Assert.assertEquals(migrator.migrate(), 3);
+    Assert.assertEquals(migrator.migrate(), 0);
+    Assert.assertEquals(
+        dao.getResponseFromMerchantReference(response.getKbPaymentTransactionId())
+            .getKbPaymentMethodId(),
+        kbPaymentMethodId.toString());
+  }
+}
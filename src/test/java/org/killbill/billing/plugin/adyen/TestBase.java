@@ -34,9 +34,11 @@ import org.killbill.billing.payment.api.PaymentApi;
 import org.killbill.billing.payment.api.PaymentMethod;
 import org.killbill.billing.plugin.TestUtils;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
 import org.killbill.billing.plugin.adyen.core.AdyenActivator;
 import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
 import org.killbill.billing.plugin.adyen.dao.AdyenDao;
 import org.killbill.billing.util.api.CustomFieldUserApi;
 import org.killbill.billing.util.callcontext.CallContext;
@@ -138,7 +140,9 @@ public class TestBase {
             killbillApi,
             configPropertiesService,
             clock,
-            dao);
+            dao,
+            new GatewayProcessorRegistry(
+                adyenConfigPropertiesConfigurationHandler, new AdyenMetrics()));
 
     TestUtils.updateOSGIKillbillAPI(killbillApi, adyenPaymentPluginApi);
 
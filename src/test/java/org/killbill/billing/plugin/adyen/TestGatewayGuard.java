@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.service.exception.ApiException;
+import com.google.common.base.Ticker;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.killbill.billing.plugin.adyen.client.AdaptiveConcurrencyLimiter;
+import org.killbill.billing.plugin.adyen.client.CircuitBreaker;
+import org.killbill.billing.plugin.adyen.client.GatewayGuard;
+import org.killbill.billing.plugin.adyen.client.GatewayUnavailableException;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestGatewayGuard {
+
+  @Test(groups = "fast")
+  public void testCircuitBreakerOpensAndRecovers() {
+    final AtomicLong nanos = new AtomicLong();
+    final CircuitBreaker breaker =
+        new CircuitBreaker(
+            2,
+            1000,
+            new Ticker() {
+              @Override
+              public long read() {
+                return nanos.get();
+              }
+            });
+
+    Assert.assertTrue(breaker.tryAcquire());
+    breaker.onFailure();
+    Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+    Assert.assertTrue(breaker.tryAcquire());
+    breaker.onFailure();
+    Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+    Assert.assertFalse(breaker.tryAcquire());
+
+    // A single trial call once the open duration has elapsed
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Assert.assertTrue(breaker.tryAcquire());
+    Assert.assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+    Assert.assertFalse(breaker.tryAcquire());
+    breaker.onFailure();
+    Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Assert.assertTrue(breaker.tryAcquire());
+    breaker.onSuccess();
+    Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+  }
+
+  @Test(groups = "fast")
+  public void testLimiterBacksOffOnSlowCalls() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 10, 100);
+    Assert.assertTrue(limiter.tryAcquire());
+    Assert.assertTrue(limiter.tryAcquire());
+    Assert.assertFalse(limiter.tryAcquire());
+
+    limiter.release(500, false);
+    limiter.release(500, false);
+    Assert.assertEquals(limiter.getLimit(), 1);
+    Assert.assertEquals(limiter.getInFlight(), 0);
+
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(limiter.tryAcquire());
+      limiter.release(10, false);
+    }
+    Assert.assertTrue(limiter.getLimit() > 1);
+  }
+
+  @Test(groups = "fast")
+  public void testGatewayErrorsTripTheCircuit() throws Exception {
+    final Properties properties = new Properties();
+    properties.put(
+        "org.killbill.billing.plugin.adyen.gateway.circuitBreaker.failureThreshold", "2");
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final GatewayGuard guard =
+        new GatewayGuard("tenant", new AdyenConfigProperties(properties, ""), metrics);
+
+    // Request errors are not about the gateway health
+    for (int i = 0; i < 3; i++) {
+      assertFailsWith(guard, "refunds", 422);
+    }
+    Assert.assertEquals(guard.getState("refunds"), CircuitBreaker.State.CLOSED);
+
+    assertFailsWith(guard, "refunds", 503);
+    assertFailsWith(guard, "refunds", 503);
+    Assert.assertEquals(guard.getState("refunds"), CircuitBreaker.State.OPEN);
+    Assert.assertEquals(
+        metrics
+            .getGauges()
+            .get("adyen_gateway_circuit_state{tenant=\"tenant\",operation=\"refunds\"}"),
+        2);
+
+    try {
+      guard.call("refunds", () -> "not sent");
+      Assert.fail("Circuit should be open");
+    } catch (final GatewayUnavailableException e) {
+      Assert.assertEquals(e.getReason(), GatewayUnavailableException.CIRCUIT_OPEN);
+    }
+    // Other operations are not affected
+    Assert.assertEquals(guard.call("payments", () -> "sent"), "sent");
+    Assert.assertEquals(
+        metrics
+            .getCounters()
+            .get("adyen_gateway_shed_total{tenant=\"tenant\",reason=\"CIRCUIT_OPEN\"}"),
+        Long.valueOf(1));
+  }
+
+  @Test(groups = "fast")
+  public void testLatenciesAreExposedToPrometheus() throws Exception {
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final GatewayGuard guard =
+        new GatewayGuard("tenant", new AdyenConfigProperties(new Properties(), ""), metrics);
+
+    guard.call("payments", () -> "sent");
+    guard.call("payments", () -> "sent");
+    try {
+      guard.call(
+          "payments",
+          () -> {
+            throw new IOException("Read timed out");
+          });
+      Assert.fail("Call should have failed");
+    } catch (final IOException e) {
+      Assert.assertEquals(e.getMessage(), "Read timed out");
+    }
+
+    final String text = metrics.toPrometheusText();
+    final String success = "tenant=\"tenant\",operation=\"payments\",outcome=\"success\"";
+    Assert.assertTrue(
+        text.contains("# TYPE adyen_gateway_request_duration_seconds histogram\n"), text);
+    Assert.assertTrue(
+        text.contains(
+            "adyen_gateway_request_duration_seconds_bucket{" + success + ",le=\"60.0\"} 2\n"),
+        text);
+    Assert.assertTrue(
+        text.contains(
+            "adyen_gateway_request_duration_seconds_bucket{" + success + ",le=\"+Inf\"} 2\n"),
+        text);
+    Assert.assertTrue(
+        text.contains("adyen_gateway_request_duration_seconds_count{" + success + "} 2\n"), text);
+    Assert.assertTrue(
+        text.contains(
+            "adyen_gateway_request_duration_seconds_count{tenant=\"tenant\","
+                + "operation=\"payments\",outcome=\"io_error\"} 1\n"),
+        text);
+    Assert.assertTrue(text.contains("# TYPE adyen_gateway_concurrency_limit gauge\n"), text);
+  }
+
+  private static void assertFailsWith(
+      final GatewayGuard guard, final String operation, final int statusCode) throws Exception {
+    try {
+      guard.call(
+          operation,
+          () -> {
+            throw new ApiException("Adyen error", statusCode);
+          });
+      Assert.fail("Call should have failed");
+    } catch (final ApiException e) {
+      Assert.assertEquals(e.getStatusCode(), statusCode);
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.plugin.TestUtils;
+import org.killbill.billing.plugin.adyen.AdyenSimulator.Endpoint;
+import org.killbill.billing.plugin.adyen.AdyenSimulator.LatencyDistribution;
+import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.client.AsyncGatewayProcessor;
+import org.killbill.billing.plugin.adyen.client.GatewayExecutor;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessor;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
+import org.killbill.billing.plugin.adyen.core.AdyenActivator;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestGatewayProcessorRegistry {
+
+  @Test(groups = "fast")
+  public void testProcessorIsReusedUntilConfigurationChanges() throws Exception {
+    final Properties properties = TestUtils.loadProperties(TestBase.PROPERTIES_FILE_NAME);
+    final AdyenConfigurationHandler configurationHandler =
+        new AdyenConfigurationHandler(
+            null, AdyenActivator.PLUGIN_NAME, Mockito.mock(OSGIKillbillAPI.class));
+    configurationHandler.setDefaultConfigurable(new AdyenConfigProperties(properties, ""));
+
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final GatewayProcessorRegistry registry =
+        new GatewayProcessorRegistry(configurationHandler, metrics);
+
+    final GatewayProcessor first = registry.get(null);
+    Assert.assertSame(registry.get(null), first);
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_gateway_processor_created_total"), Long.valueOf(1));
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_gateway_processor_reused_total"), Long.valueOf(1));
+
+    // Simulates a configuration upload
+    configurationHandler.setDefaultConfigurable(new AdyenConfigProperties(properties, ""));
+    Assert.assertNotSame(registry.get(null), first);
+    Assert.assertEquals(
+        metrics.getCounters().get("adyen_gateway_processor_swapped_total"), Long.valueOf(1));
+    Assert.assertSame(registry.getAsync(null).getProcessor(), registry.get(null));
+    Assert.assertNotNull(
+        metrics
+            .getGauges()
+            .get("adyen_http_pool_max{tenant=\"00000000-0000-0000-0000-000000000000\"}"));
+
+    registry.shutdown();
+  }
+
+  @Test(groups = "fast")
+  public void testConcurrentLookupsShareOneProcessor() throws Exception {
+    final Properties properties = TestUtils.loadProperties(TestBase.PROPERTIES_FILE_NAME);
+    final AdyenConfigurationHandler configurationHandler =
+        new AdyenConfigurationHandler(
+            null, AdyenActivator.PLUGIN_NAME, Mockito.mock(OSGIKillbillAPI.class));
+    configurationHandler.setDefaultConfigurable(new AdyenConfigProperties(properties, ""));
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final GatewayProcessorRegistry registry =
+        new GatewayProcessorRegistry(configurationHandler, metrics);
+
+    final ExecutorService threads = Executors.newFixedThreadPool(8);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Future<GatewayProcessor>> lookups = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        lookups.add(
+            threads.submit(
+                () -> {
+                  start.await();
+                  return registry.get(null);
+                }));
+      }
+      start.countDown();
+      final GatewayProcessor processor = lookups.get(0).get(10, TimeUnit.SECONDS);
+      for (final Future<GatewayProcessor> lookup : lookups) {
+        Assert.assertSame(lookup.get(10, TimeUnit.SECONDS), processor);
+      }
+      // Entries built by the threads which lost the race are discarded
+      Assert.assertEquals(
+          metrics.getCounters().get("adyen_gateway_processor_created_total"), Long.valueOf(1));
+      Assert.assertEquals(metrics.getGauges().get("adyen_gateway_processor_cached"), 1);
+    } finally {
+      threads.shutdownNow();
+      registry.shutdown();
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testRateLimiterIsDroppedWithItsLastTenant() throws Exception {
+    final Properties properties = TestUtils.loadProperties(TestBase.PROPERTIES_FILE_NAME);
+    properties.put("org.killbill.billing.plugin.adyen.rateLimit.permitsPerSecond", "10");
+    final AdyenConfigurationHandler configurationHandler =
+        new AdyenConfigurationHandler(
+            null, AdyenActivator.PLUGIN_NAME, Mockito.mock(OSGIKillbillAPI.class));
+    configurationHandler.setDefaultConfigurable(new AdyenConfigProperties(properties, ""));
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final GatewayProcessorRegistry registry =
+        new GatewayProcessorRegistry(configurationHandler, metrics);
+
+    registry.get(null);
+    Assert.assertTrue(metrics.getGauges().containsKey(rateLimitSeries("tokens", "test")));
+    Assert.assertTrue(metrics.getHistograms().containsKey(rateLimitSeries("wait_seconds", "test")));
+
+    // Same merchant account: the bucket is kept
+    configurationHandler.setDefaultConfigurable(new AdyenConfigProperties(properties, ""));
+    registry.get(null);
+    Assert.assertTrue(metrics.getGauges().containsKey(rateLimitSeries("tokens", "test")));
+
+    // The tenant moves to another merchant account
+    properties.put("org.killbill.billing.plugin.adyen.merchantAccount", "other");
+    configurationHandler.setDefaultConfigurable(new AdyenConfigProperties(properties, ""));
+    registry.get(null);
+    Assert.assertFalse(metrics.getGauges().containsKey(rateLimitSeries("tokens", "test")));
+    Assert.assertFalse(
+        metrics.getHistograms().containsKey(rateLimitSeries("wait_seconds", "test")));
+    Assert.assertTrue(metrics.getGauges().containsKey(rateLimitSeries("tokens", "other")));
+
+    registry.shutdown();
+  }
+
+  private static String rateLimitSeries(final String metric, final String merchantAccount) {
+    return "adyen_rate_limit_" + metric + "{merchant_account=\"" + merchantAccount + "\"}";
+  }
+
+  @Test(groups = "fast")
+  public void testReplacedClientIsClosedOnceIdle() throws Exception {
+    try (final AdyenSimulator simulator =
+        new AdyenSimulator(42L).withLatency(LatencyDistribution.fixed(500)).start()) {
+      final Properties properties = TestUtils.loadProperties(TestBase.PROPERTIES_FILE_NAME);
+      properties.put(
+          "org.killbill.billing.plugin.adyen.checkoutEndpoint", simulator.getCheckoutEndpoint());
+      final AdyenConfigurationHandler configurationHandler =
+          new AdyenConfigurationHandler(
+              null, AdyenActivator.PLUGIN_NAME, Mockito.mock(OSGIKillbillAPI.class));
+      configurationHandler.setDefaultConfigurable(new AdyenConfigProperties(properties, ""));
+      final GatewayProcessorRegistry registry =
+          new GatewayProcessorRegistry(configurationHandler, new AdyenMetrics());
+
+      final GatewayProcessor first = registry.get(null);
+      final CompletableFuture<ProcessorOutputDTO> inFlight =
+          CompletableFuture.supplyAsync(() -> first.refundPayment(refund()));
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (simulator.getRequestCount(Endpoint.REFUNDS) == 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+
+      // The configuration is replaced while the refund is on the wire
+      configurationHandler.setDefaultConfigurable(new AdyenConfigProperties(properties, ""));
+      Assert.assertNotSame(registry.get(null), first);
+      Assert.assertNotNull(inFlight.get(10, TimeUnit.SECONDS).getFirstPaymentReferenceId());
+
+      // A stale reference is served by the current processor
+      Assert.assertNotNull(first.refundPayment(refund()).getFirstPaymentReferenceId());
+      Assert.assertEquals(simulator.getRequestCount(Endpoint.REFUNDS), 2);
+
+      registry.shutdown();
+    }
+  }
+
+  private static ProcessorInputDTO refund() {
+    final ProcessorInputDTO input = new ProcessorInputDTO();
+    input.setCurrency(Currency.EUR);
+    input.setAmount(new BigDecimal("10.00"));
+    input.setKbTransactionId(UUID.randomUUID().toString());
+    input.setPspReference("8315");
+    return input;
+  }
+
+  @Test(groups = "fast")
+  public void testAsyncCallsAreBounded() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final GatewayProcessor processor = Mockito.mock(GatewayProcessor.class);
+    Mockito.when(processor.refundPayment(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              release.await();
+              return new ProcessorOutputDTO();
+            });
+
+    final ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+    try {
+      final AsyncGatewayProcessor asyncProcessor = new AsyncGatewayProcessor(processor, executor);
+      final CompletableFuture<ProcessorOutputDTO> inFlight =
+          asyncProcessor.refundPayment(new ProcessorInputDTO());
+      final CompletableFuture<ProcessorOutputDTO> queued =
+          asyncProcessor.refundPayment(new ProcessorInputDTO());
+      final CompletableFuture<ProcessorOutputDTO> rejected =
+          asyncProcessor.refundPayment(new ProcessorInputDTO());
+
+      Assert.assertTrue(rejected.isCompletedExceptionally());
+      try {
+        rejected.join();
+        Assert.fail("Call should have been rejected");
+      } catch (final CompletionException e) {
+        Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+      }
+
+      release.countDown();
+      Assert.assertNotNull(inFlight.get(10, TimeUnit.SECONDS));
+      Assert.assertNotNull(queued.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testVirtualThreadsBulkheadIsPerTenant() throws Exception {
+    final LongAdder rejected = new LongAdder();
+    final GatewayExecutor executor = new GatewayExecutor(true, 1, 0, rejected);
+    try {
+      if (!executor.isVirtualThreads()) {
+        // Falls back to platform threads
+        Assert.assertTrue(Runtime.version().feature() < 21);
+        return;
+      }
+
+      final CountDownLatch release = new CountDownLatch(1);
+      final Executor tenantA = executor.forTenant(UUID.randomUUID());
+      final Executor tenantB = executor.forTenant(UUID.randomUUID());
+      final CompletableFuture<Void> busy =
+          CompletableFuture.runAsync(
+              () -> {
+                try {
+                  release.await();
+                } catch (final InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+              },
+              tenantA);
+
+      try {
+        tenantA.execute(() -> {});
+        Assert.fail("Tenant A has no slot left");
+      } catch (final RejectedExecutionException e) {
+        Assert.assertEquals(rejected.sum(), 1);
+      }
+      CompletableFuture.runAsync(() -> {}, tenantB).get(10, TimeUnit.SECONDS);
+
+      release.countDown();
+      busy.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.checkout.PaymentReversalResponse;
+import com.google.common.base.Ticker;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.client.AdyenProcessorImpl;
+import org.killbill.billing.plugin.adyen.client.AdyenSDKClient;
+import org.killbill.billing.plugin.adyen.client.CircuitBreaker;
+import org.killbill.billing.plugin.adyen.client.GatewayGuard;
+import org.killbill.billing.plugin.adyen.client.GatewayUnavailableException;
+import org.killbill.billing.plugin.adyen.client.MerchantRateLimiter;
+import org.killbill.billing.plugin.adyen.client.TokenBucket;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestMerchantRateLimiter {
+
+  @Test(groups = "fast")
+  public void testTokenBucketReservesUpToTheDeadline() {
+    final AtomicLong nanos = new AtomicLong();
+    final TokenBucket bucket =
+        new TokenBucket(
+            10,
+            2,
+            new Ticker() {
+              @Override
+              public long read() {
+                return nanos.get();
+              }
+            });
+    final long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(150);
+
+    // Burst
+    Assert.assertEquals(bucket.reserve(0), 0);
+    Assert.assertEquals(bucket.reserve(0), 0);
+    Assert.assertEquals(bucket.reserve(0), -1);
+
+    // Waiting callers are queued behind each other: 100ms, then 200ms (too long)
+    Assert.assertEquals(bucket.reserve(maxWaitNanos), TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertEquals(bucket.reserve(maxWaitNanos), -1);
+    Assert.assertEquals(bucket.getTokens(), -1.0, 1e-9);
+
+    // Refilled at 10 permits per second, up to the burst
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Assert.assertEquals(bucket.getTokens(), 2.0, 1e-9);
+
+    bucket.setRate(10, 1);
+    Assert.assertEquals(bucket.getTokens(), 1.0, 1e-9);
+  }
+
+  @Test(groups = "fast")
+  public void testRejectedCallsAreShedWithoutTrippingTheCircuit() throws Exception {
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final AdyenSDKClient delegate = Mockito.mock(AdyenSDKClient.class);
+    final PaymentReversalResponse response = new PaymentReversalResponse();
+    response.setPspReference("psp-reversal");
+    Mockito.when(delegate.reversal(Mockito.anyString(), Mockito.anyString())).thenReturn(response);
+    final GatewayGuard guard =
+        new GatewayGuard("tenant", new AdyenConfigProperties(new Properties(), ""), metrics);
+    final AdyenProcessorImpl processor =
+        new AdyenProcessorImpl(
+            delegate,
+            guard,
+            new MerchantRateLimiter(new TokenBucket(1, 1), 0, "TestMerchant", metrics));
+
+    final ProcessorInputDTO input = new ProcessorInputDTO();
+    input.setKbTransactionId("kb-1");
+    input.setPspReference("psp-1");
+    Assert.assertEquals(processor.voidPayment(input).getFirstPaymentReferenceId(), "psp-reversal");
+    for (int i = 0; i < 10; i++) {
+      final ProcessorOutputDTO output = processor.voidPayment(input);
+      Assert.assertEquals(output.getStatus(), PaymentPluginStatus.CANCELED);
+      Assert.assertEquals(output.getGatewayErrorCode(), GatewayUnavailableException.RATE_LIMITED);
+    }
+
+    Mockito.verify(delegate, Mockito.times(1)).reversal(Mockito.anyString(), Mockito.anyString());
+    Assert.assertEquals(guard.getState("reversals"), CircuitBreaker.State.CLOSED);
+    Assert.assertEquals(
+        metrics
+            .getCounters()
+            .get("adyen_rate_limit_rejected_total{merchant_account=\"TestMerchant\"}"),
+        Long.valueOf(10));
+  }
+
+  @Test(groups = "fast")
+  public void testWaitIsNotAccountedAsGatewayLatency() throws Exception {
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final AdyenSDKClient delegate = Mockito.mock(AdyenSDKClient.class);
+    Mockito.when(delegate.reversal(Mockito.anyString(), Mockito.anyString()))
+        .thenReturn(new PaymentReversalResponse());
+    final Properties properties = new Properties();
+    // Any call slower than this would shrink the concurrency limit
+    properties.put("org.killbill.billing.plugin.adyen.gateway.limiter.latencyThresholdMs", "100");
+    final GatewayGuard guard =
+        new GatewayGuard("tenant", new AdyenConfigProperties(properties, ""), metrics);
+    final AdyenProcessorImpl processor =
+        new AdyenProcessorImpl(
+            delegate,
+            guard,
+            new MerchantRateLimiter(new TokenBucket(2, 1), 1000, "TestMerchant", metrics));
+    final Number initialLimit =
+        metrics.getGauges().get("adyen_gateway_concurrency_limit{tenant=\"tenant\"}");
+
+    final ProcessorInputDTO input = new ProcessorInputDTO();
+    input.setKbTransactionId("kb-1");
+    input.setPspReference("psp-1");
+    final long startNanos = System.nanoTime();
+    for (int i = 0; i < 3; i++) {
+      Assert.assertNull(processor.voidPayment(input).getStatus());
+    }
+
+    // The last two calls waited ~500ms each for a token, without slowing the gateway down
+    Assert.assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(900));
+    Assert.assertTrue(
+        metrics
+                .getGauges()
+                .get("adyen_gateway_concurrency_limit{tenant=\"tenant\"}")
+                .intValue()
+            >= initialLimit.intValue());
+  }
+}
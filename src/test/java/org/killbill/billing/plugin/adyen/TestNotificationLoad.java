@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import org.jooby.Result;
+import org.killbill.billing.osgi.libs.killbill.OSGIConfigPropertiesService;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.WebhookLoadGenerator.Report;
+import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenHmacValidator;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationDeduplicator;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationInbox;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationValidator;
+import org.killbill.billing.plugin.adyen.core.resources.AdyenNotificationServlet;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Drives the notification servlet with {@link WebhookLoadGenerator} against the embedded database.
+ * The defaults keep it short enough for the regular suite; scale it up to measure changes to the
+ * notification path, e.g. {@code -Dadyen.load.notifications=20000 -Dadyen.load.rate=500}.
+ */
+public class TestNotificationLoad extends TestBase {
+
+  private static final Logger logger = LoggerFactory.getLogger(TestNotificationLoad.class);
+
+  private static final String PREFIX = "org.killbill.billing.plugin.adyen.";
+  private static final String MERCHANT_ACCOUNT = "TestMerchant";
+  private static final String AUTHORIZATION =
+      "Basic " + Base64.getEncoder().encodeToString("kb:secret".getBytes(StandardCharsets.UTF_8));
+
+  @Test(groups = "slow")
+  public void testNotificationThroughput() throws Exception {
+    final int notifications = Integer.getInteger("adyen.load.notifications", 200);
+    final int itemsPerNotification = Integer.getInteger("adyen.load.itemsPerNotification", 5);
+    final double rate = Double.parseDouble(System.getProperty("adyen.load.rate", "100"));
+    final int concurrency = Integer.getInteger("adyen.load.concurrency", 4);
+
+    final Properties properties = new Properties();
+    properties.setProperty(PREFIX + "merchantAccount", MERCHANT_ACCOUNT);
+    properties.setProperty(PREFIX + "hcmaKey", TestAdyenHmacValidator.HMAC_KEY);
+    properties.setProperty(PREFIX + "username", "kb");
+    properties.setProperty(PREFIX + "password", "secret");
+    final AdyenConfigProperties configuration = new AdyenConfigProperties(properties, "");
+    adyenConfigPropertiesConfigurationHandler.setDefaultConfigurable(configuration);
+
+    // Only the statements of the notification path are counted, not the seeding ones
+    final LongAdder statements = new LongAdder();
+    final AdyenDao countingDao =
+        new AdyenDao(
+            WebhookLoadGenerator.countingStatements(
+                EmbeddedDbHelper.instance().getDataSource(), statements));
+    final AdyenMetrics metrics = new AdyenMetrics();
+    final AdyenNotificationValidator notificationValidator =
+        new AdyenNotificationValidator(
+            adyenConfigPropertiesConfigurationHandler, new AdyenHmacValidator(), metrics);
+    final AdyenPaymentPluginApi paymentPluginApi =
+        new AdyenPaymentPluginApi(
+            adyenConfigPropertiesConfigurationHandler,
+            killbillApi,
+            Mockito.mock(OSGIConfigPropertiesService.class),
+            clock,
+            countingDao,
+            new GatewayProcessorRegistry(adyenConfigPropertiesConfigurationHandler, metrics),
+            new AdyenNotificationDeduplicator(configuration, metrics),
+            notificationValidator,
+            null,
+            null);
+    final AdyenNotificationServlet servlet =
+        new AdyenNotificationServlet(
+            paymentPluginApi,
+            new AdyenNotificationInbox(
+                countingDao, paymentPluginApi, clock, configuration, metrics),
+            notificationValidator);
+
+    final WebhookLoadGenerator generator =
+        new WebhookLoadGenerator(MERCHANT_ACCOUNT, TestAdyenHmacValidator.HMAC_KEY, 0L);
+    final List<String> bodies =
+        generator.seed(dao, UUID.randomUUID(), notifications, itemsPerNotification);
+    final Report report =
+        generator.run(
+            bodies,
+            body -> {
+              final Result result = servlet.notification(body, Optional.of(AUTHORIZATION));
+              final int status = result.status().map(s -> s.value()).orElse(200);
+              if (status / 100 != 2) {
+                throw new IOException("Webhook rejected with HTTP " + status);
+              }
+            },
+            rate,
+            concurrency,
+            statements::sum);
+    logger.info("[Adyen] Notification load: {}", report);
+
+    Assert.assertEquals(report.getFailures(), 0);
+    // Check that every item was applied, not only acknowledged
+    final Map<String, AdyenResponsesRecord> responses =
+        dao.getResponsesFromMerchantReferences(generator.getMerchantReferences());
+    Assert.assertEquals(responses.size(), notifications * itemsPerNotification);
+    for (final AdyenResponsesRecord response : responses.values()) {
+      Assert.assertNotEquals(response.getTransactionStatus(), PaymentPluginStatus.PENDING.name());
+    }
+  }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.sql.DataSource;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.AdyenSimulator.WebhookSink;
+import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Produces signed webhooks for payments seeded in {@code adyen_responses}, and delivers them to a
+ * {@link WebhookSink} (e.g. the notification servlet) at a target rate, to measure the notification
+ * path end to end without Adyen.
+ *
+ * <p>Each seeded transaction gets exactly one notification item: 70% are authorisations of
+ * purchases (carrying a recurring detail reference when successful), 20% refunds and 10%
+ * cancellations. Random draws come from a seeded generator, so that runs are reproducible.
+ *
+ * <p>Webhooks are sent on a fixed schedule, whether or not the previous ones have been answered,
+ * and latencies are measured from the scheduled send time: a slow plugin shows up as a higher
+ * latency, instead of as a lower send rate.
+ */
+public class WebhookLoadGenerator {
+
+  private static final Logger logger = LoggerFactory.getLogger(WebhookLoadGenerator.class);
+
+  private static final Currency CURRENCY = Currency.EUR;
+  private static final long AMOUNT_MINOR_UNITS = 1130L;
+
+  /** Outcome of a {@link #run}. */
+  public static final class Report {
+
+    private final int notifications;
+    private final int items;
+    private final long failures;
+    private final long elapsedNanos;
+    private final long statements;
+    private final long[] sortedLatencyNanos;
+
+    private Report(
+        final int notifications,
+        final int items,
+        final long failures,
+        final long elapsedNanos,
+        final long statements,
+        final long[] latencyNanos) {
+      this.notifications = notifications;
+      this.items = items;
+      this.failures = failures;
+      this.elapsedNanos = elapsedNanos;
+      this.statements = statements;
+      this.sortedLatencyNanos = latencyNanos.clone();
+      Arrays.sort(sortedLatencyNanos);
+    }
+
+    public long getFailures() {
+      return failures;
+    }
+
+    public double getThroughput() {
+      return notifications / (elapsedNanos / 1e9);
+    }
+
+    public double getLatencyMillis(final double percentile) {
+      if (sortedLatencyNanos.length == 0) {
+        return 0;
+      }
+      final int index = (int) Math.ceil(percentile / 100 * sortedLatencyNanos.length) - 1;
+      return sortedLatencyNanos[Math.max(0, Math.min(index, sortedLatencyNanos.length - 1))]
+          / 1e6;
+    }
+
+    public double getStatementsPerNotification() {
+      return notifications == 0 ? 0 : (double) statements / notifications;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d notifications (%d items) in %.2fs: %.1f/s, p50 %.2fms, p99 %.2fms, max %.2fms, "
+              + "%.1f statements per notification, %d failures",
+          notifications,
+          items,
+          elapsedNanos / 1e9,
+          getThroughput(),
+          getLatencyMillis(50),
+          getLatencyMillis(99),
+          getLatencyMillis(100),
+          getStatementsPerNotification(),
+          failures);
+    }
+  }
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final HMACValidator hmacValidator = new HMACValidator();
+  private final String merchantAccount;
+  private final String hmacKey;
+  private final Random random;
+  private final List<String> merchantReferences = new ArrayList<>();
+  private double successRate = 0.9;
+  private long pspReferences = 8815000000000000L;
+  private int items;
+
+  public WebhookLoadGenerator(final String merchantAccount, final String hmacKey, final long seed) {
+    this.merchantAccount = merchantAccount;
+    this.hmacKey = hmacKey;
+    this.random = new Random(seed);
+  }
+
+  public WebhookLoadGenerator withSuccessRate(final double successRate) {
+    this.successRate = successRate;
+    return this;
+  }
+
+  /**
+   * Seeds the pending transactions of {@code notifications * itemsPerNotification} items, and
+   * returns the JSON bodies of the webhooks notifying them.
+   */
+  public List<String> seed(
+      final AdyenDao dao,
+      final UUID kbTenantId,
+      final int notifications,
+      final int itemsPerNotification)
+      throws Exception {
+    final List<String> bodies = new ArrayList<>(notifications);
+    for (int i = 0; i < notifications; i++) {
+      final List<NotificationRequestItem> batch = new ArrayList<>(itemsPerNotification);
+      for (int j = 0; j < itemsPerNotification; j++) {
+        batch.add(seedItem(dao, kbTenantId));
+      }
+      bodies.add(toNotificationJson(batch));
+      items += itemsPerNotification;
+    }
+    return bodies;
+  }
+
+  /** Merchant references of all the seeded transactions. */
+  public List<String> getMerchantReferences() {
+    return merchantReferences;
+  }
+
+  /**
+   * Delivers {@code bodies} to {@code sink} at {@code ratePerSecond} (or as fast as possible if not
+   * positive) from {@code concurrency} threads. {@code statements} is sampled before and after the
+   * run, e.g. a counter fed by {@link #countingStatements}.
+   */
+  public Report run(
+      final List<String> bodies,
+      final WebhookSink sink,
+      final double ratePerSecond,
+      final int concurrency,
+      final LongSupplier statements)
+      throws InterruptedException {
+    final ExecutorService senders =
+        Executors.newFixedThreadPool(
+            concurrency,
+            new ThreadFactoryBuilder().setNameFormat("webhook-load-%d").setDaemon(true).build());
+    final long[] latencyNanos = new long[bodies.size()];
+    final LongAdder failures = new LongAdder();
+    final CountDownLatch done = new CountDownLatch(bodies.size());
+    final long intervalNanos =
+        ratePerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond) : 0;
+
+    final long statementsBefore = statements.getAsLong();
+    final long start = System.nanoTime();
+    try {
+      for (int i = 0; i < bodies.size(); i++) {
+        final int index = i;
+        final long scheduled = start + i * intervalNanos;
+        long wait;
+        while ((wait = scheduled - System.nanoTime()) > 0) {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        senders.execute(
+            () -> {
+              try {
+                sink.deliver(bodies.get(index));
+              } catch (final Exception e) {
+                failures.increment();
+                logger.warn("Webhook {} failed", index, e);
+              } finally {
+                latencyNanos[index] = System.nanoTime() - scheduled;
+                done.countDown();
+              }
+            });
+      }
+      done.await();
+    } finally {
+      senders.shutdownNow();
+    }
+    final long elapsedNanos = System.nanoTime() - start;
+
+    return new Report(
+        bodies.size(),
+        items,
+        failures.sum(),
+        elapsedNanos,
+        statements.getAsLong() - statementsBefore,
+        latencyNanos);
+  }
+
+  /**
+   * Wraps {@code dataSource} so that each statement executed on its connections (a batch counting
+   * as one) increments {@code statements}.
+   */
+  public static DataSource countingStatements(
+      final DataSource dataSource, final LongAdder statements) {
+    return (DataSource) counting(DataSource.class, dataSource, statements);
+  }
+
+  private static Object counting(
+      final Class<?> type, final Object target, final LongAdder statements) {
+    return Proxy.newProxyInstance(
+        WebhookLoadGenerator.class.getClassLoader(),
+        new Class<?>[] {type},
+        (proxy, method, args) -> {
+          if (target instanceof Statement && method.getName().startsWith("execute")) {
+            statements.increment();
+          }
+          final Object result;
+          try {
+            result = method.invoke(target, args);
+          } catch (final InvocationTargetException e) {
+            throw e.getCause();
+          }
+          final Class<?> returnType = method.getReturnType();
+          if (result != null
+              && (returnType == Connection.class || Statement.class.isAssignableFrom(returnType))) {
+            return counting(returnType, result, statements);
+          }
+          return result;
+        });
+  }
+
+  private NotificationRequestItem seedItem(final AdyenDao dao, final UUID kbTenantId)
+      throws Exception {
+    final UUID kbAccountId = UUID.randomUUID();
+    final UUID kbPaymentId = UUID.randomUUID();
+    final UUID kbPaymentMethodId = UUID.randomUUID();
+    final double draw = random.nextDouble();
+    final boolean success = random.nextDouble() < successRate;
+
+    final String purchasePspReference = String.valueOf(++pspReferences);
+    final AdyenResponsesRecord purchase =
+        dao.addResponse(
+            kbAccountId,
+            kbPaymentId,
+            UUID.randomUUID(),
+            kbPaymentMethodId,
+            TransactionType.PURCHASE,
+            BigDecimal.valueOf(AMOUNT_MINOR_UNITS, 2),
+            CURRENCY,
+            draw < 0.7 ? PaymentPluginStatus.PENDING : PaymentPluginStatus.PROCESSED,
+            "CS" + purchasePspReference,
+            output(purchasePspReference),
+            kbTenantId);
+
+    final NotificationRequestItem item = new NotificationRequestItem();
+    item.setMerchantAccountCode(merchantAccount);
+    item.setSuccess(success);
+    item.setAdditionalData(new HashMap<>());
+    if (draw < 0.7) {
+      dao.addPaymentMethod(
+          kbAccountId, kbPaymentMethodId, ImmutableMap.of(), true, kbTenantId, true);
+      item.setEventCode("AUTHORISATION");
+      item.setPspReference(purchasePspReference);
+      item.setMerchantReference(purchase.getKbPaymentTransactionId());
+      if (success) {
+        item.getAdditionalData()
+            .put(AdyenPaymentPluginApi.RECURRING_DATA, String.valueOf(++pspReferences));
+      }
+    } else {
+      final boolean refund = draw < 0.9;
+      final String pspReference = String.valueOf(++pspReferences);
+      final AdyenResponsesRecord transaction =
+          dao.addResponse(
+              kbAccountId,
+              kbPaymentId,
+              UUID.randomUUID(),
+              kbPaymentMethodId,
+              refund ? TransactionType.REFUND : TransactionType.VOID,
+              BigDecimal.valueOf(AMOUNT_MINOR_UNITS, 2),
+              CURRENCY,
+              PaymentPluginStatus.PENDING,
+              null,
+              output(pspReference),
+              kbTenantId);
+      item.setEventCode(refund ? "REFUND" : "CANCELLATION");
+      item.setPspReference(pspReference);
+      item.setOriginalReference(purchasePspReference);
+      item.setMerchantReference(transaction.getKbPaymentTransactionId());
+    }
+    final Amount amount = new Amount();
+    amount.setCurrency(CURRENCY.name());
+    amount.setValue(AMOUNT_MINOR_UNITS);
+    item.setAmount(amount);
+    item.getAdditionalData().put("hmacSignature", hmacValidator.calculateHMAC(item, hmacKey));
+
+    merchantReferences.add(item.getMerchantReference());
+    return item;
+  }
+
+  private static ProcessorOutputDTO output(final String pspReference) {
+    final ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
+    outputDTO.setPspReferenceCode(pspReference);
+    return outputDTO;
+  }
+
+  private String toNotificationJson(final List<NotificationRequestItem> batch) throws Exception {
+    final List<Map<String, Object>> itemsJson = new ArrayList<>(batch.size());
+    for (final NotificationRequestItem item : batch) {
+      final Map<String, Object> itemJson = new LinkedHashMap<>();
+      itemJson.put("additionalData", item.getAdditionalData());
+      itemJson.put(
+          "amount",
+          ImmutableMap.of(
+              "currency", item.getAmount().getCurrency(), "value", item.getAmount().getValue()));
+      itemJson.put("eventCode", item.getEventCode());
+      itemJson.put("eventDate", Instant.now().toString());
+      itemJson.put("merchantAccountCode", item.getMerchantAccountCode());
+      itemJson.put("merchantReference", item.getMerchantReference());
+      if (item.getOriginalReference() != null) {
+        itemJson.put("originalReference", item.getOriginalReference());
+      }
+      itemJson.put("pspReference", item.getPspReference());
+      itemJson.put("reason", "");
+      itemJson.put("success", String.valueOf(item.isSuccess()));
+      itemsJson.add(ImmutableMap.of("NotificationRequestItem", itemJson));
+    }
+
+    return objectMapper.writeValueAsString(
+        ImmutableMap.of("live", "false", "notificationItems", ImmutableList.copyOf(itemsJson)));
+  }
+}